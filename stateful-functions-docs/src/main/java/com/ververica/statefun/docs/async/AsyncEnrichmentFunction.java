@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.docs.async;
+
+import com.ververica.statefun.sdk.AsyncContext;
+import com.ververica.statefun.sdk.AsyncStatefulFunction;
+import com.ververica.statefun.sdk.annotations.Persisted;
+import com.ververica.statefun.sdk.state.PersistedValue;
+import java.util.concurrent.CompletionStage;
+
+public class AsyncEnrichmentFunction implements AsyncStatefulFunction {
+
+  @Persisted
+  private final PersistedValue<UserEnrichment> enrichment =
+      PersistedValue.of("enrichment", UserEnrichment.class);
+
+  private final QueryService client;
+
+  public AsyncEnrichmentFunction(QueryService client) {
+    this.client = client;
+  }
+
+  @Override
+  public CompletionStage<Void> invoke(AsyncContext context, Object input) {
+    User user = (User) input;
+    return client
+        .getDataAsync(user.getUserId())
+        .thenAcceptAsync(
+            value -> {
+              enrichment.set(value);
+              context.reply(value);
+            },
+            context.executor());
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.ververica.statefun.flink.common.protobuf;
 
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Message;
@@ -30,11 +31,19 @@ import org.apache.flink.core.memory.DataOutputView;
 @NotThreadSafe
 public final class ProtobufSerializer<M extends Message> {
 
+  /**
+   * Messages up to this size are (de)serialized through a reusable buffer, larger messages are
+   * streamed directly from (to) the underlying view, to avoid retaining a large buffer.
+   */
+  private static final int MAX_BUFFERED_MESSAGE_SIZE = 64 * 1024;
+
   private final OutputStreamView output;
   private final InputStreamView input;
   private final Parser<M> parser;
   private final ProtobufSerializerSnapshot snapshot;
 
+  private byte[] buffer = new byte[0];
+
   public static <M extends Message> ProtobufSerializer<M> forMessageGeneratedClass(Class<M> type) {
     Objects.requireNonNull(type);
     Parser<M> parser = ProtobufReflectionUtil.protobufParser(type);
@@ -53,6 +62,14 @@ public final class ProtobufSerializer<M extends Message> {
     final int size = record.getSerializedSize();
     target.writeInt(size);
 
+    if (size <= MAX_BUFFERED_MESSAGE_SIZE) {
+      final byte[] buffer = buffer(size);
+      final CodedOutputStream codedOutput = CodedOutputStream.newInstance(buffer, 0, size);
+      record.writeTo(codedOutput);
+      codedOutput.checkNoSpaceLeft();
+      target.write(buffer, 0, size);
+      return;
+    }
     output.set(target);
     try {
       record.writeTo(output);
@@ -63,6 +80,11 @@ public final class ProtobufSerializer<M extends Message> {
 
   public M deserialize(DataInputView source) throws IOException {
     final int serializedSize = source.readInt();
+    if (serializedSize <= MAX_BUFFERED_MESSAGE_SIZE) {
+      final byte[] buffer = buffer(serializedSize);
+      source.readFully(buffer, 0, serializedSize);
+      return parser.parseFrom(buffer, 0, serializedSize);
+    }
     input.set(source, serializedSize);
     try {
       return parser.parseFrom(input);
@@ -89,6 +111,17 @@ public final class ProtobufSerializer<M extends Message> {
   // Internal helpers
   // ---------------------------------------------------------------------------------------------------------------
 
+  /**
+   * Returns a reusable buffer of at least the requested size. The buffer is only used within a
+   * single call, as the parsed messages do not alias it.
+   */
+  private byte[] buffer(int minSize) {
+    if (buffer.length < minSize) {
+      buffer = new byte[Math.max(minSize, Math.min(2 * buffer.length, MAX_BUFFERED_MESSAGE_SIZE))];
+    }
+    return buffer;
+  }
+
   private static <M extends Message> ProtobufSerializerSnapshot createSnapshot(Class<M> type) {
     Descriptor messageDescriptor = ProtobufReflectionUtil.protobufDescriptor(type);
     FileDescriptorSet dependencies =
@@ -78,6 +78,35 @@ public class ProtobufSerializerTest {
     assertThat(foo, is(originalMessage));
   }
 
+  @Test
+  public void largeMessagesRoundTrip() throws IOException {
+    StringBuilder name = new StringBuilder();
+    for (int i = 0; i < 128 * 1024; i++) {
+      name.append('a');
+    }
+    SimpleMessage largeMessage = SimpleMessage.newBuilder().setName(name.toString()).build();
+
+    SimpleMessage message = roundTrip(SimpleMessage.class, largeMessage);
+
+    assertThat(message, is(largeMessage));
+  }
+
+  @Test
+  public void bufferIsReusedAcrossMessagesOfDifferentSizes() throws IOException {
+    ProtobufSerializer<SimpleMessage> serializer =
+        ProtobufSerializer.forMessageGeneratedClass(SimpleMessage.class);
+    SimpleMessage longerMessage = SimpleMessage.newBuilder().setName("bob-the-builder").build();
+
+    DataOutputSerializer out = new DataOutputSerializer(512);
+    serializer.serialize(longerMessage, out);
+    serializer.serialize(originalMessage, out);
+
+    DataInputDeserializer in = new DataInputDeserializer(out.getCopyOfBuffer());
+
+    assertThat(serializer.deserialize(in), is(longerMessage));
+    assertThat(serializer.deserialize(in), is(originalMessage));
+  }
+
   @SuppressWarnings("SameParameterValue")
   private static <M extends Message> M roundTrip(Class<M> messageType, M original)
       throws IOException {
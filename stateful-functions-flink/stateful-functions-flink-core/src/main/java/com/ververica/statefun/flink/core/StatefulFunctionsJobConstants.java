@@ -50,11 +50,101 @@ public final class StatefulFunctionsJobConstants {
               "Use a single MapState to multiplex different function types and persisted values,"
                   + "instead of using a ValueState for each <FunctionType, PersistedValue> combination");
 
+  public static final ConfigOption<Boolean> CACHE_PERSISTED_VALUES =
+      ConfigOptions.key("stateful-functions.state.cache-persisted-values")
+          .defaultValue(false)
+          .withDescription(
+              "Cache the deserialized persisted values of the function address that is currently "
+                  + "being applied, and write modified values back to the state backend once, "
+                  + "when the next address is applied or before a checkpoint is taken.");
+
+  public static final ConfigOption<Boolean> LAZY_ASYNC_OPERATIONS =
+      ConfigOptions.key("stateful-functions.state.lazy-async-operations")
+          .defaultValue(false)
+          .withDescription(
+              "Track the pending async operations in memory, and write to the state backend only "
+                  + "those operations that are still pending when a checkpoint is taken, instead "
+                  + "of writing and removing every operation.");
+
+  public static final ConfigOption<Integer> ASYNC_RESTORE_BATCH_SIZE =
+      ConfigOptions.key("stateful-functions.state.async-restore-batch-size")
+          .defaultValue(1024)
+          .withDescription(
+              "The number of restored async operations to expire, before their results are applied "
+                  + "to the functions, while a job is restored.");
+
+  public static final ConfigOption<Integer> MAX_ENVELOPES_PER_DRAIN =
+      ConfigOptions.key("stateful-functions.functions.max-envelopes-per-drain")
+          .defaultValue(-1)
+          .withDescription(
+              "The maximum number of envelopes to apply to functions in a single drain, before yielding "
+                  + "the operator thread back to the mailbox. Set to -1 to always drain completely.");
+
+  public static final ConfigOption<Integer> MAX_BATCH_PER_ACTIVATION =
+      ConfigOptions.key("stateful-functions.functions.max-batch-per-activation")
+          .defaultValue(1)
+          .withDescription(
+              "The maximum number of messages to apply to a single function address in one go, while "
+                  + "its state key is set, before moving on to the next pending address. Pending "
+                  + "addresses are served in turns; a message to an address that is already pending "
+                  + "joins that address's mailbox.");
+
+  public static final ConfigOption<String> PARALLEL_FUNCTION_TYPES =
+      ConfigOptions.key("stateful-functions.functions.parallel-types")
+          .defaultValue("")
+          .withDescription(
+              "A comma separated list of function types (namespace/name) whose invocations for "
+                  + "different addresses may run concurrently on a pool of worker threads. The "
+                  + "messages of a single address are still applied one at a time, in order.");
+
+  public static final ConfigOption<Integer> PARALLEL_WORKERS =
+      ConfigOptions.key("stateful-functions.functions.parallel-workers")
+          .defaultValue(-1)
+          .withDescription(
+              "The number of worker threads per subtask, that invoke the parallel function types. "
+                  + "Set to -1 to use the number of available processors.");
+
+  public static final ConfigOption<String> BLOCKING_FUNCTION_TYPES =
+      ConfigOptions.key("stateful-functions.functions.blocking-types")
+          .defaultValue("")
+          .withDescription(
+              "A comma separated list of function types (namespace/name) that may block, i.e. on "
+                  + "synchronous I/O. Their invocations run on dedicated threads. While fewer than "
+                  + "blocking-threads invocations are blocked, a blocked invocation only holds back "
+                  + "the messages of its own address; beyond that, the invocations of other "
+                  + "addresses of blocking types wait for a free thread. A checkpoint barrier waits "
+                  + "for all the blocked invocations.");
+
+  public static final ConfigOption<Integer> BLOCKING_THREADS =
+      ConfigOptions.key("stateful-functions.functions.blocking-threads")
+          .defaultValue(64)
+          .withDescription(
+              "The maximum number of concurrently blocked invocations per subtask, of the blocking "
+                  + "function types. Once reached, the invocations of further addresses wait until "
+                  + "a blocked invocation completes.");
+
+  public static final ConfigOption<String> ASYNC_OPERATION_LIMITS =
+      ConfigOptions.key("stateful-functions.functions.async-operation-limits")
+          .defaultValue("")
+          .withDescription(
+              "A comma separated list of namespace/name=limit entries, that limit the number of "
+                  + "in flight async operations of a function type. Once a type has reached its "
+                  + "limit, its invocations are deferred until some of its operations complete.");
+
   public static final ConfigOption<String> USER_MESSAGE_SERIALIZER =
       ConfigOptions.key("stateful-functions.message.serializer")
           .defaultValue(MessageFactoryType.WITH_PROTOBUF_PAYLOADS.name())
           .withDescription("The serializer to use for on the wire messages.");
 
+  public static final ConfigOption<String> KRYO_REGISTERED_PAYLOAD_CLASSES =
+      ConfigOptions.key("stateful-functions.message.kryo-registered-classes")
+          .defaultValue("")
+          .withDescription(
+              "A comma separated list of payload classes to register with Kryo, when using "
+                  + "WITH_KRYO_PAYLOADS. Registered classes are written as a small id instead of "
+                  + "their name. New classes may only be appended to this list, to be able to "
+                  + "restore from previous savepoints.");
+
   public static final ConfigOption<String> FLINK_JOB_NAME =
       ConfigOptions.key("stateful-functions.flink-job-name")
           .defaultValue("StatefulFunctions")
@@ -16,6 +16,7 @@
 
 package com.ververica.statefun.flink.core;
 
+import com.ververica.statefun.flink.core.message.MessageFactoryKey;
 import com.ververica.statefun.flink.core.message.MessageFactoryType;
 import com.ververica.statefun.flink.core.types.StaticallyRegisteredTypes;
 import com.ververica.statefun.flink.io.spi.FlinkIoModule;
@@ -31,11 +32,14 @@ import com.ververica.statefun.sdk.io.IngressIdentifier;
 import com.ververica.statefun.sdk.io.IngressSpec;
 import com.ververica.statefun.sdk.io.Router;
 import com.ververica.statefun.sdk.spi.StatefulFunctionModule;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 import javax.annotation.Nullable;
 
 public final class StatefulFunctionsUniverse
@@ -49,11 +53,16 @@ public final class StatefulFunctionsUniverse
   private final Map<EgressType, SinkProvider> sinks = new HashMap<>();
 
   private final StaticallyRegisteredTypes types;
-  private final MessageFactoryType messageFactoryType;
+  private final Set<String> protobufTypeNames = new TreeSet<>();
+  private MessageFactoryKey messageFactoryKey;
 
   public StatefulFunctionsUniverse(MessageFactoryType messageFactoryType) {
-    this.messageFactoryType = messageFactoryType;
-    this.types = new StaticallyRegisteredTypes(messageFactoryType);
+    this(MessageFactoryKey.forType(messageFactoryType));
+  }
+
+  public StatefulFunctionsUniverse(MessageFactoryKey messageFactoryKey) {
+    this.messageFactoryKey = messageFactoryKey;
+    this.types = new StaticallyRegisteredTypes(this::messageFactoryKey);
   }
 
   @Override
@@ -61,7 +70,7 @@ public final class StatefulFunctionsUniverse
     Objects.requireNonNull(spec);
     IngressIdentifier<T> id = spec.id();
     putAndThrowIfPresent(ingress, id, spec);
-    types.registerType(id.producedType());
+    registerType(id.producedType());
   }
 
   @Override
@@ -73,7 +82,7 @@ public final class StatefulFunctionsUniverse
         routers.computeIfAbsent(ingressIdentifier, unused -> new ArrayList<>());
     ingressRouters.add(router);
 
-    types.registerType(ingressIdentifier.producedType());
+    registerType(ingressIdentifier.producedType());
   }
 
   @Override
@@ -82,7 +91,7 @@ public final class StatefulFunctionsUniverse
     EgressIdentifier<T> id = spec.id();
     putAndThrowIfPresent(egress, id, spec);
 
-    types.registerType(id.consumedType());
+    registerType(id.consumedType());
   }
 
   @Override
@@ -133,6 +142,16 @@ public final class StatefulFunctionsUniverse
     return types;
   }
 
+  private void registerType(Class<?> type) {
+    types.registerType(type);
+    if (com.google.protobuf.Message.class.isAssignableFrom(type)
+        && !Modifier.isAbstract(type.getModifiers())
+        && protobufTypeNames.add(type.getName())
+        && messageFactoryKey.getType() == MessageFactoryType.WITH_PROTOBUF_PAYLOADS) {
+      messageFactoryKey = MessageFactoryKey.forProtobufPayloads(new ArrayList<>(protobufTypeNames));
+    }
+  }
+
   private static <K, V> void putAndThrowIfPresent(Map<K, V> map, K key, V value) {
     @Nullable V previous = map.put(key, value);
     if (previous == null) {
@@ -143,6 +162,16 @@ public final class StatefulFunctionsUniverse
   }
 
   public MessageFactoryType messageFactoryType() {
-    return messageFactoryType;
+    return messageFactoryKey.getType();
+  }
+
+  /**
+   * Returns the key of the {@link com.ververica.statefun.flink.core.message.MessageFactory} of this
+   * universe. With {@link MessageFactoryType#WITH_PROTOBUF_PAYLOADS}, the Protobuf types that were
+   * bound as ingress or egress types are registered with the payload serializer, therefore this
+   * must only be used once all the modules were configured.
+   */
+  public MessageFactoryKey messageFactoryKey() {
+    return messageFactoryKey;
   }
 }
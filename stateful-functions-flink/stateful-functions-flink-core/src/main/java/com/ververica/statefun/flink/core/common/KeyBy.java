@@ -17,6 +17,8 @@
 package com.ververica.statefun.flink.core.common;
 
 import com.ververica.statefun.sdk.Address;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+import org.apache.flink.util.MathUtils;
 
 public final class KeyBy {
   private KeyBy() {}
@@ -24,4 +26,21 @@ public final class KeyBy {
   public static String apply(Address address) {
     return address.id();
   }
+
+  /**
+   * Computes the murmur hash of the key of the given {@link Address}, as used by Flink to assign
+   * keys to key groups. The result is never negative and does not depend on the max parallelism,
+   * therefore it can be computed once and reused with {@link #keyGroup(int, int)}.
+   */
+  public static int keyHash(Address address) {
+    return MathUtils.murmurHash(apply(address).hashCode());
+  }
+
+  /**
+   * Returns the key group of a key hash previously computed by {@link #keyHash(Address)}. This is
+   * equivalent to {@link KeyGroupRangeAssignment#assignToKeyGroup(Object, int)}.
+   */
+  public static int keyGroup(int keyHash, int maxParallelism) {
+    return keyHash % maxParallelism;
+  }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.feedback;
+
+import com.ververica.statefun.flink.core.logger.SpillingFeedbackBuffer;
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Puts elements into a {@link FeedbackChannel}, while keeping at most {@code capacity} elements in
+ * flight (put, but not yet consumed).
+ *
+ * <p>Blocking the producer of a full channel would deadlock the feedback loop: the producer would
+ * stop consuming its input, that would backpressure the consumer's output, which in turn would stop
+ * the consumer from draining the channel. Instead, elements beyond the capacity overflow into a
+ * {@link SpillingFeedbackBuffer}, and are moved (in order) into the channel as the consumer catches
+ * up.
+ *
+ * <p>This class is not thread safe, all of its methods (and the drains that it schedules on the
+ * producer executor) must run on the producer thread.
+ */
+final class BoundedFeedbackProducer<T> implements Closeable {
+  private final FeedbackChannel<T> channel;
+  private final long capacity;
+  private final SpillingFeedbackBuffer<T> overflow;
+  private final Runnable scheduleOverflowDrain;
+
+  private long totalProduced;
+
+  BoundedFeedbackProducer(
+      FeedbackChannel<T> channel,
+      int capacity,
+      SpillingFeedbackBuffer<T> overflow,
+      Executor producerExecutor) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive, but was " + capacity);
+    }
+    this.channel = Objects.requireNonNull(channel);
+    this.capacity = capacity;
+    this.overflow = Objects.requireNonNull(overflow);
+    Objects.requireNonNull(producerExecutor);
+    this.scheduleOverflowDrain = () -> producerExecutor.execute(this::drainOverflow);
+  }
+
+  void put(T element) {
+    if (overflow.isEmpty() && hasCapacity()) {
+      send(element);
+      return;
+    }
+    // to preserve the order of the elements, once something has overflown, everything that follows
+    // must overflow as well until the overflow is drained.
+    overflow.add(element);
+    drainOverflow();
+  }
+
+  /** Returns the number of elements that are waiting for the consumer to catch up. */
+  long overflowSize() {
+    return overflow.size();
+  }
+
+  @Override
+  public void close() {
+    channel.notifyOnConsumption(null);
+    overflow.close();
+  }
+
+  private void drainOverflow() {
+    while (!overflow.isEmpty()) {
+      if (hasCapacity()) {
+        send(overflow.poll());
+        continue;
+      }
+      channel.notifyOnConsumption(scheduleOverflowDrain);
+      // the consumer might have caught up just before the callback was registered.
+      if (!hasCapacity()) {
+        return;
+      }
+    }
+  }
+
+  private boolean hasCapacity() {
+    return totalProduced - channel.totalConsumed() < capacity;
+  }
+
+  private void send(T element) {
+    totalProduced++;
+    channel.put(element);
+  }
+}
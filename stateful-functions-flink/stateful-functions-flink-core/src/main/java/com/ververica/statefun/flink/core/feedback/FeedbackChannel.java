@@ -16,11 +16,15 @@
 
 package com.ververica.statefun.flink.core.feedback;
 
+import com.ververica.statefun.flink.core.metrics.SlidingWindowHistogram;
 import java.io.Closeable;
 import java.util.Deque;
 import java.util.Objects;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import org.apache.flink.metrics.Histogram;
 import org.apache.flink.util.IOUtils;
 
 /** Single producer, single consumer channel. */
@@ -35,6 +39,21 @@ public final class FeedbackChannel<T> implements Closeable {
   /** A single registered consumer */
   private final AtomicReference<ConsumerTask<T>> consumerRef = new AtomicReference<>();
 
+  /** The total number of elements that were handed to the consumer so far. */
+  private final AtomicLong totalConsumed = new AtomicLong();
+
+  /** A callback to invoke once, the next time that the consumer consumes elements. */
+  private final AtomicReference<Runnable> consumptionCallback = new AtomicReference<>();
+
+  /** The number of elements put into this channel so far, written by the producer only. */
+  private long totalProduced;
+
+  /** The number of elements consumed by each (non empty) drain. */
+  private final SlidingWindowHistogram drainBatchSizes = new SlidingWindowHistogram();
+
+  /** The time, in nanoseconds, that each (non empty) drain held the consumer lock for. */
+  private final SlidingWindowHistogram drainDurations = new SlidingWindowHistogram();
+
   FeedbackChannel(SubtaskFeedbackKey<T> key, FeedbackQueue<T> queue) {
     this.key = Objects.requireNonNull(key);
     this.queue = Objects.requireNonNull(queue);
@@ -46,6 +65,7 @@ public final class FeedbackChannel<T> implements Closeable {
 
   /** Adds a feedback result to this channel. */
   public void put(T value) {
+    totalProduced++;
     if (!queue.addAndCheckIfWasEmpty(value)) {
       // successfully added @value into the queue, but the queue wasn't (atomically) drained yet,
       // so there is nothing more to do.
@@ -63,6 +83,44 @@ public final class FeedbackChannel<T> implements Closeable {
     consumer.scheduleDrainAll();
   }
 
+  /** Returns the total number of elements that were handed to the consumer of this channel. */
+  public long totalConsumed() {
+    return totalConsumed.get();
+  }
+
+  /**
+   * Returns the number of elements that were put into this channel, but were not yet consumed.
+   *
+   * <p>This is an estimate meant for monitoring, when called from a thread other than the
+   * producer's, it might be slightly stale.
+   */
+  public long size() {
+    return Math.max(0, totalProduced - totalConsumed.get());
+  }
+
+  /**
+   * Registers a callback to be invoked (once, on the consumer thread) the next time that the
+   * consumer consumes elements of this channel. A previously registered callback is replaced.
+   *
+   * <p>A producer that waits for the consumer to catch up, should register the callback first, and
+   * only then re-check {@link #totalConsumed()}, so that a concurrent consumption is not missed.
+   *
+   * @param callback the callback to invoke, or {@code null} to remove a registered callback.
+   */
+  public void notifyOnConsumption(@Nullable Runnable callback) {
+    consumptionCallback.set(callback);
+  }
+
+  /** The number of elements that were consumed by each of the recent drains. */
+  Histogram drainBatchSizes() {
+    return drainBatchSizes;
+  }
+
+  /** The time in nanoseconds, that each of the recent drains held the consumer lock for. */
+  Histogram drainDurations() {
+    return drainDurations;
+  }
+
   /**
    * Register a feedback iteration consumer
    *
@@ -74,10 +132,34 @@ public final class FeedbackChannel<T> implements Closeable {
    */
   void registerConsumer(
       final FeedbackConsumer<T> consumer, final Object consumerLock, Executor executor) {
+    registerConsumer(consumer, consumerLock, executor, -1);
+  }
+
+  /**
+   * Register a feedback iteration consumer, that consumes at most {@code maxDrainBatchSize}
+   * elements at a time.
+   *
+   * <p>Once a drain has consumed {@code maxDrainBatchSize} elements, the rest of the elements are
+   * left for a following drain, that is scheduled on the executor. This lets other tasks of that
+   * executor (for example, the processing of new input by an operator's mailbox) interleave with a
+   * large backlog of feedback elements.
+   *
+   * @param consumer the feedback events consumer.
+   * @param consumerLock a lock to acquire before calling the consumer.
+   * @param executor the executor to schedule feedback consumption on.
+   * @param maxDrainBatchSize the maximum number of elements to consume at a time, or a non-positive
+   *     value to consume all the available elements.
+   */
+  void registerConsumer(
+      final FeedbackConsumer<T> consumer,
+      final Object consumerLock,
+      Executor executor,
+      int maxDrainBatchSize) {
     Objects.requireNonNull(consumer);
     Objects.requireNonNull(consumerLock);
 
-    ConsumerTask<T> consumerTask = new ConsumerTask<>(consumerLock, executor, consumer, queue);
+    ConsumerTask<T> consumerTask =
+        new ConsumerTask<>(consumerLock, executor, consumer, queue, this, maxDrainBatchSize);
 
     if (!this.consumerRef.compareAndSet(null, consumerTask)) {
       throw new IllegalStateException("There can be only a single consumer in a FeedbackChannel.");
@@ -103,21 +185,41 @@ public final class FeedbackChannel<T> implements Closeable {
     broker.removeChannel(key);
   }
 
+  private void onDrained(long count, long durationNanos) {
+    drainBatchSizes.update(count);
+    drainDurations.update(durationNanos);
+    totalConsumed.addAndGet(count);
+    // the (volatile) update above must precede checking for a callback, see notifyOnConsumption().
+    final Runnable callback = consumptionCallback.getAndSet(null);
+    if (callback != null) {
+      callback.run();
+    }
+  }
+
   private static final class ConsumerTask<T> implements Runnable, Closeable {
     private final Object checkpointLock;
     private final Executor executor;
     private final FeedbackConsumer<T> consumer;
     private final FeedbackQueue<T> queue;
+    private final FeedbackChannel<T> channel;
+    private final int maxDrainBatchSize;
+
+    /** Elements that were drained from the queue, but were not yet consumed. */
+    @Nullable private Deque<T> pending;
 
     ConsumerTask(
         Object checkpointLock,
         Executor executor,
         FeedbackConsumer<T> consumer,
-        FeedbackQueue<T> queue) {
+        FeedbackQueue<T> queue,
+        FeedbackChannel<T> channel,
+        int maxDrainBatchSize) {
       this.checkpointLock = Objects.requireNonNull(checkpointLock);
       this.executor = Objects.requireNonNull(executor);
       this.consumer = Objects.requireNonNull(consumer);
       this.queue = Objects.requireNonNull(queue);
+      this.channel = Objects.requireNonNull(channel);
+      this.maxDrainBatchSize = maxDrainBatchSize > 0 ? maxDrainBatchSize : Integer.MAX_VALUE;
     }
 
     void scheduleDrainAll() {
@@ -130,15 +232,41 @@ public final class FeedbackChannel<T> implements Closeable {
       // this is so that it can be used with the operators, that requires all the methods to
       // enter with the checkpoint lock.
       synchronized (checkpointLock) {
-        final Deque<T> buffer = queue.drainAll();
+        final long start = System.nanoTime();
+        Deque<T> buffer = pending;
+        boolean drained = false;
+        if (buffer == null || buffer.isEmpty()) {
+          buffer = queue.drainAll();
+          drained = true;
+        }
+        int count = 0;
         try {
-          T element;
-          while ((element = buffer.pollFirst()) != null) {
-            consumer.processFeedback(element);
+          while (count < maxDrainBatchSize) {
+            final T element = buffer.pollFirst();
+            if (element != null) {
+              consumer.processFeedback(element);
+              count++;
+            } else if (!drained) {
+              // the leftovers of a previous drain are consumed, continue with the queue.
+              buffer = queue.drainAll();
+              drained = true;
+            } else {
+              break;
+            }
           }
         } catch (Exception e) {
           throw new RuntimeException(e);
         }
+        pending = buffer.isEmpty() ? null : buffer;
+        if (count > 0) {
+          channel.onDrained(count, System.nanoTime() - start);
+        }
+        if (pending != null || !drained) {
+          // the batch is exhausted, yield and continue with a following drain. The queue must be
+          // drained again even without leftovers: the elements added since its previous drain have
+          // scheduled a single drain, which might have been this one.
+          scheduleDrainAll();
+        }
       }
     }
 
@@ -26,4 +26,40 @@ public final class FeedbackConfiguration {
           .defaultValue(32 * 1024 * 1024)
           .withDescription(
               "The number of bytes to use for in memory buffering of the feedback channel, before spilling to disk");
+
+  public static final ConfigOption<Integer> CHANNEL_CAPACITY =
+      ConfigOptions.key("stateful-functions.feedback.channel.capacity")
+          .defaultValue(0)
+          .withDescription(
+              "The maximum number of messages in flight on the feedback channel, beyond that messages overflow to a spilling buffer (0 for an unbounded channel)");
+
+  public static final ConfigOption<Integer> OVERFLOW_MEMORY_BYTES =
+      ConfigOptions.key("stateful-functions.feedback.overflow.memory.bytes")
+          .defaultValue(32 * 1024 * 1024)
+          .withDescription(
+              "The number of bytes to use for in memory buffering of feedback messages that overflow a bounded feedback channel, before spilling to disk");
+
+  public static final ConfigOption<Boolean> ASYNC_COMMIT =
+      ConfigOptions.key("stateful-functions.feedback.async-commit")
+          .defaultValue(false)
+          .withDescription(
+              "Whether the feedback messages that were logged during a checkpoint are written to the checkpoint stream by a background thread, instead of by the task thread");
+
+  public static final ConfigOption<Boolean> COMPRESSION =
+      ConfigOptions.key("stateful-functions.feedback.compression")
+          .defaultValue(false)
+          .withDescription(
+              "Whether to compress (with LZ4) the feedback messages that are logged during a checkpoint, both when spilled to disk and when written to the checkpoint");
+
+  public static final ConfigOption<Integer> REPLAY_BATCH_SIZE =
+      ConfigOptions.key("stateful-functions.feedback.replay.batch-size")
+          .defaultValue(-1)
+          .withDescription(
+              "The maximum number of restored feedback messages to replay at once, in between the processing of new messages (-1 to replay all of them before processing new messages)");
+
+  public static final ConfigOption<Integer> MAX_DRAIN_BATCH_SIZE =
+      ConfigOptions.key("stateful-functions.feedback.max-drain-batch-size")
+          .defaultValue(-1)
+          .withDescription(
+              "The maximum number of feedback messages to process at once, before yielding to the processing of new input messages (-1 to process all the available feedback messages)");
 }
@@ -16,12 +16,21 @@
 
 package com.ververica.statefun.flink.core.feedback;
 
+import com.ververica.statefun.flink.core.common.MailboxExecutorFacade;
+import com.ververica.statefun.flink.core.logger.SpillingFeedbackBuffer;
 import java.util.Objects;
 import java.util.function.LongFunction;
+import javax.annotation.Nullable;
+import org.apache.flink.api.common.ExecutionConfig.GlobalJobParameters;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Gauge;
 import org.apache.flink.metrics.MeterView;
 import org.apache.flink.metrics.MetricGroup;
 import org.apache.flink.metrics.SimpleCounter;
+import org.apache.flink.runtime.io.disk.iomanager.IOManager;
 import org.apache.flink.streaming.api.operators.AbstractStreamOperator;
+import org.apache.flink.streaming.api.operators.MailboxExecutor;
 import org.apache.flink.streaming.api.operators.OneInputStreamOperator;
 import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
 import org.apache.flink.util.IOUtils;
@@ -39,12 +48,18 @@ public final class FeedbackSinkOperator<V> extends AbstractStreamOperator<Void>
 
   // ----- runtime -----
 
+  private transient MailboxExecutor mailboxExecutor;
   private transient FeedbackChannel<V> channel;
+  @Nullable private transient BoundedFeedbackProducer<V> boundedProducer;
   private transient SimpleCounter totalProduced;
 
-  public FeedbackSinkOperator(FeedbackKey<V> key, LongFunction<V> barrierSentinelSupplier) {
+  FeedbackSinkOperator(
+      FeedbackKey<V> key,
+      LongFunction<V> barrierSentinelSupplier,
+      MailboxExecutor mailboxExecutor) {
     this.key = Objects.requireNonNull(key);
     this.barrierSentinelSupplier = Objects.requireNonNull(barrierSentinelSupplier);
+    this.mailboxExecutor = Objects.requireNonNull(mailboxExecutor);
   }
 
   // ----------------------------------------------------------------------------------------------------------
@@ -54,7 +69,7 @@ public final class FeedbackSinkOperator<V> extends AbstractStreamOperator<Void>
   @Override
   public void processElement(StreamRecord<V> record) {
     V value = record.getValue();
-    channel.put(value);
+    put(value);
     totalProduced.inc();
   }
 
@@ -71,29 +86,87 @@ public final class FeedbackSinkOperator<V> extends AbstractStreamOperator<Void>
     FeedbackChannelBroker broker = FeedbackChannelBroker.get();
     this.channel = broker.getChannel(key);
 
+    final Configuration configuration = getConfiguration();
+    final int capacity = configuration.getInteger(FeedbackConfiguration.CHANNEL_CAPACITY);
+    if (capacity > 0) {
+      this.boundedProducer = boundedProducer(configuration, capacity);
+    }
+
     // metrics
     MetricGroup metrics = getRuntimeContext().getMetricGroup();
     SimpleCounter produced = metrics.counter("produced", new SimpleCounter());
     metrics.meter("producedRate", new MeterView(produced, 60));
     this.totalProduced = produced;
+    final FeedbackChannel<V> channel = this.channel;
+    metrics.gauge("feedbackQueueDepth", (Gauge<Long>) channel::size);
+    final BoundedFeedbackProducer<V> boundedProducer = this.boundedProducer;
+    if (boundedProducer != null) {
+      metrics.gauge("feedbackOverflowDepth", (Gauge<Long>) boundedProducer::overflowSize);
+    }
   }
 
   @Override
   public void prepareSnapshotPreBarrier(long checkpointId) throws Exception {
     super.prepareSnapshotPreBarrier(checkpointId);
     V sentinel = barrierSentinelSupplier.apply(checkpointId);
-    channel.put(sentinel);
+    put(sentinel);
   }
 
   @Override
   public void close() throws Exception {
-    IOUtils.closeQuietly(channel);
+    closeInternally();
     super.close();
   }
 
   @Override
   public void dispose() throws Exception {
-    IOUtils.closeQuietly(channel);
+    closeInternally();
     super.dispose();
   }
+
+  // ----------------------------------------------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------------------------------------------
+
+  private void put(V value) {
+    final BoundedFeedbackProducer<V> boundedProducer = this.boundedProducer;
+    if (boundedProducer == null) {
+      channel.put(value);
+    } else {
+      boundedProducer.put(value);
+    }
+  }
+
+  private void closeInternally() {
+    IOUtils.closeQuietly(boundedProducer);
+    boundedProducer = null;
+    IOUtils.closeQuietly(channel);
+  }
+
+  private BoundedFeedbackProducer<V> boundedProducer(Configuration configuration, int capacity) {
+    final IOManager ioManager = getContainingTask().getEnvironment().getIOManager();
+    final TypeSerializer<V> serializer =
+        getOperatorConfig().getTypeSerializerIn1(getUserCodeClassloader());
+    final long overflowMemory =
+        configuration.getInteger(FeedbackConfiguration.OVERFLOW_MEMORY_BYTES);
+
+    SpillingFeedbackBuffer<V> overflow =
+        new SpillingFeedbackBuffer<>(serializer, ioManager, overflowMemory);
+    return new BoundedFeedbackProducer<>(
+        channel,
+        capacity,
+        overflow,
+        new MailboxExecutorFacade(mailboxExecutor, "Feedback Overflow"));
+  }
+
+  private Configuration getConfiguration() {
+    Configuration merged = new Configuration();
+    merged.addAll(getContainingTask().getJobConfiguration());
+
+    GlobalJobParameters globalJobParameters = getExecutionConfig().getGlobalJobParameters();
+    if (globalJobParameters instanceof Configuration) {
+      merged.addAll((Configuration) globalJobParameters);
+    }
+    return merged;
+  }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.feedback;
+
+import java.util.Objects;
+import java.util.function.LongFunction;
+import org.apache.flink.streaming.api.graph.StreamConfig;
+import org.apache.flink.streaming.api.operators.*;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+import org.apache.flink.streaming.runtime.tasks.StreamTask;
+
+public final class FeedbackSinkOperatorFactory<V>
+    implements OneInputStreamOperatorFactory<V, Void>, YieldingOperatorFactory<Void> {
+
+  private static final long serialVersionUID = 1;
+
+  private final FeedbackKey<V> key;
+  private final LongFunction<V> barrierSentinelSupplier;
+
+  private transient MailboxExecutor mailboxExecutor;
+  private ChainingStrategy chainingStrategy = ChainingStrategy.HEAD;
+
+  public FeedbackSinkOperatorFactory(FeedbackKey<V> key, LongFunction<V> barrierSentinelSupplier) {
+    this.key = Objects.requireNonNull(key);
+    this.barrierSentinelSupplier = Objects.requireNonNull(barrierSentinelSupplier);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T extends StreamOperator<Void>> T createStreamOperator(
+      StreamTask<?, ?> containingTask, StreamConfig config, Output<StreamRecord<Void>> output) {
+    FeedbackSinkOperator<V> op =
+        new FeedbackSinkOperator<>(key, barrierSentinelSupplier, mailboxExecutor);
+    op.setChainingStrategy(chainingStrategy);
+    op.setup(containingTask, config, output);
+
+    return (T) op;
+  }
+
+  @Override
+  public void setMailboxExecutor(MailboxExecutor mailboxExecutor) {
+    this.mailboxExecutor =
+        Objects.requireNonNull(mailboxExecutor, "Mailbox executor can't be NULL");
+  }
+
+  @Override
+  public void setChainingStrategy(ChainingStrategy chainingStrategy) {
+    this.chainingStrategy = Objects.requireNonNull(chainingStrategy);
+  }
+
+  @Override
+  public ChainingStrategy getChainingStrategy() {
+    return chainingStrategy;
+  }
+
+  @Override
+  public Class<? extends StreamOperator> getStreamOperatorClass(ClassLoader classLoader) {
+    return FeedbackSinkOperator.class;
+  }
+}
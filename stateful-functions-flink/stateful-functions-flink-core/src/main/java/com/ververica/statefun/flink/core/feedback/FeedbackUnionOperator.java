@@ -18,12 +18,21 @@ package com.ververica.statefun.flink.core.feedback;
 import com.ververica.statefun.flink.core.common.MailboxExecutorFacade;
 import com.ververica.statefun.flink.core.common.SerializableFunction;
 import com.ververica.statefun.flink.core.common.SerializablePredicate;
+import com.ververica.statefun.flink.core.logger.BackgroundCommitExecutor;
 import com.ververica.statefun.flink.core.logger.Loggers;
+import com.ververica.statefun.flink.core.logger.SpillingFeedbackBuffer;
 import com.ververica.statefun.flink.core.logger.UnboundedFeedbackLogger;
 import java.util.Objects;
 import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import org.apache.flink.api.common.ExecutionConfig.GlobalJobParameters;
 import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
 import org.apache.flink.runtime.io.disk.iomanager.IOManager;
+import org.apache.flink.runtime.state.KeyGroupRange;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
 import org.apache.flink.runtime.state.KeyGroupStatePartitionStreamProvider;
 import org.apache.flink.runtime.state.StateInitializationContext;
 import org.apache.flink.runtime.state.StateSnapshotContext;
@@ -49,6 +58,8 @@ public final class FeedbackUnionOperator<T> extends AbstractStreamOperator<T>
 
   // -- runtime
   private transient UnboundedFeedbackLogger<T> feedbackLogger;
+  @Nullable private transient BackgroundCommitExecutor commitExecutor;
+  @Nullable private transient IncrementalFeedbackReplay<T> replay;
   private transient boolean closedOrDisposed;
   private transient MailboxExecutor mailboxExecutor;
   private transient StreamRecord<T> reusable;
@@ -100,9 +111,24 @@ public final class FeedbackUnionOperator<T> extends AbstractStreamOperator<T>
 
     final IOManager ioManager = getContainingTask().getEnvironment().getIOManager();
     final int maxParallelism = getRuntimeContext().getMaxNumberOfParallelSubtasks();
+    final KeyGroupRange keyGroupRange =
+        KeyGroupRangeAssignment.computeKeyGroupRangeForOperatorIndex(
+            maxParallelism,
+            getRuntimeContext().getNumberOfParallelSubtasks(),
+            getRuntimeContext().getIndexOfThisSubtask());
 
     this.reusable = new StreamRecord<>(null);
 
+    final Configuration configuration = getConfiguration();
+    final Executor commitExecutor;
+    if (configuration.getBoolean(FeedbackConfiguration.ASYNC_COMMIT)) {
+      this.commitExecutor =
+          new BackgroundCommitExecutor("Feedback Logger Commit", this::failOnMailbox);
+      commitExecutor = this.commitExecutor;
+    } else {
+      commitExecutor = Runnable::run;
+    }
+
     //
     // Initialize the unbounded feedback logger
     //
@@ -112,40 +138,66 @@ public final class FeedbackUnionOperator<T> extends AbstractStreamOperator<T>
             Loggers.unboundedSpillableLogger(
                 ioManager,
                 maxParallelism,
+                keyGroupRange,
                 totalMemoryUsedForFeedbackCheckpointing,
                 elementSerializer,
-                keySelector);
+                keySelector,
+                commitExecutor,
+                configuration.getBoolean(FeedbackConfiguration.COMPRESSION));
 
     this.feedbackLogger = feedbackLogger;
+    getRuntimeContext()
+        .getMetricGroup()
+        .histogram("feedbackLoggedBytesPerCheckpoint", feedbackLogger.loggedBytesPerCheckpoint());
     //
     // we first must reply previously check-pointed envelopes before we start
-    // processing any new envelopes.
+    // processing any new envelopes. With an incremental replay, the envelopes are only gathered
+    // here, and are replayed from the mailbox in batches, interleaved with new envelopes.
     //
+    final int replayBatchSize = configuration.getInteger(FeedbackConfiguration.REPLAY_BATCH_SIZE);
+    final FeedbackConsumer<T> restoredEnvelopes;
+    if (replayBatchSize > 0) {
+      this.replay = incrementalReplay(ioManager, replayBatchSize);
+      restoredEnvelopes = replay;
+    } else {
+      restoredEnvelopes = this;
+    }
     for (KeyGroupStatePartitionStreamProvider keyedStateInput : context.getRawKeyedStateInputs()) {
-      this.feedbackLogger.replyLoggedEnvelops(keyedStateInput.getStream(), this);
+      if (replay != null) {
+        replay.startKeyGroup(keyedStateInput.getKeyGroupId());
+      }
+      this.feedbackLogger.replyLoggedEnvelops(keyedStateInput.getStream(), restoredEnvelopes);
     }
     //
     // now we can start processing new messages. We do so by registering ourselves as a
     // FeedbackConsumer
     //
-    registerFeedbackConsumer(new MailboxExecutorFacade(mailboxExecutor, "Feedback Consumer"));
+    registerFeedbackConsumer(
+        new MailboxExecutorFacade(mailboxExecutor, "Feedback Consumer"),
+        configuration.getInteger(FeedbackConfiguration.MAX_DRAIN_BATCH_SIZE));
+    if (replay != null) {
+      replay.start();
+    }
   }
 
   @Override
   public void snapshotState(StateSnapshotContext context) throws Exception {
     super.snapshotState(context);
     this.feedbackLogger.startLogging(context.getRawKeyedOperatorStateOutput());
+    if (replay != null) {
+      replay.logRemaining(feedbackLogger::appendSerialized);
+    }
   }
 
   @Override
   public void close() throws Exception {
-    closeInternally();
+    closeInternally(true);
     super.close();
   }
 
   @Override
   public void dispose() throws Exception {
-    closeInternally();
+    closeInternally(false);
     super.dispose();
   }
 
@@ -153,20 +205,70 @@ public final class FeedbackUnionOperator<T> extends AbstractStreamOperator<T>
   // Helpers
   // ------------------------------------------------------------------------------------------------------------------
 
-  private void closeInternally() {
+  private void closeInternally(boolean graceful) {
+    // the executor is closed first, as a running commit still writes the logger's sealed streams.
+    if (commitExecutor != null && graceful) {
+      commitExecutor.close();
+    } else if (commitExecutor != null) {
+      commitExecutor.closeNow();
+    }
     IOUtils.closeQuietly(feedbackLogger);
+    IOUtils.closeQuietly(replay);
     feedbackLogger = null;
+    commitExecutor = null;
+    replay = null;
     closedOrDisposed = true;
   }
 
-  private void registerFeedbackConsumer(Executor mailboxExecutor) {
+  private void registerFeedbackConsumer(Executor mailboxExecutor, int maxDrainBatchSize) {
     final SubtaskFeedbackKey<T> key =
         feedbackKey.withSubTaskIndex(getRuntimeContext().getIndexOfThisSubtask());
     final StreamTask<?, ?> containingTask = getContainingTask();
 
     FeedbackChannelBroker broker = FeedbackChannelBroker.get();
     FeedbackChannel<T> channel = broker.getChannel(key);
-    channel.registerConsumer(this, containingTask.getCheckpointLock(), mailboxExecutor);
+    channel.registerConsumer(
+        this, containingTask.getCheckpointLock(), mailboxExecutor, maxDrainBatchSize);
+
+    MetricGroup metrics = getRuntimeContext().getMetricGroup();
+    metrics.histogram("feedbackDrainBatchSize", channel.drainBatchSizes());
+    metrics.histogram("feedbackDrainDurationNanos", channel.drainDurations());
+  }
+
+  private IncrementalFeedbackReplay<T> incrementalReplay(IOManager ioManager, int batchSize) {
+    IncrementalFeedbackReplay<T> replay =
+        new IncrementalFeedbackReplay<>(
+            new SpillingFeedbackBuffer<>(
+                elementSerializer, ioManager, totalMemoryUsedForFeedbackCheckpointing),
+            batchSize,
+            new MailboxExecutorFacade(mailboxExecutor, "Feedback Replay"),
+            this::sendDownstream);
+
+    MetricGroup metrics = getRuntimeContext().getMetricGroup();
+    metrics.gauge("feedbackReplayRemaining", (Gauge<Long>) replay::remainingCount);
+    metrics.gauge("feedbackReplayed", (Gauge<Long>) replay::replayedCount);
+    return replay;
+  }
+
+  /** Rethrows a failure of the background commit on the task thread, failing the task. */
+  private void failOnMailbox(Throwable cause) {
+    mailboxExecutor.execute(
+        () -> {
+          throw new IllegalStateException(
+              "Asynchronous commit of the feedback log has failed", cause);
+        },
+        "Feedback Logger Commit Failure");
+  }
+
+  private Configuration getConfiguration() {
+    Configuration merged = new Configuration();
+    merged.addAll(getContainingTask().getJobConfiguration());
+
+    GlobalJobParameters globalJobParameters = getExecutionConfig().getGlobalJobParameters();
+    if (globalJobParameters instanceof Configuration) {
+      merged.addAll((Configuration) globalJobParameters);
+    }
+    return merged;
   }
 
   private void sendDownstream(T element) {
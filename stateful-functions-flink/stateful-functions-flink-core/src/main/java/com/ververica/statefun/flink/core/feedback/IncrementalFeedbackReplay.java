@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.feedback;
+
+import com.ververica.statefun.flink.core.logger.SpillingFeedbackBuffer;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Replays the feedback elements that were restored from a checkpoint in batches, so that the replay
+ * is interleaved with the processing of new input instead of preceding it.
+ *
+ * <p>The restored elements are first gathered (while the operator state is initialized) into a
+ * {@link SpillingFeedbackBuffer}, since the restored raw keyed state streams are only available
+ * during initialization. Then, every batch is a separate task on the operator's mailbox, that
+ * replays up to {@code batchSize} elements and schedules the next batch.
+ *
+ * <p>Elements that were not yet replayed are part of the operator state, therefore they must be
+ * added to every checkpoint that is taken while the replay is in progress, see {@link
+ * #logRemaining(SerializedElementLogger)}. To log them without deserializing them, the key group of
+ * every restored element is kept, as runs of consecutive elements of the same key group (the
+ * elements of a key group are restored together).
+ *
+ * <p>This class is not thread safe, all of its methods (and the batches that it schedules on the
+ * mailbox executor) must run on the operator thread.
+ */
+final class IncrementalFeedbackReplay<T> implements FeedbackConsumer<T>, Closeable {
+  private final int batchSize;
+  private final Executor mailboxExecutor;
+  private final FeedbackConsumer<T> downstream;
+
+  private final SpillingFeedbackBuffer<T> remaining;
+  private long totalReplayed;
+  private boolean closed;
+
+  // -- the key groups of the restored elements, as runs of elements of the same key group.
+  private int[] runKeyGroups = new int[8];
+  private int[] runLengths = new int[8];
+  private int runCount;
+  // -- the run of the most recently replayed element, and the number of its replayed elements.
+  private int replayRun;
+  private int replayOffset;
+
+  IncrementalFeedbackReplay(
+      SpillingFeedbackBuffer<T> remaining,
+      int batchSize,
+      Executor mailboxExecutor,
+      FeedbackConsumer<T> downstream) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive, but was " + batchSize);
+    }
+    this.batchSize = batchSize;
+    this.mailboxExecutor = Objects.requireNonNull(mailboxExecutor);
+    this.downstream = Objects.requireNonNull(downstream);
+    this.remaining = Objects.requireNonNull(remaining);
+  }
+
+  /** Starts the restoring of the elements of the given key group. */
+  void startKeyGroup(int keyGroupId) {
+    if (runCount == runKeyGroups.length) {
+      runKeyGroups = Arrays.copyOf(runKeyGroups, 2 * runCount);
+      runLengths = Arrays.copyOf(runLengths, 2 * runCount);
+    }
+    runKeyGroups[runCount] = keyGroupId;
+    runLengths[runCount] = 0;
+    runCount++;
+  }
+
+  /**
+   * Adds a restored element of the most recently started key group, to be replayed once {@link
+   * #start()} is called.
+   */
+  @Override
+  public void processFeedback(T element) {
+    if (runCount == 0) {
+      throw new IllegalStateException("The key group of a restored element was not started");
+    }
+    remaining.add(element);
+    runLengths[runCount - 1]++;
+  }
+
+  /** Schedules the first batch of the replay. */
+  void start() {
+    if (!remaining.isEmpty()) {
+      mailboxExecutor.execute(this::replayBatch);
+    }
+  }
+
+  /**
+   * Appends the elements that were not yet replayed to the given logger (i.e. {@link
+   * com.ververica.statefun.flink.core.logger.UnboundedFeedbackLogger#appendSerialized}), that has
+   * just started logging the feedback of a new checkpoint.
+   *
+   * <p>The elements are copied in their serialized form, and stay in the buffer. See {@link
+   * SpillingFeedbackBuffer#forEachRemaining} for the cost of reading them.
+   */
+  void logRemaining(SerializedElementLogger logger) {
+    if (closed || remaining.isEmpty()) {
+      return;
+    }
+    final int[] run = {replayRun};
+    final int[] offset = {replayOffset};
+    remaining.forEachRemaining(
+        (bytes, length) -> {
+          while (offset[0] == runLengths[run[0]]) {
+            run[0]++;
+            offset[0] = 0;
+          }
+          logger.append(runKeyGroups[run[0]], bytes, length);
+          offset[0]++;
+        });
+  }
+
+  /** The number of restored elements that were not yet replayed. */
+  long remainingCount() {
+    return closed ? 0 : remaining.size();
+  }
+
+  /** The number of restored elements that were replayed so far. */
+  long replayedCount() {
+    return totalReplayed;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    remaining.close();
+  }
+
+  private void replayBatch() {
+    if (closed) {
+      return;
+    }
+    T element;
+    for (int i = 0; i < batchSize && (element = remaining.poll()) != null; i++) {
+      totalReplayed++;
+      advanceReplayPosition();
+      try {
+        downstream.processFeedback(element);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    if (remaining.isEmpty()) {
+      // done, return the memory of the buffer.
+      remaining.close();
+    } else {
+      mailboxExecutor.execute(this::replayBatch);
+    }
+  }
+
+  /** Logs a serialized element of a key group. */
+  @FunctionalInterface
+  interface SerializedElementLogger {
+    void append(int keyGroupId, byte[] bytes, int length);
+  }
+
+  private void advanceReplayPosition() {
+    while (replayOffset == runLengths[replayRun]) {
+      replayRun++;
+      replayOffset = 0;
+    }
+    replayOffset++;
+  }
+}
@@ -16,14 +16,13 @@
 
 package com.ververica.statefun.flink.core.feedback;
 
-import com.ververica.statefun.flink.core.queue.Locks;
-import com.ververica.statefun.flink.core.queue.MpscQueue;
+import com.ververica.statefun.flink.core.queue.LockFreeMpscQueue;
 import java.util.Deque;
 
 public final class LockFreeBatchFeedbackQueue<ElementT> implements FeedbackQueue<ElementT> {
-  private static final int INITIAL_BUFFER_SIZE = 32 * 1024; // 32k
+  private static final int CHUNK_SIZE = 4 * 1024; // 4k
 
-  private final MpscQueue<ElementT> queue = new MpscQueue<>(INITIAL_BUFFER_SIZE, Locks.spinLock());
+  private final LockFreeMpscQueue<ElementT> queue = new LockFreeMpscQueue<>(CHUNK_SIZE);
 
   @Override
   public boolean addAndCheckIfWasEmpty(ElementT element) {
@@ -18,8 +18,36 @@ package com.ververica.statefun.flink.core.functions;
 
 import com.ververica.statefun.flink.core.message.Message;
 import com.ververica.statefun.sdk.Context;
+import java.util.function.Consumer;
 
 public interface ApplyingContext extends Context {
 
   void apply(LiveFunction function, Message inMessage);
+
+  /**
+   * Applies a message to a function, without setting the current state key. This must only be used
+   * right after a previous {@link #apply(LiveFunction, Message)} of a message with the same target
+   * address.
+   */
+  void applyWithCurrentKey(LiveFunction function, Message inMessage);
+
+  /**
+   * Applies the effects (i.e. the sent messages and registered async operations) that were recorded
+   * while a message was applied to a function off the operator thread, as if that message was
+   * applied now. The state key is not set.
+   */
+  void applyRecorded(LiveFunction function, Message inMessage, Consumer<Context> effects);
+
+  /**
+   * Runs a continuation of a message that was previously applied to a function, with the state key
+   * of that message's target set, and with this context bound to that message.
+   */
+  void applyContinuation(LiveFunction function, Message inMessage, Runnable continuation);
+
+  /**
+   * Returns a context that stays bound to a message that was previously applied to a function, no
+   * matter which message this context is applying at the time it is used. The returned context must
+   * only be used on the operator thread.
+   */
+  Context boundTo(LiveFunction function, Message inMessage);
 }
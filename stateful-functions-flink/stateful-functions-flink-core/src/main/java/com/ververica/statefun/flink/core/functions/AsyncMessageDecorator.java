@@ -22,7 +22,6 @@ import com.ververica.statefun.sdk.Address;
 import com.ververica.statefun.sdk.AsyncOperationResult;
 import com.ververica.statefun.sdk.AsyncOperationResult.Status;
 import javax.annotation.Nullable;
-import org.apache.flink.api.common.state.MapState;
 import org.apache.flink.core.memory.DataOutputView;
 
 /**
@@ -30,35 +29,44 @@ import org.apache.flink.core.memory.DataOutputView;
  * with an async operation.
  */
 final class AsyncMessageDecorator<T> implements Message {
-  private final MapState<Long, Message> pendingAsyncOperations;
+  private final PendingAsyncOperations pendingAsyncOperations;
   private final long futureId;
   private final Message message;
   private final Throwable throwable;
   private final T result;
   private final boolean restored;
+  private final long durationNanos;
 
   AsyncMessageDecorator(
-      MapState<Long, Message> pendingAsyncOperations,
+      PendingAsyncOperations pendingAsyncOperations,
       long futureId,
       Message message,
       T result,
-      Throwable throwable) {
+      Throwable throwable,
+      long durationNanos) {
     this.futureId = futureId;
     this.pendingAsyncOperations = pendingAsyncOperations;
     this.message = message;
     this.throwable = throwable;
     this.result = result;
     this.restored = false;
+    this.durationNanos = durationNanos;
   }
 
   AsyncMessageDecorator(
-      MapState<Long, Message> asyncOperationState, Long futureId, Message metadataMessage) {
+      PendingAsyncOperations pendingAsyncOperations, Long futureId, Message metadataMessage) {
     this.futureId = futureId;
-    this.pendingAsyncOperations = asyncOperationState;
+    this.pendingAsyncOperations = pendingAsyncOperations;
     this.message = metadataMessage;
     this.throwable = null;
     this.result = null;
     this.restored = true;
+    this.durationNanos = -1;
+  }
+
+  /** The time it took the operation to complete, or {@code -1} if it was restored. */
+  long durationNanos() {
+    return durationNanos;
   }
 
   @Nullable
@@ -72,6 +80,11 @@ final class AsyncMessageDecorator<T> implements Message {
     return message.target();
   }
 
+  @Override
+  public int targetKeyHash() {
+    return message.targetKeyHash();
+  }
+
   @Override
   public Object payload(MessageFactory context, ClassLoader targetClassLoader) {
     final Status status;
@@ -93,11 +106,7 @@ final class AsyncMessageDecorator<T> implements Message {
 
   @Override
   public void postApply() {
-    try {
-      pendingAsyncOperations.remove(futureId);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+    pendingAsyncOperations.remove(message.target(), futureId);
   }
 
   @Override
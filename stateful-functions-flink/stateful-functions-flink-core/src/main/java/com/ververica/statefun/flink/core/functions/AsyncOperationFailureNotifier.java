@@ -17,8 +17,11 @@
 package com.ververica.statefun.flink.core.functions;
 
 import com.ververica.statefun.flink.core.message.Message;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Objects;
+import javax.annotation.Nullable;
 import org.apache.flink.api.common.state.MapState;
 import org.apache.flink.api.common.state.MapStateDescriptor;
 import org.apache.flink.runtime.state.KeyedStateBackend;
@@ -29,21 +32,52 @@ import org.apache.flink.runtime.state.VoidNamespaceSerializer;
 final class AsyncOperationFailureNotifier
     implements KeyedStateFunction<String, MapState<Long, Message>> {
 
+  /**
+   * Completes every restored async operation with an {@code UNKNOWN} status.
+   *
+   * <p>If the keys that own pending operations are known (see {@link AsyncOperationOwners}), only
+   * these keys are visited, and the resulting envelopes are applied every {@code batchSize}
+   * operations, so that the work (and memory) of a restore is proportional to the number of pending
+   * operations. Otherwise, every key of the state backend is visited.
+   */
   static void fireExpiredAsyncOperations(
       MapStateDescriptor<Long, Message> asyncOperationStateDescriptor,
       Reductions reductions,
       MapState<Long, Message> asyncOperationState,
-      KeyedStateBackend<String> keyedStateBackend)
+      KeyedStateBackend<String> keyedStateBackend,
+      AsyncOperationOwners owners,
+      @Nullable List<String> restoredOwners,
+      int batchSize)
       throws Exception {
 
     AsyncOperationFailureNotifier asyncOperationFailureNotifier =
-        new AsyncOperationFailureNotifier(reductions, asyncOperationState);
+        new AsyncOperationFailureNotifier(reductions, asyncOperationState, owners);
 
-    keyedStateBackend.applyToAllKeys(
-        VoidNamespace.get(),
-        VoidNamespaceSerializer.INSTANCE,
-        asyncOperationStateDescriptor,
-        asyncOperationFailureNotifier);
+    if (restoredOwners == null) {
+      keyedStateBackend.applyToAllKeys(
+          VoidNamespace.get(),
+          VoidNamespaceSerializer.INSTANCE,
+          asyncOperationStateDescriptor,
+          asyncOperationFailureNotifier);
+    } else {
+      List<Entry<Long, Message>> entries = new ArrayList<>();
+      int enqueuedSinceLastBatch = 0;
+      for (String key : restoredOwners) {
+        keyedStateBackend.setCurrentKey(key);
+        entries.clear();
+        for (Entry<Long, Message> entry : asyncOperationState.entries()) {
+          entries.add(entry);
+        }
+        for (Entry<Long, Message> entry : entries) {
+          asyncOperationFailureNotifier.enqueue(entry.getKey(), entry.getValue());
+        }
+        enqueuedSinceLastBatch += entries.size();
+        if (enqueuedSinceLastBatch >= batchSize) {
+          reductions.processAllEnvelopes();
+          enqueuedSinceLastBatch = 0;
+        }
+      }
+    }
 
     if (asyncOperationFailureNotifier.enqueued()) {
       reductions.processEnvelopes();
@@ -51,27 +85,36 @@ final class AsyncOperationFailureNotifier
   }
 
   private final Reductions reductions;
-  private final MapState<Long, Message> asyncOperationState;
+  private final PendingAsyncOperations pendingAsyncOperations;
+  private final AsyncOperationOwners owners;
 
   private boolean enqueued;
 
   private AsyncOperationFailureNotifier(
-      Reductions reductions, MapState<Long, Message> asyncOperationState) {
+      Reductions reductions,
+      MapState<Long, Message> asyncOperationState,
+      AsyncOperationOwners owners) {
     this.reductions = Objects.requireNonNull(reductions);
-    this.asyncOperationState = Objects.requireNonNull(asyncOperationState);
+    this.owners = Objects.requireNonNull(owners);
+    // restored operations were all written to keyed state, and are removed from there once applied.
+    this.pendingAsyncOperations = new FlinkStatePendingAsyncOperations(asyncOperationState, owners);
   }
 
   @Override
   public void process(String key, MapState<Long, Message> state) throws Exception {
     for (Entry<Long, Message> entry : state.entries()) {
-      Long futureId = entry.getKey();
-      Message metadataMessage = entry.getValue();
-      Message adaptor = new AsyncMessageDecorator(asyncOperationState, futureId, metadataMessage);
-      reductions.enqueue(adaptor);
-      enqueued = true;
+      enqueue(entry.getKey(), entry.getValue());
     }
   }
 
+  private void enqueue(Long futureId, Message metadataMessage) {
+    // the operation stays pending (and owned) until its decorator is applied.
+    owners.add(metadataMessage.target());
+    Message adaptor = new AsyncMessageDecorator(pendingAsyncOperations, futureId, metadataMessage);
+    reductions.enqueue(adaptor);
+    enqueued = true;
+  }
+
   private boolean enqueued() {
     return enqueued;
   }
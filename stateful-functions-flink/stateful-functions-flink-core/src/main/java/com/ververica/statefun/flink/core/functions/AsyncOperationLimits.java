@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import com.ververica.statefun.flink.core.di.Inject;
+import com.ververica.statefun.flink.core.di.Label;
+import com.ververica.statefun.flink.core.di.Lazy;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.FunctionType;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of the async operations that are in flight, and limits their number per function
+ * type.
+ *
+ * <p>Once a function type has reached its limit, its activations are deferred instead of being
+ * applied. A deferred activation keeps its pending envelopes (and receives new ones), and is
+ * readmitted once an operation of its type completes. The limit is checked before an activation is
+ * applied, therefore a single invocation that registers several operations may exceed it.
+ *
+ * <p>The limits also hold across a checkpoint barrier: deferred activations are not applied before
+ * the barrier is forwarded, instead their envelopes are persisted with the snapshot (see {@link
+ * Reductions#flushState()}).
+ *
+ * <p>This class is accessed by the operator thread only.
+ */
+final class AsyncOperationLimits {
+  private final ObjectOpenHashMap<FunctionType, Limit> limits;
+  private final List<Limit> allLimits;
+  private final Lazy<FunctionRepository> repository;
+  private final ArrayDeque<FunctionActivation> readmitted;
+
+  private int deferred;
+
+  @Inject
+  AsyncOperationLimits(
+      @Label("async-operation-limits") Map<FunctionType, Integer> maxInFlight,
+      @Label("function-repository-lazy") Lazy<FunctionRepository> repository) {
+    this.limits = new ObjectOpenHashMap<>();
+    this.allLimits = new ArrayList<>();
+    for (Map.Entry<FunctionType, Integer> entry : maxInFlight.entrySet()) {
+      if (entry.getValue() <= 0) {
+        throw new IllegalArgumentException(
+            "The async operations limit of " + entry.getKey() + " must be positive.");
+      }
+      Limit limit = new Limit(entry.getValue());
+      limits.put(entry.getKey(), limit);
+      allLimits.add(limit);
+    }
+    this.repository = Objects.requireNonNull(repository);
+    this.readmitted = new ArrayDeque<>();
+  }
+
+  boolean admits(FunctionType type) {
+    if (limits.isEmpty()) {
+      return true;
+    }
+    Limit limit = limits.get(type);
+    return limit == null || limit.inFlight < limit.maxInFlight;
+  }
+
+  void defer(FunctionActivation activation) {
+    limits.get(activation.self().type()).deferred.addLast(activation);
+    deferred++;
+  }
+
+  boolean hasDeferred() {
+    return deferred > 0;
+  }
+
+  /** Visits every deferred activation, without readmitting it. */
+  void forEachDeferred(Consumer<FunctionActivation> visitor) {
+    for (Limit limit : allLimits) {
+      for (FunctionActivation activation : limit.deferred) {
+        visitor.accept(activation);
+      }
+    }
+  }
+
+  /** Removes and returns the oldest readmitted activation, or {@code null} if there is none. */
+  FunctionActivation pollReadmitted() {
+    return readmitted.pollFirst();
+  }
+
+  boolean hasReadmitted() {
+    return !readmitted.isEmpty();
+  }
+
+  void registered(Address owner) {
+    final FunctionType type = owner.type();
+    repository.get().get(type).metrics().asyncOperationRegistered();
+    Limit limit = limits.get(type);
+    if (limit != null) {
+      limit.inFlight++;
+    }
+  }
+
+  void completed(Address owner, long durationNanos) {
+    final FunctionType type = owner.type();
+    repository.get().get(type).metrics().asyncOperationCompleted(durationNanos);
+    Limit limit = limits.get(type);
+    if (limit != null) {
+      limit.inFlight--;
+      readmit(limit);
+    }
+  }
+
+  /**
+   * Readmits deferred activations of {@code type}, if it is below its limit. Besides completions,
+   * this is called whenever an activation of that type is done being applied, since a readmitted
+   * activation might not register any operation, and the rest would wait for a completion that
+   * might never come.
+   */
+  void readmit(FunctionType type) {
+    if (limits.isEmpty()) {
+      return;
+    }
+    Limit limit = limits.get(type);
+    if (limit != null) {
+      readmit(limit);
+    }
+  }
+
+  private void readmit(Limit limit) {
+    // a single activation per free slot, an activation that is readmitted while the limit is
+    // reached is simply deferred again.
+    for (int free = limit.maxInFlight - limit.inFlight; free > 0; free--) {
+      FunctionActivation activation = limit.deferred.pollFirst();
+      if (activation == null) {
+        return;
+      }
+      deferred--;
+      readmitted.addLast(activation);
+    }
+  }
+
+  private static final class Limit {
+    final int maxInFlight;
+    final ArrayDeque<FunctionActivation> deferred = new ArrayDeque<>();
+    int inFlight;
+
+    Limit(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+    }
+  }
+}
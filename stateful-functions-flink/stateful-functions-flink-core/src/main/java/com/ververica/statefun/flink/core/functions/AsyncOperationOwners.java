@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import com.ververica.statefun.flink.core.common.KeyBy;
+import com.ververica.statefun.sdk.Address;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.runtime.state.KeyGroupRange;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+import org.apache.flink.types.StringValue;
+
+/**
+ * An index of the keys (see {@link KeyBy}) that have pending async operations, so that after a
+ * restore only these keys have to be visited to expire their operations, instead of every key of
+ * the state backend.
+ *
+ * <p>The index of a subtask is snapshotted as a single blob, where the keys are grouped by their
+ * key group, and every group is prefixed by its size in bytes. After a restore, each subtask reads
+ * the blobs of all the previous subtasks, and skips over the groups that it does not own.
+ *
+ * <p>The pending operations are counted per owner {@link Address} (whose hash code is cached), and
+ * the keys are only computed when a snapshot is taken.
+ */
+final class AsyncOperationOwners {
+  private final HashMap<Address, int[]> pendingOperations = new HashMap<>();
+
+  void add(Address owner) {
+    final int[] count = pendingOperations.get(owner);
+    if (count == null) {
+      pendingOperations.put(owner, new int[] {1});
+    } else {
+      count[0]++;
+    }
+  }
+
+  void remove(Address owner) {
+    final int[] count = pendingOperations.get(owner);
+    if (count != null && --count[0] <= 0) {
+      pendingOperations.remove(owner);
+    }
+  }
+
+  int size() {
+    return pendingOperations.size();
+  }
+
+  byte[] snapshot(int maxParallelism) throws IOException {
+    // owners of different function types might share a key, hence the keys are deduplicated.
+    HashMap<Integer, Set<String>> keyGroups = new HashMap<>();
+    for (Address owner : pendingOperations.keySet()) {
+      final String key = KeyBy.apply(owner);
+      final int keyGroup = KeyGroupRangeAssignment.assignToKeyGroup(key, maxParallelism);
+      Set<String> keys = keyGroups.get(keyGroup);
+      if (keys == null) {
+        keyGroups.put(keyGroup, keys = new HashSet<>());
+      }
+      keys.add(key);
+    }
+    DataOutputSerializer out = new DataOutputSerializer(64);
+    DataOutputSerializer group = new DataOutputSerializer(64);
+    out.writeInt(keyGroups.size());
+    for (Map.Entry<Integer, Set<String>> entry : keyGroups.entrySet()) {
+      group.clear();
+      group.writeInt(entry.getValue().size());
+      for (String key : entry.getValue()) {
+        StringValue.writeString(key, group);
+      }
+      out.writeInt(entry.getKey());
+      out.writeInt(group.length());
+      out.write(group.getSharedBuffer(), 0, group.length());
+    }
+    return out.getCopyOfBuffer();
+  }
+
+  /**
+   * Returns the keys of {@code keyGroupRange} that had pending operations in the given snapshots,
+   * or {@code null} if there are no snapshots of this index (i.e. when restoring a snapshot that
+   * was taken before this index was introduced).
+   */
+  @Nullable
+  static List<String> restore(Iterable<byte[]> snapshots, KeyGroupRange keyGroupRange)
+      throws IOException {
+    List<String> keys = null;
+    DataInputDeserializer in = new DataInputDeserializer();
+    for (byte[] snapshot : snapshots) {
+      if (keys == null) {
+        keys = new ArrayList<>();
+      }
+      in.setBuffer(snapshot);
+      final int groups = in.readInt();
+      for (int i = 0; i < groups; i++) {
+        final int keyGroup = in.readInt();
+        final int length = in.readInt();
+        if (!keyGroupRange.contains(keyGroup)) {
+          in.skipBytesToRead(length);
+          continue;
+        }
+        final int count = in.readInt();
+        for (int j = 0; j < count; j++) {
+          keys.add(StringValue.readString(in));
+        }
+      }
+    }
+    return keys;
+  }
+}
@@ -20,54 +20,55 @@ import com.ververica.statefun.flink.core.di.Inject;
 import com.ververica.statefun.flink.core.di.Label;
 import com.ververica.statefun.flink.core.di.Lazy;
 import com.ververica.statefun.flink.core.message.Message;
-import com.ververica.statefun.flink.core.queue.Locks;
-import com.ververica.statefun.flink.core.queue.MpscQueue;
+import com.ververica.statefun.flink.core.queue.LockFreeMpscQueue;
 import java.util.Deque;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ThreadLocalRandom;
-import org.apache.flink.api.common.state.MapState;
 
 final class AsyncSink {
-  private final MapState<Long, Message> pendingAsyncOperations;
+  private final PendingAsyncOperations pendingAsyncOperations;
+  private final AsyncOperationLimits asyncOperationLimits;
   private final Lazy<Reductions> reductions;
   private final Executor asOperator;
   private final Executor operatorMailbox;
 
-  private final MpscQueue<Message> completed = new MpscQueue<>(32768, Locks.jdkReentrantLock());
+  private final LockFreeMpscQueue<AsyncMessageDecorator<?>> completed =
+      new LockFreeMpscQueue<>(1024);
 
   @Inject
   AsyncSink(
-      @Label("async-operations") MapState<Long, Message> pendingAsyncOperations,
+      @Label("pending-async-operations") PendingAsyncOperations pendingAsyncOperations,
+      AsyncOperationLimits asyncOperationLimits,
       @Label("checkpoint-lock-executor") Executor asOperator,
       @Label("mailbox-executor") Executor operatorMailbox,
       @Label("reductions") Lazy<Reductions> reductions) {
     this.pendingAsyncOperations = Objects.requireNonNull(pendingAsyncOperations);
+    this.asyncOperationLimits = Objects.requireNonNull(asyncOperationLimits);
     this.asOperator = Objects.requireNonNull(asOperator);
     this.reductions = Objects.requireNonNull(reductions);
     this.operatorMailbox = Objects.requireNonNull(operatorMailbox);
   }
 
   <T> void accept(Message metadata, CompletableFuture<T> future) {
-    final long futureId = ThreadLocalRandom.current().nextLong(); // TODO: is this is good enough?
-    // we keep the message in state (associated with futureId) until either:
-    // 1. the future successfully completes and the message is processed. The state would be
-    // cleared by the AsyncMessageDecorator after a successful application.
-    // 2. after recovery, we clear that state by notifying the owning function that we don't know
-    // what happened
-    // with that particular async operation.
-    try {
-      pendingAsyncOperations.put(futureId, metadata);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
-    future.whenComplete((result, throwable) -> enqueue(metadata, futureId, result, throwable));
+    // we keep the message as pending (associated with futureId) until either:
+    // 1. the future successfully completes and the message is processed. The pending operation
+    // would be removed by the AsyncMessageDecorator after a successful application.
+    // 2. after recovery, we remove it by notifying the owning function that we don't know what
+    // happened with that particular async operation.
+    final long futureId = pendingAsyncOperations.add(metadata);
+    asyncOperationLimits.registered(metadata.target());
+    final long startNanos = System.nanoTime();
+    future.whenComplete(
+        (result, throwable) ->
+            enqueue(metadata, futureId, result, throwable, System.nanoTime() - startNanos));
   }
 
-  private <T> void enqueue(Message message, long futureId, T result, Throwable throwable) {
+  private <T> void enqueue(
+      Message message, long futureId, T result, Throwable throwable, long durationNanos) {
     AsyncMessageDecorator<T> decoratedMessage =
-        new AsyncMessageDecorator<>(pendingAsyncOperations, futureId, message, result, throwable);
+        new AsyncMessageDecorator<>(
+            pendingAsyncOperations, futureId, message, result, throwable, durationNanos);
 
     final int size = completed.add(decoratedMessage);
     if (size == 1) {
@@ -79,13 +80,17 @@ final class AsyncSink {
   private void drainOnOperatorThreadUnderCheckpointLock() {
     asOperator.execute(
         () -> {
-          Deque<Message> batchOfCompletedFutures = completed.drainAll();
-          Reductions reductions = this.reductions.get();
-          Message message;
-          while ((message = batchOfCompletedFutures.poll()) != null) {
-            reductions.enqueue(message);
-          }
-          reductions.processEnvelopes();
+          enqueueCompleted(completed.drainAll());
+          reductions.get().processEnvelopes();
         });
   }
+
+  private void enqueueCompleted(Deque<AsyncMessageDecorator<?>> batchOfCompletedFutures) {
+    Reductions reductions = this.reductions.get();
+    AsyncMessageDecorator<?> message;
+    while ((message = batchOfCompletedFutures.poll()) != null) {
+      asyncOperationLimits.completed(message.target(), message.durationNanos());
+      reductions.enqueue(message);
+    }
+  }
 }
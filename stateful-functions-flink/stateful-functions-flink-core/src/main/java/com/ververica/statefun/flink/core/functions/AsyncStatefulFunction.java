@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import com.ververica.statefun.flink.core.functions.Continuations.SuspendedInvocation;
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.flink.core.message.MessageFactory;
+import com.ververica.statefun.flink.core.metrics.FunctionTypeMetrics;
+import com.ververica.statefun.flink.core.state.BoundState;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.Context;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A {@link LiveFunction} of a {@link com.ververica.statefun.sdk.AsyncStatefulFunction}. Applying a
+ * message suspends the activation of its address, until the stage returned by the invocation
+ * completes.
+ */
+final class AsyncStatefulFunction implements LiveFunction {
+  private final com.ververica.statefun.sdk.AsyncStatefulFunction statefulFunction;
+  private final BoundState state;
+  private final FunctionTypeMetrics metrics;
+  private final MessageFactory messageFactory;
+  private final ClassLoader classLoader;
+  private final Continuations continuations;
+
+  AsyncStatefulFunction(
+      com.ververica.statefun.sdk.AsyncStatefulFunction statefulFunction,
+      BoundState state,
+      FunctionTypeMetrics metrics,
+      MessageFactory messageFactory,
+      Continuations continuations) {
+    this.statefulFunction = Objects.requireNonNull(statefulFunction);
+    this.classLoader = statefulFunction.getClass().getClassLoader();
+    this.state = Objects.requireNonNull(state);
+    this.metrics = Objects.requireNonNull(metrics);
+    this.messageFactory = Objects.requireNonNull(messageFactory);
+    this.continuations = Objects.requireNonNull(continuations);
+  }
+
+  @Override
+  public void receive(Context context, Message message) {
+    // already set, unless this is called outside of a batch.
+    final Thread thread = Thread.currentThread();
+    final ClassLoader originalClassLoader = thread.getContextClassLoader();
+    final boolean setClassLoader = originalClassLoader != classLoader;
+    try {
+      if (setClassLoader) {
+        thread.setContextClassLoader(classLoader);
+      }
+      Object payload = message.payload(messageFactory, classLoader);
+      SuspendedInvocation invocation = continuations.suspend(this, message);
+      CompletionStage<Void> stage = statefulFunction.invoke(invocation, payload);
+      Objects.requireNonNull(stage, "An AsyncStatefulFunction must not return a NULL stage");
+      stage.whenComplete((ignored, failure) -> invocation.complete(failure));
+    } catch (Exception e) {
+      throw new StatefulFunctionInvocationException(context.self().type(), e);
+    } finally {
+      if (setClassLoader) {
+        thread.setContextClassLoader(originalClassLoader);
+      }
+    }
+  }
+
+  /** Runs a continuation of an invocation, while the invoked address's state key is set. */
+  void runContinuation(Address self, Runnable continuation) {
+    final ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+    try {
+      Thread.currentThread().setContextClassLoader(classLoader);
+      continuation.run();
+    } catch (Exception e) {
+      throw new StatefulFunctionInvocationException(self.type(), e);
+    } finally {
+      Thread.currentThread().setContextClassLoader(originalClassLoader);
+    }
+  }
+
+  @Override
+  public ClassLoader classLoader() {
+    return classLoader;
+  }
+
+  @Override
+  public FunctionTypeMetrics metrics() {
+    return metrics;
+  }
+
+  @Override
+  public Optional<BoundState> state() {
+    return Optional.of(state);
+  }
+}
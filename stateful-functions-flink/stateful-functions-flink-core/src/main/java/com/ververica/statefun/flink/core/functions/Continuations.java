@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import com.ververica.statefun.flink.core.di.Inject;
+import com.ververica.statefun.flink.core.di.Label;
+import com.ververica.statefun.flink.core.di.Lazy;
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.AsyncContext;
+import com.ververica.statefun.sdk.Context;
+import com.ververica.statefun.sdk.io.EgressIdentifier;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the continuations of suspended {@link com.ververica.statefun.sdk.AsyncStatefulFunction}
+ * invocations on the operator thread, and resumes the activation of an address once its invocation
+ * completes.
+ *
+ * <p>Continuations (and completions) may be submitted by any thread. They are queued, and drained
+ * by the operator thread either from a mailbox action, or while {@link #awaitCompletion()} waits
+ * for the suspended invocations before a checkpoint barrier.
+ */
+final class Continuations {
+  private final ApplyingContext context;
+  private final Lazy<LocalFunctionGroup> functionGroup;
+  private final Lazy<Reductions> reductions;
+  private final Runnable scheduleDrain;
+
+  // -- accessed by the operator thread only
+  private int suspended;
+
+  // -- shared with other threads
+  private final LinkedBlockingQueue<Runnable> tasks;
+  private final AtomicBoolean drainScheduled;
+
+  @Inject
+  Continuations(
+      @Label("applying-context") ApplyingContext context,
+      @Label("mailbox-executor") Executor operatorMailbox,
+      @Label("checkpoint-lock-executor") Executor asOperator,
+      @Label("function-group") Lazy<LocalFunctionGroup> functionGroup,
+      @Label("reductions") Lazy<Reductions> reductions) {
+    this.context = Objects.requireNonNull(context);
+    this.functionGroup = Objects.requireNonNull(functionGroup);
+    this.reductions = Objects.requireNonNull(reductions);
+    Objects.requireNonNull(operatorMailbox);
+    Objects.requireNonNull(asOperator);
+    this.scheduleDrain = () -> operatorMailbox.execute(() -> asOperator.execute(this::drain));
+    this.tasks = new LinkedBlockingQueue<>();
+    this.drainScheduled = new AtomicBoolean();
+  }
+
+  /**
+   * Suspends the activation of the address that {@code message} is currently being applied to. The
+   * returned context must be completed with {@link SuspendedInvocation#complete(Throwable)}.
+   */
+  SuspendedInvocation suspend(AsyncStatefulFunction function, Message message) {
+    functionGroup.get().suspend(message.target());
+    suspended++;
+    return new SuspendedInvocation(function, message);
+  }
+
+  /**
+   * Waits for at least one suspended invocation to complete, while running the continuations that
+   * are submitted meanwhile.
+   *
+   * @return {@code false} if no invocation was suspended.
+   */
+  boolean awaitCompletion() {
+    if (suspended == 0) {
+      return false;
+    }
+    final int suspendedBefore = suspended;
+    try {
+      while (suspended == suspendedBefore) {
+        tasks.take().run();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for functions to complete", e);
+    }
+    return true;
+  }
+
+  private void submit(Runnable task) {
+    tasks.add(task);
+    if (drainScheduled.compareAndSet(false, true)) {
+      scheduleDrain.run();
+    }
+  }
+
+  private void drain() {
+    drainScheduled.set(false);
+    Runnable task;
+    boolean ran = false;
+    while ((task = tasks.poll()) != null) {
+      task.run();
+      ran = true;
+    }
+    if (ran) {
+      reductions.get().processEnvelopes();
+    }
+  }
+
+  /**
+   * The {@link AsyncContext} of an invocation, that lasts until the invocation's {@link
+   * java.util.concurrent.CompletionStage} completes.
+   *
+   * <p>Messages are always sent on behalf of the invoked address, no matter which message the
+   * shared {@link ApplyingContext} is applying meanwhile. The sinks may only be used by the
+   * operator thread, therefore sending from any other thread fails.
+   */
+  final class SuspendedInvocation implements AsyncContext {
+    private final AsyncStatefulFunction function;
+    private final Message message;
+    private final Context boundContext;
+    private final Thread operatorThread;
+    private final Executor executor;
+
+    SuspendedInvocation(AsyncStatefulFunction function, Message message) {
+      this.function = function;
+      this.message = message;
+      this.boundContext = context.boundTo(function, message);
+      this.operatorThread = Thread.currentThread();
+      this.executor = task -> submit(() -> resume(task));
+    }
+
+    /** Completes this invocation, this may be called by any thread. */
+    void complete(Throwable failure) {
+      submit(() -> completeOnOperatorThread(failure));
+    }
+
+    @Override
+    public Executor executor() {
+      return executor;
+    }
+
+    @Override
+    public Address self() {
+      return message.target();
+    }
+
+    @Override
+    public Address caller() {
+      return message.source();
+    }
+
+    @Override
+    public void send(Address to, Object what) {
+      checkOperatorThread();
+      boundContext.send(to, what);
+    }
+
+    @Override
+    public <T> void send(EgressIdentifier<T> egress, T what) {
+      checkOperatorThread();
+      boundContext.send(egress, what);
+    }
+
+    @Override
+    public void sendAfter(Duration delay, Address to, Object what) {
+      checkOperatorThread();
+      boundContext.sendAfter(delay, to, what);
+    }
+
+    @Override
+    public <M, T> void registerAsyncOperation(M metadata, CompletableFuture<T> future) {
+      checkOperatorThread();
+      boundContext.registerAsyncOperation(metadata, future);
+    }
+
+    private void checkOperatorThread() {
+      if (Thread.currentThread() != operatorThread) {
+        throw new IllegalStateException(
+            "The context of "
+                + self()
+                + " was used outside of the operator thread. Continuations that use the context"
+                + " must run on AsyncContext#executor().");
+      }
+    }
+
+    private void resume(Runnable task) {
+      Objects.requireNonNull(task);
+      context.applyContinuation(function, message, () -> function.runContinuation(self(), task));
+    }
+
+    private void completeOnOperatorThread(Throwable failure) {
+      suspended--;
+      if (failure != null) {
+        throw new StatefulFunctionInvocationException(self().type(), failure);
+      }
+      functionGroup.get().resumeSuspended(self());
+    }
+  }
+}
@@ -75,7 +75,7 @@ final class DelaySink implements Triggerable<String, VoidNamespace> {
               + ", but no messages were buffered for it.");
     }
     for (Message delayedMessage : delayedMessages) {
-      if (thisPartition.contains(delayedMessage.target())) {
+      if (thisPartition.contains(delayedMessage)) {
         reductions.enqueue(delayedMessage);
       } else {
         remoteSink.accept(delayedMessage);
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import com.ververica.statefun.flink.core.di.Inject;
+import com.ververica.statefun.flink.core.di.Label;
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.sdk.Address;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.flink.api.common.state.MapState;
+
+/**
+ * Keeps every pending operation in keyed state, from its registration until its result is applied.
+ */
+final class FlinkStatePendingAsyncOperations implements PendingAsyncOperations {
+  private final MapState<Long, Message> pendingAsyncOperations;
+  private final AsyncOperationOwners owners;
+
+  private long nextId;
+
+  @Inject
+  FlinkStatePendingAsyncOperations(
+      @Label("async-operations") MapState<Long, Message> pendingAsyncOperations,
+      AsyncOperationOwners owners) {
+    this.pendingAsyncOperations = Objects.requireNonNull(pendingAsyncOperations);
+    this.owners = Objects.requireNonNull(owners);
+    // a random starting point, to avoid colliding with the ids of the operations that were
+    // restored, and are yet to be completed.
+    this.nextId = ThreadLocalRandom.current().nextLong();
+  }
+
+  @Override
+  public long add(Message metadata) {
+    final long id = nextId++;
+    owners.add(metadata.target());
+    try {
+      pendingAsyncOperations.put(id, metadata);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    return id;
+  }
+
+  @Override
+  public void remove(Address owner, long id) {
+    owners.remove(owner);
+    try {
+      pendingAsyncOperations.remove(id);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
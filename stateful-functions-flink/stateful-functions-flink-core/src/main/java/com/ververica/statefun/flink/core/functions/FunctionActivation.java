@@ -16,6 +16,7 @@
 
 package com.ververica.statefun.flink.core.functions;
 
+import com.ververica.statefun.flink.common.SetContextClassLoader;
 import com.ververica.statefun.flink.core.message.Message;
 import com.ververica.statefun.sdk.Address;
 import com.ververica.statefun.sdk.StatefulFunction;
@@ -26,6 +27,7 @@ final class FunctionActivation {
   private final ArrayDeque<Message> mailbox;
   private Address self;
   private LiveFunction function;
+  private boolean suspended;
 
   FunctionActivation() {
     this.mailbox = new ArrayDeque<>();
@@ -34,6 +36,19 @@ final class FunctionActivation {
   void setFunction(Address self, LiveFunction function) {
     this.self = self;
     this.function = function;
+    this.suspended = false;
+  }
+
+  /**
+   * Marks this activation as waiting for an asynchronous invocation to complete. A suspended
+   * activation keeps its pending envelopes until it is resumed.
+   */
+  void setSuspended(boolean suspended) {
+    this.suspended = suspended;
+  }
+
+  boolean isSuspended() {
+    return suspended;
   }
 
   void add(Message message) {
@@ -44,12 +59,40 @@ final class FunctionActivation {
     return !mailbox.isEmpty();
   }
 
-  void applyNextPendingEnvelope(ApplyingContext context) {
-    Message message = mailbox.pollFirst();
-    context.apply(function, message);
+  /**
+   * Applies up to {@code maxBatchSize} pending envelopes to this function. Since all of these
+   * envelopes are addressed to the same function, the state key is only set for the first one. The
+   * batch ends early if an envelope suspends this activation. Likewise, the thread's context class
+   * loader is set once for the entire batch.
+   */
+  void applyPendingEnvelopes(ApplyingContext context, int maxBatchSize) {
+    try (SetContextClassLoader ignored = new SetContextClassLoader(function.classLoader())) {
+      Message message = mailbox.pollFirst();
+      context.apply(function, message);
+      for (int i = 1; i < maxBatchSize && !suspended; i++) {
+        if ((message = mailbox.pollFirst()) == null) {
+          return;
+        }
+        context.applyWithCurrentKey(function, message);
+      }
+    }
+  }
+
+  /** Returns the pending envelopes, oldest first, without removing them. */
+  Iterable<Message> pendingEnvelopes() {
+    return mailbox;
+  }
+
+  /** Removes and returns the oldest pending envelope, or {@code null} if there is none. */
+  Message pollEnvelope() {
+    return mailbox.pollFirst();
   }
 
   Address self() {
     return self;
   }
+
+  LiveFunction function() {
+    return function;
+  }
 }
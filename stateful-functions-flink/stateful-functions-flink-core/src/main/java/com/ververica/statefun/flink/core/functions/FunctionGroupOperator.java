@@ -16,6 +16,7 @@
 
 package com.ververica.statefun.flink.core.functions;
 
+import com.ververica.statefun.flink.core.StatefulFunctionsJobConstants;
 import com.ververica.statefun.flink.core.StatefulFunctionsUniverse;
 import com.ververica.statefun.flink.core.StatefulFunctionsUniverses;
 import com.ververica.statefun.flink.core.common.MailboxExecutorFacade;
@@ -23,19 +24,26 @@ import com.ververica.statefun.flink.core.message.Message;
 import com.ververica.statefun.flink.core.message.MessageFactory;
 import com.ververica.statefun.flink.core.message.MessageTypeInformation;
 import com.ververica.statefun.sdk.io.EgressIdentifier;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
 import org.apache.flink.api.common.ExecutionConfig.GlobalJobParameters;
+import org.apache.flink.api.common.state.ListState;
 import org.apache.flink.api.common.state.ListStateDescriptor;
 import org.apache.flink.api.common.state.MapState;
 import org.apache.flink.api.common.state.MapStateDescriptor;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
 import org.apache.flink.api.common.typeutils.TypeSerializer;
 import org.apache.flink.api.common.typeutils.base.LongSerializer;
+import org.apache.flink.api.common.typeutils.base.array.BytePrimitiveArraySerializer;
 import org.apache.flink.configuration.Configuration;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
 import org.apache.flink.runtime.state.KeyedStateBackend;
 import org.apache.flink.runtime.state.StateInitializationContext;
+import org.apache.flink.runtime.state.StateSnapshotContext;
 import org.apache.flink.runtime.state.internal.InternalListState;
 import org.apache.flink.streaming.api.operators.AbstractStreamOperator;
 import org.apache.flink.streaming.api.operators.ChainingStrategy;
@@ -57,6 +65,8 @@ public class FunctionGroupOperator extends AbstractStreamOperator<Message>
   private transient Reductions reductions;
   private transient boolean closedOrDisposed;
   private transient MailboxExecutor mailboxExecutor;
+  private transient AsyncOperationOwners asyncOperationOwners;
+  private transient ListState<byte[]> asyncOperationOwnersState;
 
   FunctionGroupOperator(
       Map<EgressIdentifier<?>, OutputTag<Object>> sideOutputs,
@@ -96,6 +106,17 @@ public class FunctionGroupOperator extends AbstractStreamOperator<Message>
             FlinkStateDelayedMessagesBuffer.BUFFER_STATE_NAME, envelopeSerializer.duplicate());
     final MapState<Long, Message> asyncOperationState =
         getRuntimeContext().getMapState(asyncOperationStateDescriptor);
+    //
+    // the keys that own pending async operations are kept in operator (rather than keyed) state,
+    // and every subtask picks the keys of its own key groups on restore.
+    //
+    this.asyncOperationOwners = new AsyncOperationOwners();
+    this.asyncOperationOwnersState =
+        context
+            .getOperatorStateStore()
+            .getUnionListState(
+                new ListStateDescriptor<>(
+                    "asyncOperationOwners", BytePrimitiveArraySerializer.INSTANCE));
 
     Objects.requireNonNull(mailboxExecutor, "MailboxExecutor is unexpectedly NULL");
 
@@ -112,20 +133,56 @@ public class FunctionGroupOperator extends AbstractStreamOperator<Message>
             delayedMessagesBufferState(delayedMessageStateDescriptor),
             sideOutputs,
             output,
-            MessageFactory.forType(statefulFunctionsUniverse.messageFactoryType()),
+            MessageFactory.forKey(statefulFunctionsUniverse.messageFactoryKey()),
             new MailboxExecutorFacade(mailboxExecutor, "Stateful Functions Mailbox"),
             getRuntimeContext().getMetricGroup().addGroup("functions"),
             asyncOperationState,
+            asyncOperationOwners,
             checkpointLockExecutor);
+    if (!context.isRestored()) {
+      return;
+    }
+    //
+    // re-enqueue the envelopes that were deferred by the async operations limits.
+    //
+    reductions.restoreDeferredEnvelopes(getKeyedStateBackend(), delayedMessageStateDescriptor);
     //
     // expire all the pending async operations.
     //
     AsyncOperationFailureNotifier.fireExpiredAsyncOperations(
-        asyncOperationStateDescriptor, reductions, asyncOperationState, getKeyedStateBackend());
+        asyncOperationStateDescriptor,
+        reductions,
+        asyncOperationState,
+        getKeyedStateBackend(),
+        asyncOperationOwners,
+        restoredAsyncOperationOwners(),
+        configuration.getInteger(StatefulFunctionsJobConstants.ASYNC_RESTORE_BATCH_SIZE));
+  }
+
+  @Override
+  public void prepareSnapshotPreBarrier(long checkpointId) throws Exception {
+    super.prepareSnapshotPreBarrier(checkpointId);
+    //
+    // a preempted drain might have left envelopes that only exist in memory,
+    // they must be applied before the barrier is forwarded downstream.
+    //
+    reductions.processAllEnvelopes();
+  }
+
+  @Override
+  public void snapshotState(StateSnapshotContext context) throws Exception {
+    super.snapshotState(context);
+    reductions.flushState();
+    asyncOperationOwnersState.update(
+        Collections.singletonList(
+            asyncOperationOwners.snapshot(getRuntimeContext().getMaxNumberOfParallelSubtasks())));
   }
 
   @Override
   public void close() throws Exception {
+    if (reductions != null) {
+      reductions.processAllEnvelopes();
+    }
     closeInternally();
     super.close();
   }
@@ -142,6 +199,9 @@ public class FunctionGroupOperator extends AbstractStreamOperator<Message>
 
   private void closeInternally() {
     closedOrDisposed = true;
+    if (reductions != null) {
+      reductions.close();
+    }
   }
 
   private Configuration getConfiguration() {
@@ -159,6 +219,16 @@ public class FunctionGroupOperator extends AbstractStreamOperator<Message>
     return merged;
   }
 
+  @Nullable
+  private List<String> restoredAsyncOperationOwners() throws Exception {
+    return AsyncOperationOwners.restore(
+        asyncOperationOwnersState.get(),
+        KeyGroupRangeAssignment.computeKeyGroupRangeForOperatorIndex(
+            getRuntimeContext().getMaxNumberOfParallelSubtasks(),
+            getRuntimeContext().getNumberOfParallelSubtasks(),
+            getRuntimeContext().getIndexOfThisSubtask()));
+  }
+
   private InternalListState<String, Long, Message> delayedMessagesBufferState(
       ListStateDescriptor<Message> delayedMessageStateDescriptor) {
     try {
@@ -179,7 +249,7 @@ public class FunctionGroupOperator extends AbstractStreamOperator<Message>
   private TypeSerializer<Message> messageTypeSerializer(
       StatefulFunctionsUniverse statefulFunctionsUniverse) {
     TypeInformation<Message> info =
-        new MessageTypeInformation(statefulFunctionsUniverse.messageFactoryType());
+        new MessageTypeInformation(statefulFunctionsUniverse.messageFactoryKey());
     return info.createSerializer(getExecutionConfig());
   }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import com.ververica.statefun.flink.core.di.Inject;
+import com.ververica.statefun.flink.core.di.Label;
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.flink.core.state.State;
+import com.ververica.statefun.sdk.Address;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.flink.api.common.state.MapState;
+
+/**
+ * Keeps the pending operations in memory, and writes to keyed state only those operations that are
+ * still pending when a snapshot is taken.
+ *
+ * <p>Most operations complete well within a checkpoint interval, and never reach the state backend.
+ * An operation that was written by a snapshot, stays in keyed state until it is completed (or, if
+ * the job is restored from that snapshot, until it is completed with an {@code UNKNOWN} status).
+ */
+final class HeapPendingAsyncOperations implements PendingAsyncOperations {
+  private final MapState<Long, Message> pendingAsyncOperations;
+  private final AsyncOperationOwners owners;
+  private final State state;
+  private final HashMap<Long, Message> unpersisted;
+
+  private long nextId;
+
+  @Inject
+  HeapPendingAsyncOperations(
+      @Label("async-operations") MapState<Long, Message> pendingAsyncOperations,
+      AsyncOperationOwners owners,
+      @Label("state") State state) {
+    this.pendingAsyncOperations = Objects.requireNonNull(pendingAsyncOperations);
+    this.owners = Objects.requireNonNull(owners);
+    this.state = Objects.requireNonNull(state);
+    this.unpersisted = new HashMap<>();
+    // a random starting point, to avoid colliding with the ids of the operations that were
+    // restored, and are yet to be completed.
+    this.nextId = ThreadLocalRandom.current().nextLong();
+  }
+
+  @Override
+  public long add(Message metadata) {
+    final long id = nextId++;
+    owners.add(metadata.target());
+    unpersisted.put(id, metadata);
+    return id;
+  }
+
+  @Override
+  public void remove(Address owner, long id) {
+    owners.remove(owner);
+    if (unpersisted.remove(id) != null) {
+      return;
+    }
+    // written by a previous snapshot, or restored.
+    try {
+      pendingAsyncOperations.remove(id);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void flush() {
+    try {
+      for (Map.Entry<Long, Message> entry : unpersisted.entrySet()) {
+        final Message metadata = entry.getValue();
+        state.setCurrentKey(metadata.target());
+        pendingAsyncOperations.put(entry.getKey(), metadata);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    unpersisted.clear();
+  }
+
+  /** Returns the number of pending operations that are not yet in keyed state. */
+  int unpersistedCount() {
+    return unpersisted.size();
+  }
+}
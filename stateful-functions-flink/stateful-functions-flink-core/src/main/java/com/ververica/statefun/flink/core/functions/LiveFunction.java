@@ -26,6 +26,9 @@ interface LiveFunction {
 
   void receive(Context context, Message message);
 
+  /** Returns the class loader that is set as the thread's context class loader while receiving. */
+  ClassLoader classLoader();
+
   FunctionTypeMetrics metrics();
 
   Optional<BoundState> state();
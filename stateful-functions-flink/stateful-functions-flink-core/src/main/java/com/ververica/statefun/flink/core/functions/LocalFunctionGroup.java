@@ -18,11 +18,13 @@ package com.ververica.statefun.flink.core.functions;
 
 import com.ververica.statefun.flink.core.di.Inject;
 import com.ververica.statefun.flink.core.di.Label;
+import com.ververica.statefun.flink.core.di.Lazy;
 import com.ververica.statefun.flink.core.message.Message;
 import com.ververica.statefun.flink.core.pool.SimplePool;
 import com.ververica.statefun.sdk.Address;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashMap;
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Objects;
 
 final class LocalFunctionGroup {
@@ -31,33 +33,105 @@ final class LocalFunctionGroup {
   private final SimplePool<FunctionActivation> pool;
   private final FunctionRepository repository;
   private final ApplyingContext context;
+  private final int maxBatchPerActivation;
+  private final ParallelExecution parallelExecution;
+  private final AsyncOperationLimits asyncOperationLimits;
+
+  LocalFunctionGroup(
+      FunctionRepository repository, ApplyingContext context, int maxBatchPerActivation) {
+    this(repository, context, maxBatchPerActivation, ParallelExecution.disabled());
+  }
+
+  LocalFunctionGroup(
+      FunctionRepository repository,
+      ApplyingContext context,
+      int maxBatchPerActivation,
+      ParallelExecution parallelExecution) {
+    this(
+        repository,
+        context,
+        maxBatchPerActivation,
+        parallelExecution,
+        new AsyncOperationLimits(Collections.emptyMap(), new Lazy<>(repository)));
+  }
 
   @Inject
   LocalFunctionGroup(
       @Label("function-repository") FunctionRepository repository,
-      @Label("applying-context") ApplyingContext context) {
+      @Label("applying-context") ApplyingContext context,
+      @Label("max-batch-per-activation") int maxBatchPerActivation,
+      @Label("parallel-execution") ParallelExecution parallelExecution,
+      AsyncOperationLimits asyncOperationLimits) {
     this.activeFunctions = new ObjectOpenHashMap<>();
     this.pending = new ArrayDeque<>();
     this.pool = new SimplePool<>(FunctionActivation::new, 1024);
     this.repository = Objects.requireNonNull(repository);
     this.context = Objects.requireNonNull(context);
+    this.maxBatchPerActivation = Math.max(1, maxBatchPerActivation);
+    this.parallelExecution = Objects.requireNonNull(parallelExecution);
+    this.asyncOperationLimits = Objects.requireNonNull(asyncOperationLimits);
   }
 
   void enqueue(Message message) {
     FunctionActivation activation = activeFunctions.get(message.target());
     if (activation == null) {
       activation = newActivation(message.target());
+      activeFunctions.put(activation.self(), activation);
       pending.addLast(activation);
     }
     activation.add(message);
   }
 
   boolean processNextEnvelope() {
-    FunctionActivation activation = pending.pollFirst();
-    if (activation == null) {
+    FunctionActivation activation = asyncOperationLimits.pollReadmitted();
+    if (activation == null && (activation = pending.pollFirst()) == null) {
       return false;
     }
-    activation.applyNextPendingEnvelope(context);
+    if (!asyncOperationLimits.admits(activation.self().type())) {
+      // the activation stays active, but not pending, until it is readmitted.
+      asyncOperationLimits.defer(activation);
+      return true;
+    }
+    if (parallelExecution.accepts(activation.self().type())) {
+      // the activation stays active, but not pending, until it is resumed.
+      parallelExecution.dispatch(activation);
+      return true;
+    }
+    activation.applyPendingEnvelopes(context, maxBatchPerActivation);
+    if (!activation.isSuspended()) {
+      resume(activation);
+    }
+    return true;
+  }
+
+  /**
+   * Suspends the activation of an address while one of its envelopes is being applied. The
+   * activation stays active, but not pending, until {@link #resumeSuspended(Address)} is called.
+   */
+  void suspend(Address self) {
+    FunctionActivation activation = activeFunctions.get(self);
+    if (activation == null) {
+      throw new IllegalStateException("Address " + self + " is not being applied.");
+    }
+    activation.setSuspended(true);
+  }
+
+  void resumeSuspended(Address self) {
+    FunctionActivation activation = activeFunctions.get(self);
+    if (activation == null || !activation.isSuspended()) {
+      throw new IllegalStateException("Address " + self + " is not suspended.");
+    }
+    activation.setSuspended(false);
+    resume(activation);
+  }
+
+  /**
+   * Makes an activation pending again if it has pending envelopes, or releases it otherwise. This
+   * is called once the envelopes of an activation were applied, either here or by the {@link
+   * ParallelExecution}.
+   */
+  void resume(FunctionActivation activation) {
+    asyncOperationLimits.readmit(activation.self().type());
     if (activation.hasPendingEnvelope()) {
       pending.addLast(activation);
     } else {
@@ -65,7 +139,23 @@ final class LocalFunctionGroup {
       activation.setFunction(null, null);
       pool.release(activation);
     }
-    return true;
+  }
+
+  boolean hasPendingEnvelopes() {
+    return !pending.isEmpty() || asyncOperationLimits.hasReadmitted();
+  }
+
+  /**
+   * Waits for the activations that were dispatched off the operator thread.
+   *
+   * @return {@code false} if there were none.
+   */
+  boolean awaitDispatchedEnvelopes() {
+    return parallelExecution.awaitCompletion();
+  }
+
+  void close() {
+    parallelExecution.close();
   }
 
   private FunctionActivation newActivation(Address self) {
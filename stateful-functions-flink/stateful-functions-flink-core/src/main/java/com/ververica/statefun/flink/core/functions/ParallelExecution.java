@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import com.ververica.statefun.sdk.FunctionType;
+
+/**
+ * Executes the activations of selected function types off the operator thread.
+ *
+ * <p>All the methods of this interface are called on the operator thread. An activation that was
+ * dispatched stays active (so that newly arriving messages are appended to its mailbox) but is not
+ * pending, until its invocations were merged back on the operator thread, and it was resumed with
+ * {@link LocalFunctionGroup#resume(FunctionActivation)}.
+ */
+interface ParallelExecution {
+
+  /** Returns {@code true} if activations of the given type should be dispatched. */
+  boolean accepts(FunctionType type);
+
+  /** Invokes the pending messages of an activation, off the operator thread. */
+  void dispatch(FunctionActivation activation);
+
+  /**
+   * Blocks until at least one dispatched activation completes, and merges every completed
+   * activation.
+   *
+   * @return {@code false} if no activation was in flight.
+   */
+  boolean awaitCompletion();
+
+  /** Stops the execution, abandoning any activation that is still in flight. */
+  void close();
+
+  static ParallelExecution disabled() {
+    return Disabled.INSTANCE;
+  }
+
+  enum Disabled implements ParallelExecution {
+    INSTANCE;
+
+    @Override
+    public boolean accepts(FunctionType type) {
+      return false;
+    }
+
+    @Override
+    public void dispatch(FunctionActivation activation) {
+      throw new IllegalStateException("Parallel execution is disabled.");
+    }
+
+    @Override
+    public boolean awaitCompletion() {
+      return false;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -16,25 +16,41 @@
 
 package com.ververica.statefun.flink.core.functions;
 
-import static org.apache.flink.runtime.state.KeyGroupRangeAssignment.assignKeyToParallelOperator;
+import static org.apache.flink.runtime.state.KeyGroupRangeAssignment.computeKeyGroupRangeForOperatorIndex;
 
 import com.ververica.statefun.flink.core.common.KeyBy;
-import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.flink.core.message.Message;
+import org.apache.flink.runtime.state.KeyGroupRange;
 
 class Partition {
   private final int maxParallelism;
   private final int parallelism;
   private final int thisOperatorIndex;
 
+  private KeyGroupRange keyGroupRange;
+
   Partition(int maxParallelism, int parallelism, int thisOperatorIndex) {
     this.maxParallelism = maxParallelism;
     this.parallelism = parallelism;
     this.thisOperatorIndex = thisOperatorIndex;
   }
 
-  boolean contains(Address address) {
-    final int destinationOperatorIndex =
-        assignKeyToParallelOperator(KeyBy.apply(address), maxParallelism, parallelism);
-    return thisOperatorIndex == destinationOperatorIndex;
+  /**
+   * Checks whether the target of the given message is owned by this operator. The murmur hash of
+   * the target's key is cached by the message, so that only a modulo is left to find its key group,
+   * which is then checked against the key group range of this operator (computed once on first
+   * use).
+   */
+  boolean contains(Message message) {
+    final int keyGroup = KeyBy.keyGroup(message.targetKeyHash(), maxParallelism);
+    return keyGroupRange().contains(keyGroup);
+  }
+
+  private KeyGroupRange keyGroupRange() {
+    if (keyGroupRange == null) {
+      keyGroupRange =
+          computeKeyGroupRangeForOperatorIndex(maxParallelism, parallelism, thisOperatorIndex);
+    }
+    return keyGroupRange;
   }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.sdk.Address;
+
+/**
+ * The async operations that were registered by functions, and whose results were not yet applied
+ * back to them. The operations that are pending when a snapshot is taken are part of it, and are
+ * completed with an {@code UNKNOWN} status after a restore.
+ *
+ * <p>All methods are called on the operator thread.
+ */
+interface PendingAsyncOperations {
+
+  /**
+   * Adds a pending operation, that was registered by the target of {@code metadata}, while the
+   * state key of that target is set.
+   *
+   * @return the id of the operation.
+   */
+  long add(Message metadata);
+
+  /** Removes a completed operation, while the state key of its owner is set. */
+  void remove(Address owner, long id);
+
+  /** Makes the pending operations visible to the keyed state backend, prior to a snapshot. */
+  default void flush() {}
+}
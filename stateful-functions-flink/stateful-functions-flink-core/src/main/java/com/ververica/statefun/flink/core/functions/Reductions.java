@@ -19,23 +19,34 @@ package com.ververica.statefun.flink.core.functions;
 import com.ververica.statefun.flink.core.StatefulFunctionsJobConstants;
 import com.ververica.statefun.flink.core.StatefulFunctionsUniverse;
 import com.ververica.statefun.flink.core.di.Inject;
+import com.ververica.statefun.flink.core.di.Label;
 import com.ververica.statefun.flink.core.di.Lazy;
 import com.ververica.statefun.flink.core.di.ObjectContainer;
 import com.ververica.statefun.flink.core.message.Message;
 import com.ververica.statefun.flink.core.message.MessageFactory;
 import com.ververica.statefun.flink.core.metrics.FlinkMetricsFactory;
 import com.ververica.statefun.flink.core.metrics.MetricsFactory;
+import com.ververica.statefun.flink.core.state.CachingState;
 import com.ververica.statefun.flink.core.state.FlinkState;
 import com.ververica.statefun.flink.core.state.MultiplexedState;
 import com.ververica.statefun.flink.core.state.State;
 import com.ververica.statefun.flink.core.state.StateBinder;
 import com.ververica.statefun.flink.core.types.DynamicallyRegisteredTypes;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.FunctionType;
 import com.ververica.statefun.sdk.io.EgressIdentifier;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.api.common.state.ListState;
+import org.apache.flink.api.common.state.ListStateDescriptor;
 import org.apache.flink.api.common.state.MapState;
+import org.apache.flink.api.common.typeutils.base.LongSerializer;
+import org.apache.flink.configuration.ConfigOption;
 import org.apache.flink.configuration.Configuration;
 import org.apache.flink.metrics.MetricGroup;
 import org.apache.flink.runtime.state.KeyedStateBackend;
@@ -45,11 +56,48 @@ import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
 import org.apache.flink.util.OutputTag;
 
 final class Reductions {
+
+  /**
+   * The namespace of the delayed messages buffer, under which the envelopes of deferred activations
+   * are persisted. It is never used as a trigger time, hence these envelopes are only read back
+   * when restoring.
+   */
+  static final long DEFERRED_ENVELOPES_NAMESPACE = Long.MIN_VALUE;
+
   private final LocalFunctionGroup localFunctionGroup;
+  private final Executor operatorMailbox;
+  private final Executor asOperator;
+  private final int maxEnvelopesPerDrain;
+  private final State state;
+  private final Continuations continuations;
+  private final AsyncOperationLimits asyncOperationLimits;
+  private final PendingAsyncOperations pendingAsyncOperations;
+  private final DelayedMessagesBuffer delayedMessagesBuffer;
+  private final Set<Address> persistedDeferredAddresses;
+
+  private boolean resumptionScheduled;
 
   @Inject
-  Reductions(LocalFunctionGroup functionGroup) {
+  Reductions(
+      LocalFunctionGroup functionGroup,
+      Continuations continuations,
+      AsyncOperationLimits asyncOperationLimits,
+      @Label("mailbox-executor") Executor operatorMailbox,
+      @Label("checkpoint-lock-executor") Executor asOperator,
+      @Label("max-envelopes-per-drain") int maxEnvelopesPerDrain,
+      @Label("state") State state,
+      @Label("pending-async-operations") PendingAsyncOperations pendingAsyncOperations,
+      @Label("delayed-messages-buffer") DelayedMessagesBuffer delayedMessagesBuffer) {
     this.localFunctionGroup = Objects.requireNonNull(functionGroup);
+    this.continuations = Objects.requireNonNull(continuations);
+    this.asyncOperationLimits = Objects.requireNonNull(asyncOperationLimits);
+    this.pendingAsyncOperations = Objects.requireNonNull(pendingAsyncOperations);
+    this.state = Objects.requireNonNull(state);
+    this.operatorMailbox = Objects.requireNonNull(operatorMailbox);
+    this.asOperator = Objects.requireNonNull(asOperator);
+    this.maxEnvelopesPerDrain = maxEnvelopesPerDrain;
+    this.delayedMessagesBuffer = Objects.requireNonNull(delayedMessagesBuffer);
+    this.persistedDeferredAddresses = new HashSet<>();
   }
 
   static Reductions create(
@@ -65,6 +113,7 @@ final class Reductions {
       Executor mailboxExecutor,
       MetricGroup metricGroup,
       MapState<Long, Message> asyncOperations,
+      AsyncOperationOwners asyncOperationOwners,
       Executor checkpointLockExecutor) {
 
     ObjectContainer container = new ObjectContainer();
@@ -78,10 +127,17 @@ final class Reductions {
     container.add("keyed-state-backend", KeyedStateBackend.class, keyedStateBackend);
     container.add(new DynamicallyRegisteredTypes(statefulFunctionsUniverse.types()));
 
+    final String backingStateLabel =
+        configuration.getBoolean(StatefulFunctionsJobConstants.CACHE_PERSISTED_VALUES)
+            ? "backing-state"
+            : "state";
     if (configuration.getBoolean(StatefulFunctionsJobConstants.MULTIPLEX_FLINK_STATE)) {
-      container.add("state", State.class, MultiplexedState.class);
+      container.add(backingStateLabel, State.class, MultiplexedState.class);
     } else {
-      container.add("state", State.class, FlinkState.class);
+      container.add(backingStateLabel, State.class, FlinkState.class);
+    }
+    if (configuration.getBoolean(StatefulFunctionsJobConstants.CACHE_PERSISTED_VALUES)) {
+      container.add("state", State.class, CachingState.class);
     }
 
     // For reductions
@@ -102,8 +158,31 @@ final class Reductions {
     container.add(StateBinder.class);
     container.add(Reductions.class);
     container.add(LocalFunctionGroup.class);
+    container.add(Continuations.class);
+    container.add(
+        "max-batch-per-activation",
+        int.class,
+        configuration.getInteger(StatefulFunctionsJobConstants.MAX_BATCH_PER_ACTIVATION));
     container.add("metrics-factory", MetricsFactory.class, new FlinkMetricsFactory(metricGroup));
 
+    // for the parallel execution
+    Set<FunctionType> parallelTypes =
+        functionTypes(configuration, StatefulFunctionsJobConstants.PARALLEL_FUNCTION_TYPES);
+    Set<FunctionType> blockingTypes =
+        functionTypes(configuration, StatefulFunctionsJobConstants.BLOCKING_FUNCTION_TYPES);
+    if (parallelTypes.isEmpty() && blockingTypes.isEmpty()) {
+      container.add("parallel-execution", ParallelExecution.class, ParallelExecution.disabled());
+    } else {
+      container.add("parallel-function-types", Set.class, parallelTypes);
+      container.add("parallel-workers", int.class, parallelWorkers(configuration));
+      container.add("blocking-function-types", Set.class, blockingTypes);
+      container.add(
+          "blocking-threads",
+          int.class,
+          configuration.getInteger(StatefulFunctionsJobConstants.BLOCKING_THREADS));
+      container.add("parallel-execution", ParallelExecution.class, WorkerPoolExecution.class);
+    }
+
     // for delayed messages
     container.add(
         "delayed-messages-buffer-state", InternalListState.class, delayedMessagesBufferState);
@@ -118,17 +197,85 @@ final class Reductions {
     // lazy providers for the sinks
     container.add("function-group", new Lazy<>(LocalFunctionGroup.class));
     container.add("reductions", new Lazy<>(Reductions.class));
+    container.add(
+        "function-repository-lazy", new Lazy<>(FunctionRepository.class, "function-repository"));
 
     container.add("mailbox-executor", Executor.class, mailboxExecutor);
+    container.add(
+        "max-envelopes-per-drain",
+        int.class,
+        configuration.getInteger(StatefulFunctionsJobConstants.MAX_ENVELOPES_PER_DRAIN));
 
     // for the async operations
     container.add("async-operations", MapState.class, asyncOperations);
+    container.add(asyncOperationOwners);
+    if (configuration.getBoolean(StatefulFunctionsJobConstants.LAZY_ASYNC_OPERATIONS)) {
+      container.add(
+          "pending-async-operations",
+          PendingAsyncOperations.class,
+          HeapPendingAsyncOperations.class);
+    } else {
+      container.add(
+          "pending-async-operations",
+          PendingAsyncOperations.class,
+          FlinkStatePendingAsyncOperations.class);
+    }
     container.add("checkpoint-lock-executor", Executor.class, checkpointLockExecutor);
     container.add(AsyncSink.class);
+    container.add("async-operation-limits", Map.class, asyncOperationLimits(configuration));
+    container.add(AsyncOperationLimits.class);
 
     return container.get(Reductions.class);
   }
 
+  private static Set<FunctionType> functionTypes(
+      Configuration configuration, ConfigOption<String> option) {
+    Set<FunctionType> types = new HashSet<>();
+    String typeNames = configuration.getString(option);
+    for (String typeName : typeNames.split(",")) {
+      typeName = typeName.trim();
+      if (typeName.isEmpty()) {
+        continue;
+      }
+      types.add(functionType(typeName));
+    }
+    return types;
+  }
+
+  private static FunctionType functionType(String typeName) {
+    int separator = typeName.lastIndexOf('/');
+    if (separator <= 0 || separator == typeName.length() - 1) {
+      throw new IllegalArgumentException(
+          "Function types must be of the form namespace/name, but got " + typeName);
+    }
+    return new FunctionType(typeName.substring(0, separator), typeName.substring(separator + 1));
+  }
+
+  private static Map<FunctionType, Integer> asyncOperationLimits(Configuration configuration) {
+    Map<FunctionType, Integer> maxInFlight = new HashMap<>();
+    String limits = configuration.getString(StatefulFunctionsJobConstants.ASYNC_OPERATION_LIMITS);
+    for (String limit : limits.split(",")) {
+      limit = limit.trim();
+      if (limit.isEmpty()) {
+        continue;
+      }
+      int separator = limit.lastIndexOf('=');
+      if (separator <= 0) {
+        throw new IllegalArgumentException(
+            "Async operation limits must be of the form namespace/name=limit, but got " + limit);
+      }
+      maxInFlight.put(
+          functionType(limit.substring(0, separator).trim()),
+          Integer.parseInt(limit.substring(separator + 1).trim()));
+    }
+    return maxInFlight;
+  }
+
+  private static int parallelWorkers(Configuration configuration) {
+    int workers = configuration.getInteger(StatefulFunctionsJobConstants.PARALLEL_WORKERS);
+    return workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+  }
+
   void apply(Message message) {
     enqueue(message);
     processEnvelopes();
@@ -138,10 +285,123 @@ final class Reductions {
     localFunctionGroup.enqueue(message);
   }
 
+  /**
+   * Applies the pending envelopes to their functions. If more than {@code maxEnvelopesPerDrain}
+   * envelopes are pending, the rest of the drain is rescheduled on the operator's mailbox, so that
+   * a single large cascade of local messages would not starve the other mailbox actions (i.e.
+   * checkpoint barriers, timers and completed async operations).
+   *
+   * <p>A drain never waits: activations that were dispatched off the operator thread, or suspended
+   * by an async function, are resumed by the mailbox action that their completion schedules.
+   */
   @SuppressWarnings("StatementWithEmptyBody")
   void processEnvelopes() {
-    while (localFunctionGroup.processNextEnvelope()) {
-      // TODO: consider preemption if too many local messages.
+    if (maxEnvelopesPerDrain <= 0) {
+      while (localFunctionGroup.processNextEnvelope()) {
+        // continue draining.
+      }
+      return;
+    }
+    for (int i = 0; i < maxEnvelopesPerDrain; i++) {
+      if (!localFunctionGroup.processNextEnvelope()) {
+        return;
+      }
+    }
+    if (localFunctionGroup.hasPendingEnvelopes()) {
+      scheduleResumption();
+    }
+  }
+
+  /**
+   * Applies every pending envelope, regardless of the configured budget, and waits for the
+   * envelopes that were dispatched off the operator thread or suspended (and for those that they
+   * produce). This blocks the operator thread, therefore it is only used before a checkpoint
+   * barrier is forwarded, and when the operator closes.
+   *
+   * <p>The activations that are deferred by the async operations limits stay deferred, rather than
+   * being applied regardless of the limits; their envelopes are persisted by {@link #flushState()}
+   * instead.
+   */
+  @SuppressWarnings("StatementWithEmptyBody")
+  void processAllEnvelopes() {
+    do {
+      while (localFunctionGroup.processNextEnvelope()) {
+        // continue draining.
+      }
+    } while (localFunctionGroup.awaitDispatchedEnvelopes() || continuations.awaitCompletion());
+  }
+
+  /** Makes every state modification visible to the keyed state backend, prior to a snapshot. */
+  void flushState() {
+    persistDeferredEnvelopes();
+    pendingAsyncOperations.flush();
+    state.flush();
+  }
+
+  /**
+   * Enqueues the envelopes of the activations that were deferred when the restored snapshot was
+   * taken (see {@link #flushState()}).
+   */
+  void restoreDeferredEnvelopes(
+      KeyedStateBackend<String> keyedStateBackend,
+      ListStateDescriptor<Message> delayedMessagesBufferDescriptor)
+      throws Exception {
+    keyedStateBackend.applyToAllKeys(
+        DEFERRED_ENVELOPES_NAMESPACE,
+        LongSerializer.INSTANCE,
+        delayedMessagesBufferDescriptor,
+        (String key, ListState<Message> envelopes) -> {
+          for (Message envelope : envelopes.get()) {
+            persistedDeferredAddresses.add(envelope.target());
+            enqueue(envelope);
+          }
+        });
+    if (localFunctionGroup.hasPendingEnvelopes()) {
+      processEnvelopes();
     }
   }
+
+  void close() {
+    localFunctionGroup.close();
+  }
+
+  /**
+   * Persists the envelopes of the deferred activations in the delayed messages buffer, under the
+   * key of their address. These are kept in memory, and persisted again by every snapshot for as
+   * long as their activation is deferred.
+   */
+  private void persistDeferredEnvelopes() {
+    // the envelopes that were persisted by the previous snapshot were either applied since, or are
+    // persisted again below.
+    for (Address address : persistedDeferredAddresses) {
+      state.setCurrentKey(address);
+      delayedMessagesBuffer.clearForTimestamp(DEFERRED_ENVELOPES_NAMESPACE);
+    }
+    persistedDeferredAddresses.clear();
+    asyncOperationLimits.forEachDeferred(
+        activation -> {
+          state.setCurrentKey(activation.self());
+          for (Message envelope : activation.pendingEnvelopes()) {
+            // completed async operations remain in the pending async operations state, until
+            // applied.
+            if (!(envelope instanceof AsyncMessageDecorator)) {
+              delayedMessagesBuffer.add(envelope, DEFERRED_ENVELOPES_NAMESPACE);
+            }
+          }
+          persistedDeferredAddresses.add(activation.self());
+        });
+  }
+
+  private void scheduleResumption() {
+    if (resumptionScheduled) {
+      return;
+    }
+    resumptionScheduled = true;
+    operatorMailbox.execute(() -> asOperator.execute(this::resumeProcessing));
+  }
+
+  private void resumeProcessing() {
+    resumptionScheduled = false;
+    processEnvelopes();
+  }
 }
@@ -22,10 +22,12 @@ import com.ververica.statefun.flink.core.message.Message;
 import com.ververica.statefun.flink.core.message.MessageFactory;
 import com.ververica.statefun.flink.core.state.State;
 import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.Context;
 import com.ververica.statefun.sdk.io.EgressIdentifier;
 import java.time.Duration;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 final class ReusableContext implements ApplyingContext {
   private final Partition thisPartition;
@@ -63,21 +65,81 @@ final class ReusableContext implements ApplyingContext {
 
   @Override
   public void apply(LiveFunction function, Message inMessage) {
+    state.setCurrentKey(inMessage.target());
+    applyWithCurrentKey(function, inMessage);
+  }
+
+  @Override
+  public void applyWithCurrentKey(LiveFunction function, Message inMessage) {
     this.in = inMessage;
     this.function = function;
-    state.setCurrentKey(inMessage.target());
     function.metrics().incomingMessage();
     function.receive(this, in);
     in.postApply();
     this.in = null;
   }
 
+  @Override
+  public void applyRecorded(LiveFunction function, Message inMessage, Consumer<Context> effects) {
+    this.in = inMessage;
+    this.function = function;
+    function.metrics().incomingMessage();
+    effects.accept(this);
+    in.postApply();
+    this.in = null;
+  }
+
+  @Override
+  public void applyContinuation(LiveFunction function, Message inMessage, Runnable continuation) {
+    state.setCurrentKey(inMessage.target());
+    this.in = inMessage;
+    this.function = function;
+    continuation.run();
+    this.in = null;
+  }
+
+  @Override
+  public Context boundTo(LiveFunction function, Message inMessage) {
+    Objects.requireNonNull(function);
+    Objects.requireNonNull(inMessage);
+    return new BoundContext(function, inMessage);
+  }
+
   @Override
   public void send(Address to, Object what) {
+    send(function, self(), to, what);
+  }
+
+  @Override
+  public <T> void send(EgressIdentifier<T> egress, T what) {
+    send(function, egress, what);
+  }
+
+  @Override
+  public void sendAfter(Duration delay, Address to, Object message) {
+    sendAfter(self(), delay, to, message);
+  }
+
+  @Override
+  public <M, T> void registerAsyncOperation(M metadata, CompletableFuture<T> future) {
+    registerAsyncOperation(self(), metadata, future);
+  }
+
+  @Override
+  public Address caller() {
+    return in.source();
+  }
+
+  @Override
+  public Address self() {
+    return in.target();
+  }
+
+  private void send(LiveFunction function, Address from, Address to, Object what) {
     Objects.requireNonNull(to);
     Objects.requireNonNull(what);
-    Message envelope = messageFactory.from(self(), to, what);
-    if (thisPartition.contains(to)) {
+    Message envelope = messageFactory.from(from, to, what);
+    if (thisPartition.contains(envelope)) {
       localSink.accept(envelope);
       function.metrics().outgoingLocalMessage();
     } else {
@@ -86,8 +148,7 @@ final class ReusableContext implements ApplyingContext {
     }
   }
 
-  @Override
-  public <T> void send(EgressIdentifier<T> egress, T what) {
+  private <T> void send(LiveFunction function, EgressIdentifier<T> egress, T what) {
     Objects.requireNonNull(egress);
     Objects.requireNonNull(what);
 
@@ -95,32 +156,62 @@ final class ReusableContext implements ApplyingContext {
     sideOutputSink.accept(egress, what);
   }
 
-  @Override
-  public void sendAfter(Duration delay, Address to, Object message) {
+  private void sendAfter(Address from, Duration delay, Address to, Object message) {
     Objects.requireNonNull(delay);
     Objects.requireNonNull(to);
     Objects.requireNonNull(message);
 
-    Message envelope = messageFactory.from(self(), to, message);
+    Message envelope = messageFactory.from(from, to, message);
     delaySink.accept(envelope, delay.toMillis());
   }
 
-  @Override
-  public <M, T> void registerAsyncOperation(M metadata, CompletableFuture<T> future) {
+  private <M, T> void registerAsyncOperation(
+      Address self, M metadata, CompletableFuture<T> future) {
     Objects.requireNonNull(metadata);
     Objects.requireNonNull(future);
 
-    Message message = messageFactory.from(self(), self(), metadata);
+    Message message = messageFactory.from(self, self, metadata);
     asyncSink.accept(message, future);
   }
 
-  @Override
-  public Address caller() {
-    return in.source();
-  }
+  /** A {@link Context} that sends on behalf of a fixed message, see {@link #boundTo}. */
+  private final class BoundContext implements Context {
+    private final LiveFunction function;
+    private final Message in;
 
-  @Override
-  public Address self() {
-    return in.target();
+    BoundContext(LiveFunction function, Message in) {
+      this.function = function;
+      this.in = in;
+    }
+
+    @Override
+    public Address self() {
+      return in.target();
+    }
+
+    @Override
+    public Address caller() {
+      return in.source();
+    }
+
+    @Override
+    public void send(Address to, Object what) {
+      ReusableContext.this.send(function, self(), to, what);
+    }
+
+    @Override
+    public <T> void send(EgressIdentifier<T> egress, T what) {
+      ReusableContext.this.send(function, egress, what);
+    }
+
+    @Override
+    public void sendAfter(Duration delay, Address to, Object message) {
+      ReusableContext.this.sendAfter(self(), delay, to, message);
+    }
+
+    @Override
+    public <M, T> void registerAsyncOperation(M metadata, CompletableFuture<T> future) {
+      ReusableContext.this.registerAsyncOperation(self(), metadata, future);
+    }
   }
 }
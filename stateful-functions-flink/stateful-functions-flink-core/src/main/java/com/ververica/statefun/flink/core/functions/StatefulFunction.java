@@ -29,6 +29,7 @@ final class StatefulFunction implements LiveFunction {
   private final BoundState state;
   private final FunctionTypeMetrics metrics;
   private final MessageFactory messageFactory;
+  private final ClassLoader classLoader;
 
   StatefulFunction(
       com.ververica.statefun.sdk.StatefulFunction statefulFunction,
@@ -37,6 +38,7 @@ final class StatefulFunction implements LiveFunction {
       MessageFactory messageFactory) {
 
     this.statefulFunction = Objects.requireNonNull(statefulFunction);
+    this.classLoader = statefulFunction.getClass().getClassLoader();
     this.state = Objects.requireNonNull(state);
     this.metrics = Objects.requireNonNull(metrics);
     this.messageFactory = Objects.requireNonNull(messageFactory);
@@ -44,19 +46,31 @@ final class StatefulFunction implements LiveFunction {
 
   @Override
   public void receive(Context context, Message message) {
-    final ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+    // a batch of messages sets the context class loader once (see FunctionActivation), in which
+    // case it is already set.
+    final Thread thread = Thread.currentThread();
+    final ClassLoader originalClassLoader = thread.getContextClassLoader();
+    final boolean setClassLoader = originalClassLoader != classLoader;
     try {
-      ClassLoader targetClassLoader = statefulFunction.getClass().getClassLoader();
-      Thread.currentThread().setContextClassLoader(targetClassLoader);
-      Object payload = message.payload(messageFactory, targetClassLoader);
+      if (setClassLoader) {
+        thread.setContextClassLoader(classLoader);
+      }
+      Object payload = message.payload(messageFactory, classLoader);
       statefulFunction.invoke(context, payload);
     } catch (Exception e) {
       throw new StatefulFunctionInvocationException(context.self().type(), e);
     } finally {
-      Thread.currentThread().setContextClassLoader(originalClassLoader);
+      if (setClassLoader) {
+        thread.setContextClassLoader(originalClassLoader);
+      }
     }
   }
 
+  @Override
+  public ClassLoader classLoader() {
+    return classLoader;
+  }
+
   @Override
   public FunctionTypeMetrics metrics() {
     return metrics;
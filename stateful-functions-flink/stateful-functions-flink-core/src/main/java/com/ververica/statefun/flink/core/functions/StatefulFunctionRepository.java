@@ -29,40 +29,51 @@ import it.unimi.dsi.fastutil.objects.ObjectOpenHashMap;
 import java.util.Objects;
 
 final class StatefulFunctionRepository implements FunctionRepository {
-  private final ObjectOpenHashMap<FunctionType, StatefulFunction> instances;
+  private final ObjectOpenHashMap<FunctionType, LiveFunction> instances;
   private final StateBinder stateBinder;
   private final FunctionLoader functionLoader;
   private final MetricsFactory metricsFactory;
   private final MessageFactory messageFactory;
+  private final Continuations continuations;
 
   @Inject
   StatefulFunctionRepository(
       @Label("function-loader") FunctionLoader functionLoader,
       @Label("metrics-factory") MetricsFactory metricsFactory,
       MessageFactory messageFactory,
-      StateBinder stateBinder) {
+      StateBinder stateBinder,
+      Continuations continuations) {
     this.instances = new ObjectOpenHashMap<>();
     this.stateBinder = Objects.requireNonNull(stateBinder);
     this.functionLoader = Objects.requireNonNull(functionLoader);
     this.metricsFactory = Objects.requireNonNull(metricsFactory);
     this.messageFactory = Objects.requireNonNull(messageFactory);
+    this.continuations = Objects.requireNonNull(continuations);
   }
 
   @Override
   public LiveFunction get(FunctionType type) {
-    StatefulFunction function = instances.get(type);
+    LiveFunction function = instances.get(type);
     if (function == null) {
       instances.put(type, function = load(type));
     }
     return function;
   }
 
-  private StatefulFunction load(FunctionType functionType) {
+  private LiveFunction load(FunctionType functionType) {
     com.ververica.statefun.sdk.StatefulFunction statefulFunction =
         functionLoader.load(functionType);
     try (SetContextClassLoader ignored = new SetContextClassLoader(statefulFunction)) {
       BoundState state = stateBinder.bind(functionType, statefulFunction);
       FunctionTypeMetrics metrics = metricsFactory.forType(functionType);
+      if (statefulFunction instanceof com.ververica.statefun.sdk.AsyncStatefulFunction) {
+        return new AsyncStatefulFunction(
+            (com.ververica.statefun.sdk.AsyncStatefulFunction) statefulFunction,
+            state,
+            metrics,
+            messageFactory,
+            continuations);
+      }
       return new StatefulFunction(statefulFunction, state, metrics, messageFactory);
     }
   }
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import com.ververica.statefun.flink.common.SetContextClassLoader;
+import com.ververica.statefun.flink.core.di.Inject;
+import com.ververica.statefun.flink.core.di.Label;
+import com.ververica.statefun.flink.core.di.Lazy;
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.flink.core.message.MessageFactory;
+import com.ververica.statefun.flink.core.state.BoundState;
+import com.ververica.statefun.flink.core.state.DetachedValues;
+import com.ververica.statefun.flink.core.state.State;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.Context;
+import com.ververica.statefun.sdk.FunctionType;
+import com.ververica.statefun.sdk.io.EgressIdentifier;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashMap;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.apache.flink.runtime.util.ExecutorThreadFactory;
+
+/**
+ * A {@link ParallelExecution} that invokes the functions of different addresses concurrently, off
+ * the operator thread.
+ *
+ * <p>There are two pools of threads: CPU heavy function types are invoked on a fixed pool of
+ * workers, while function types that block (i.e. on synchronous I/O) are invoked on an elastic pool
+ * of threads that are only kept while in use, and may outnumber the available processors. Each pool
+ * has a maximum number of invocations in flight. Below it, a blocked invocation only holds back the
+ * messages of its own address, but once every thread of a pool is taken, the activations of other
+ * addresses wait in the pool's queue for a free thread.
+ *
+ * <p>{@link #awaitCompletion()} blocks the operator thread until an invocation completes. Before a
+ * checkpoint barrier is forwarded, every in-flight invocation is awaited, therefore the barrier is
+ * held back for as long as the slowest blocked invocation takes.
+ *
+ * <p>The keyed state backend, the message payload serializers and the sinks may only be used by the
+ * operator thread, therefore:
+ *
+ * <ul>
+ *   <li>A dispatched activation is invoked on a separate function instance, whose persisted values
+ *       are detached from the state backend (see {@link DetachedValues}). The values of the
+ *       activation's address are loaded before the dispatch, and the modified values are written
+ *       back once it completes, both on the operator thread while the address's key is current.
+ *   <li>Payloads are deserialized on the operator thread before the dispatch.
+ *   <li>The effects of an invocation (sent messages and registered async operations) are recorded
+ *       by the worker, and are replayed in order on the operator thread, through the {@link
+ *       ApplyingContext}.
+ * </ul>
+ *
+ * <p>An address has at most one activation in flight, and the messages that arrive meanwhile wait
+ * in its mailbox (see {@link LocalFunctionGroup#resume(FunctionActivation)}), hence the messages of
+ * an address are still applied one at a time, in order.
+ *
+ * <p>The types of {@link com.ververica.statefun.sdk.AsyncStatefulFunction}s are rejected, since
+ * these are invoked on the operator thread with an {@link com.ververica.statefun.sdk.AsyncContext}.
+ */
+final class WorkerPoolExecution implements ParallelExecution {
+  private final ObjectOpenHashMap<FunctionType, Lane> lanes;
+  private final int maxBatchPerActivation;
+  private final FunctionLoader functionLoader;
+  private final MessageFactory messageFactory;
+  private final ApplyingContext context;
+  private final State state;
+  private final Lazy<LocalFunctionGroup> functionGroup;
+  private final Lazy<Reductions> reductions;
+  private final Lane workerLane;
+  private final Lane blockingLane;
+  private final Runnable scheduleMerge;
+
+  // -- accessed by the operator thread only
+  private final ObjectOpenHashMap<FunctionType, ArrayDeque<DetachedFunction>> idleFunctions;
+  private int inFlight;
+
+  // -- shared with the workers
+  private final ArrayBlockingQueue<Invocation> completed;
+  private final AtomicBoolean mergeScheduled;
+
+  @Inject
+  WorkerPoolExecution(
+      @Label("parallel-function-types") Set<FunctionType> parallelTypes,
+      @Label("parallel-workers") int workers,
+      @Label("blocking-function-types") Set<FunctionType> blockingTypes,
+      @Label("blocking-threads") int blockingThreads,
+      @Label("max-batch-per-activation") int maxBatchPerActivation,
+      @Label("function-loader") FunctionLoader functionLoader,
+      MessageFactory messageFactory,
+      @Label("applying-context") ApplyingContext context,
+      @Label("state") State state,
+      @Label("mailbox-executor") Executor operatorMailbox,
+      @Label("checkpoint-lock-executor") Executor asOperator,
+      @Label("function-group") Lazy<LocalFunctionGroup> functionGroup,
+      @Label("reductions") Lazy<Reductions> reductions) {
+    if (workers <= 0) {
+      throw new IllegalArgumentException("workers must be positive, but was " + workers);
+    }
+    if (blockingThreads <= 0) {
+      throw new IllegalArgumentException(
+          "blockingThreads must be positive, but was " + blockingThreads);
+    }
+    this.maxBatchPerActivation = Math.max(1, maxBatchPerActivation);
+    this.functionLoader = Objects.requireNonNull(functionLoader);
+    this.messageFactory = Objects.requireNonNull(messageFactory);
+    this.context = Objects.requireNonNull(context);
+    this.state = Objects.requireNonNull(state);
+    this.functionGroup = Objects.requireNonNull(functionGroup);
+    this.reductions = Objects.requireNonNull(reductions);
+    this.workerLane =
+        new Lane(
+            Executors.newFixedThreadPool(
+                workers, new ExecutorThreadFactory("Stateful Functions Worker")),
+            workers);
+    this.blockingLane =
+        new Lane(
+            Executors.newCachedThreadPool(
+                new ExecutorThreadFactory("Stateful Functions Blocking Invocation")),
+            blockingThreads);
+    this.lanes = new ObjectOpenHashMap<>();
+    for (FunctionType type : parallelTypes) {
+      checkNotAsynchronous(functionLoader, type);
+      lanes.put(type, workerLane);
+    }
+    for (FunctionType type : blockingTypes) {
+      checkNotAsynchronous(functionLoader, type);
+      if (lanes.put(type, blockingLane) != null) {
+        throw new IllegalArgumentException(
+            "Function type " + type + " can not be both parallel and blocking.");
+      }
+    }
+    Objects.requireNonNull(operatorMailbox);
+    Objects.requireNonNull(asOperator);
+    this.scheduleMerge = () -> operatorMailbox.execute(() -> asOperator.execute(this::merge));
+    this.idleFunctions = new ObjectOpenHashMap<>();
+    this.completed = new ArrayBlockingQueue<>(workers + blockingThreads);
+    this.mergeScheduled = new AtomicBoolean();
+  }
+
+  @Override
+  public boolean accepts(FunctionType type) {
+    return lanes.containsKey(type);
+  }
+
+  @Override
+  public void dispatch(FunctionActivation activation) {
+    final Lane lane = lanes.get(activation.self().type());
+    if (lane.inFlight < lane.maxInFlight) {
+      submit(lane, activation);
+    } else {
+      lane.waiting.addLast(activation);
+    }
+  }
+
+  @Override
+  public boolean awaitCompletion() {
+    if (inFlight == 0) {
+      return false;
+    }
+    try {
+      complete(completed.take());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for functions to complete", e);
+    }
+    Invocation invocation;
+    while ((invocation = completed.poll()) != null) {
+      complete(invocation);
+    }
+    return true;
+  }
+
+  @Override
+  public void close() {
+    workerLane.executor.shutdownNow();
+    blockingLane.executor.shutdownNow();
+  }
+
+  private void submit(Lane lane, FunctionActivation activation) {
+    final Address self = activation.self();
+    final DetachedFunction function = takeIdleFunction(self.type(), activation.function());
+    final Invocation invocation = new Invocation(lane, activation, function);
+
+    state.setCurrentKey(self);
+    function.values.load();
+    final ClassLoader classLoader = function.instance.getClass().getClassLoader();
+    Message message;
+    for (int i = 0; i < maxBatchPerActivation; i++) {
+      if ((message = activation.pollEnvelope()) == null) {
+        break;
+      }
+      invocation.add(message, message.payload(messageFactory, classLoader));
+    }
+    inFlight++;
+    lane.inFlight++;
+    lane.executor.execute(invocation);
+  }
+
+  /** Merges the completed invocations, and continues with the envelopes that they produced. */
+  private void merge() {
+    mergeScheduled.set(false);
+    Invocation invocation;
+    boolean merged = false;
+    while ((invocation = completed.poll()) != null) {
+      complete(invocation);
+      merged = true;
+    }
+    if (merged) {
+      reductions.get().processEnvelopes();
+    }
+  }
+
+  private void complete(Invocation invocation) {
+    inFlight--;
+    final Lane lane = invocation.lane;
+    lane.inFlight--;
+    final FunctionActivation activation = invocation.activation;
+    final Address self = activation.self();
+    if (invocation.failure != null) {
+      throw new StatefulFunctionInvocationException(self.type(), invocation.failure);
+    }
+    state.setCurrentKey(self);
+    invocation.function.values.writeBack();
+    releaseIdleFunction(self.type(), invocation.function);
+
+    final LiveFunction function = activation.function();
+    for (int i = 0; i < invocation.messages.size(); i++) {
+      context.applyRecorded(function, invocation.messages.get(i), invocation.effectsOf(i));
+    }
+    functionGroup.get().resume(activation);
+
+    FunctionActivation next;
+    while (lane.inFlight < lane.maxInFlight && (next = lane.waiting.pollFirst()) != null) {
+      submit(lane, next);
+    }
+  }
+
+  private static void checkNotAsynchronous(FunctionLoader functionLoader, FunctionType type) {
+    if (functionLoader.load(type) instanceof com.ververica.statefun.sdk.AsyncStatefulFunction) {
+      throw new IllegalArgumentException(
+          "Function type "
+              + type
+              + " is an AsyncStatefulFunction, and can not be parallel or blocking.");
+    }
+  }
+
+  private DetachedFunction takeIdleFunction(FunctionType type, LiveFunction source) {
+    ArrayDeque<DetachedFunction> idle = idleFunctions.get(type);
+    if (idle != null && !idle.isEmpty()) {
+      return idle.pollFirst();
+    }
+    BoundState sourceState =
+        source
+            .state()
+            .orElseThrow(() -> new IllegalStateException("Function " + type + " has no state."));
+    com.ververica.statefun.sdk.StatefulFunction instance = functionLoader.load(type);
+    try (SetContextClassLoader ignored = new SetContextClassLoader(instance)) {
+      return new DetachedFunction(instance, DetachedValues.bind(instance, sourceState));
+    }
+  }
+
+  private void releaseIdleFunction(FunctionType type, DetachedFunction function) {
+    ArrayDeque<DetachedFunction> idle = idleFunctions.get(type);
+    if (idle == null) {
+      idleFunctions.put(type, idle = new ArrayDeque<>());
+    }
+    idle.addLast(function);
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Invocation
+  // ---------------------------------------------------------------------------------------------
+
+  /** A pool of threads, and the activations that wait for one of its threads. */
+  private static final class Lane {
+    final ExecutorService executor;
+    final int maxInFlight;
+    final ArrayDeque<FunctionActivation> waiting = new ArrayDeque<>();
+    int inFlight;
+
+    Lane(ExecutorService executor, int maxInFlight) {
+      this.executor = executor;
+      this.maxInFlight = maxInFlight;
+    }
+  }
+
+  private static final class DetachedFunction {
+    final com.ververica.statefun.sdk.StatefulFunction instance;
+    final DetachedValues values;
+
+    DetachedFunction(com.ververica.statefun.sdk.StatefulFunction instance, DetachedValues values) {
+      this.instance = instance;
+      this.values = values;
+    }
+  }
+
+  /**
+   * A batch of messages that are applied to a single address on a worker thread. This is also the
+   * {@link Context} of the function while it is invoked, and it records the function's effects to
+   * be replayed later on the operator thread.
+   */
+  private final class Invocation implements Runnable, Context {
+    final Lane lane;
+    final FunctionActivation activation;
+    final DetachedFunction function;
+    final Address self;
+    final ArrayList<Message> messages = new ArrayList<>();
+    final ArrayList<Object> payloads = new ArrayList<>();
+    final ArrayList<Consumer<Context>> effects = new ArrayList<>();
+    final int[] effectsEnd;
+
+    @Nullable Throwable failure;
+    private Message current;
+
+    Invocation(Lane lane, FunctionActivation activation, DetachedFunction function) {
+      this.lane = lane;
+      this.activation = activation;
+      this.function = function;
+      this.self = activation.self();
+      this.effectsEnd = new int[maxBatchPerActivation];
+    }
+
+    void add(Message message, Object payload) {
+      messages.add(message);
+      payloads.add(payload);
+    }
+
+    Consumer<Context> effectsOf(int message) {
+      final int from = message == 0 ? 0 : effectsEnd[message - 1];
+      final int to = effectsEnd[message];
+      return context -> {
+        for (int i = from; i < to; i++) {
+          effects.get(i).accept(context);
+        }
+      };
+    }
+
+    @Override
+    public void run() {
+      final Thread thread = Thread.currentThread();
+      final ClassLoader originalClassLoader = thread.getContextClassLoader();
+      try {
+        thread.setContextClassLoader(function.instance.getClass().getClassLoader());
+        for (int i = 0; i < messages.size(); i++) {
+          current = messages.get(i);
+          function.instance.invoke(this, payloads.get(i));
+          effectsEnd[i] = effects.size();
+        }
+      } catch (Throwable t) {
+        failure = t;
+      } finally {
+        thread.setContextClassLoader(originalClassLoader);
+        current = null;
+      }
+      // there are never more invocations in flight than the capacity of this queue.
+      completed.add(this);
+      if (mergeScheduled.compareAndSet(false, true)) {
+        scheduleMerge.run();
+      }
+    }
+
+    @Override
+    public Address self() {
+      return self;
+    }
+
+    @Override
+    public Address caller() {
+      return current.source();
+    }
+
+    @Override
+    public void send(Address to, Object message) {
+      Objects.requireNonNull(to);
+      Objects.requireNonNull(message);
+      effects.add(context -> context.send(to, message));
+    }
+
+    @Override
+    public <T> void send(EgressIdentifier<T> egress, T message) {
+      Objects.requireNonNull(egress);
+      Objects.requireNonNull(message);
+      effects.add(context -> context.send(egress, message));
+    }
+
+    @Override
+    public void sendAfter(Duration delay, Address to, Object message) {
+      Objects.requireNonNull(delay);
+      Objects.requireNonNull(to);
+      Objects.requireNonNull(message);
+      effects.add(context -> context.sendAfter(delay, to, message));
+    }
+
+    @Override
+    public <M, T> void registerAsyncOperation(M metadata, CompletableFuture<T> future) {
+      Objects.requireNonNull(metadata);
+      Objects.requireNonNull(future);
+      effects.add(context -> context.registerAsyncOperation(metadata, future));
+    }
+  }
+}
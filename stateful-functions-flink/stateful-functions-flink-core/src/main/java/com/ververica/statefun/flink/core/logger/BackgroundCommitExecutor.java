@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.logger;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.apache.flink.runtime.util.ExecutorThreadFactory;
+import org.apache.flink.util.IOUtils;
+
+/**
+ * Runs the commits of an {@link UnboundedFeedbackLogger} one after another on a dedicated thread,
+ * and reports a failed commit to the given failure handler.
+ *
+ * <p>A submitted command that is also {@link Closeable} is closed if it is dropped by {@link
+ * #closeNow()} before it was run, so that the resources it holds (i.e. the lease of a checkpoint
+ * output stream) are released.
+ */
+public final class BackgroundCommitExecutor implements Executor, Closeable {
+  private final ExecutorService executor;
+  private final Consumer<Throwable> failureHandler;
+
+  public BackgroundCommitExecutor(String threadName, Consumer<Throwable> failureHandler) {
+    this.executor = Executors.newSingleThreadExecutor(new ExecutorThreadFactory(threadName));
+    this.failureHandler = Objects.requireNonNull(failureHandler);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    executor.execute(new FailureReportingCommand(command));
+  }
+
+  /** Waits for the commits that were already submitted to complete, and stops the thread. */
+  @Override
+  public void close() {
+    executor.shutdown();
+    awaitTermination();
+  }
+
+  /**
+   * Interrupts the running commit and closes the commits that did not start yet, without waiting
+   * for them to complete.
+   */
+  public void closeNow() {
+    for (Runnable dropped : executor.shutdownNow()) {
+      Runnable command = ((FailureReportingCommand) dropped).command;
+      if (command instanceof Closeable) {
+        IOUtils.closeQuietly((Closeable) command);
+      }
+    }
+  }
+
+  private void awaitTermination() {
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        // a commit writes to the checkpoint stream, which makes progress or fails eventually.
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      closeNow();
+    }
+  }
+
+  private final class FailureReportingCommand implements Runnable {
+    private final Runnable command;
+
+    FailureReportingCommand(Runnable command) {
+      this.command = Objects.requireNonNull(command);
+    }
+
+    @Override
+    public void run() {
+      try {
+        command.run();
+      } catch (Throwable t) {
+        failureHandler.accept(t);
+      }
+    }
+  }
+}
@@ -17,44 +17,133 @@
 package com.ververica.statefun.flink.core.logger;
 
 import com.ververica.statefun.flink.core.feedback.FeedbackConsumer;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Objects;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import org.apache.flink.api.common.typeutils.TypeSerializer;
 import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataInputViewStreamWrapper;
 import org.apache.flink.core.memory.DataOutputSerializer;
 import org.apache.flink.core.memory.DataOutputView;
 import org.apache.flink.core.memory.MemorySegment;
+import org.apache.flink.runtime.io.compression.BlockCompressor;
+import org.apache.flink.runtime.io.compression.BlockDecompressor;
+import org.apache.flink.runtime.io.compression.Lz4BlockCompressionFactory;
 import org.apache.flink.runtime.io.disk.SpillingBuffer;
 import org.apache.flink.runtime.io.disk.iomanager.IOManager;
 
+/**
+ * The logged elements of a single key group.
+ *
+ * <p>A stream is reused across checkpoints: once its content was written out (or released), the
+ * stream is empty and ready to log the elements of the next checkpoint. The underlying memory
+ * segments are returned to the (shared) memory pool, and the serialization buffer is shared by all
+ * the streams of a logger.
+ *
+ * <p>When a compressor is given, the serialized elements are gathered into blocks of {@link
+ * #BLOCK_SIZE} bytes, and each block is compressed before it is written to the spilling buffer.
+ * Therefore the pages that are spilled to disk are already compressed, and are copied as is to the
+ * checkpoint stream. The block is a page of the memory pool, that is held only while the stream has
+ * elements, and the compression buffer is shared by all the streams of a logger. Both are only used
+ * by the task thread: the trailing block is compressed when the stream is {@link #seal() sealed},
+ * before it is handed over to the commit.
+ *
+ * <h3>Format</h3>
+ *
+ * <p>The first version of the format (that has no version header) is the number of elements
+ * followed by the serialized elements. Since the number of elements is never negative, later
+ * versions start with a negative version tag:
+ *
+ * <pre>
+ *   int: -2 (version tag), int: number of elements, byte: codec, payload
+ * </pre>
+ *
+ * <p>With {@link #CODEC_NONE} the payload is the serialized elements, and with {@link #CODEC_LZ4}
+ * it is a sequence of {@code int: length, byte[length]: compressed block}, terminated by a length
+ * of {@code 0}.
+ */
 final class KeyGroupStream<T> {
+  static final int VERSION_2_TAG = -2;
+  static final byte CODEC_NONE = 0;
+  static final byte CODEC_LZ4 = 1;
+
+  /** The number of uncompressed bytes in a compressed block, a block fills a page of the pool. */
+  static final int BLOCK_SIZE = MemorySegmentPool.PAGE_SIZE;
+
   private final TypeSerializer<T> serializer;
-  private final SpillingBuffer target;
+  private final IOManager ioManager;
   private final MemorySegmentPool memoryPool;
-  private final DataOutputSerializer output = new DataOutputSerializer(256);
+  private final DataOutputSerializer output;
+  @Nullable private final BlockCompressor compressor;
+  @Nullable private final byte[] compressedBlock;
 
+  @Nullable private SpillingBuffer target;
   private long totalSize;
+  private long targetSize;
   private int elementCount;
 
+  // -- compression
+  @Nullable private MemorySegment blockSegment;
+  @Nullable private byte[] block;
+  private int blockSize;
+
   KeyGroupStream(
-      TypeSerializer<T> serializer, IOManager ioManager, MemorySegmentPool memorySegmentPool) {
+      TypeSerializer<T> serializer,
+      IOManager ioManager,
+      MemorySegmentPool memorySegmentPool,
+      DataOutputSerializer output,
+      @Nullable BlockCompressor compressor,
+      @Nullable byte[] compressedBlock) {
     this.serializer = Objects.requireNonNull(serializer);
+    this.ioManager = Objects.requireNonNull(ioManager);
     this.memoryPool = Objects.requireNonNull(memorySegmentPool);
-
-    // SpillingBuffer requires at least 1 memory segment to be present at construction, otherwise it
-    // fails
-    // so we
-    memorySegmentPool.ensureAtLeastOneSegmentPresent();
-    this.target =
-        new SpillingBuffer(ioManager, memorySegmentPool, memorySegmentPool.getSegmentSize());
+    this.output = Objects.requireNonNull(output);
+    this.compressor = compressor;
+    this.compressedBlock = compressedBlock;
+    if (compressor != null) {
+      Objects.requireNonNull(compressedBlock);
+    }
   }
 
   static <T> void readFrom(
       DataInputView source, TypeSerializer<T> serializer, FeedbackConsumer<T> consumer)
       throws Exception {
+    final int header = source.readInt();
+    if (header >= 0) {
+      // the first version of the format, the header is the number of elements.
+      readElements(source, header, serializer, consumer);
+      return;
+    }
+    if (header != VERSION_2_TAG) {
+      throw new IllegalStateException("Unknown feedback log format version tag " + header);
+    }
     final int elementCount = source.readInt();
+    final byte codec = source.readByte();
+    switch (codec) {
+      case CODEC_NONE:
+        readElements(source, elementCount, serializer, consumer);
+        break;
+      case CODEC_LZ4:
+        BlockDecompressingInputStream blocks =
+            new BlockDecompressingInputStream(
+                source, new Lz4BlockCompressionFactory().getDecompressor());
+        readElements(new DataInputViewStreamWrapper(blocks), elementCount, serializer, consumer);
+        blocks.readTerminator();
+        break;
+      default:
+        throw new IllegalStateException("Unknown feedback log codec " + codec);
+    }
+  }
 
+  private static <T> void readElements(
+      DataInputView source,
+      int elementCount,
+      TypeSerializer<T> serializer,
+      FeedbackConsumer<T> consumer)
+      throws Exception {
     for (int i = 0; i < elementCount; i++) {
       T envelope = serializer.deserialize(source);
       consumer.processFeedback(envelope);
@@ -72,25 +161,198 @@ final class KeyGroupStream<T> {
   }
 
   void append(T envelope) {
-    elementCount++;
     try {
       output.clear();
       serializer.serialize(envelope, output);
-      totalSize += output.length();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    appendSerialized(output.getSharedBuffer(), output.length());
+  }
 
-      target.write(output.getSharedBuffer(), 0, output.length());
+  /** Appends an element that is already serialized with this stream's serializer. */
+  void appendSerialized(byte[] bytes, int length) {
+    SpillingBuffer target = this.target;
+    if (target == null) {
+      this.target = target = newSpillingBuffer();
+    }
+    elementCount++;
+    totalSize += length;
+    try {
+      if (compressor == null) {
+        target.write(bytes, 0, length);
+        targetSize += length;
+      } else {
+        appendToBlock(target, compressor, bytes, length);
+      }
     } catch (IOException e) {
       throw new IllegalStateException(e);
     }
   }
 
+  boolean isEmpty() {
+    return elementCount == 0;
+  }
+
+  /** The number of (uncompressed) serialized bytes that were appended to this stream. */
+  long size() {
+    return totalSize;
+  }
+
+  /**
+   * Compresses the trailing block, and returns the block's page to the pool. This must be called on
+   * the task thread before the stream is written, as the commit might run on another thread.
+   */
+  void seal() throws IOException {
+    if (blockSegment == null) {
+      return;
+    }
+    if (blockSize > 0) {
+      writeCompressedBlock(Objects.requireNonNull(target), Objects.requireNonNull(compressor));
+    }
+    releaseBlock();
+  }
+
   void writeTo(DataOutputView target) throws IOException {
+    if (blockSegment != null) {
+      throw new IllegalStateException("A compressed stream must be sealed before it is written.");
+    }
+    target.writeInt(VERSION_2_TAG);
     target.writeInt(elementCount);
+    target.writeByte(compressor == null ? CODEC_NONE : CODEC_LZ4);
 
-    copy(this.target.flip(), target, totalSize);
+    if (this.target != null) {
+      copy(this.target.flip(), target, targetSize);
+    }
+    if (compressor != null) {
+      target.writeInt(0);
+    }
+    release();
+  }
 
-    for (MemorySegment segment : this.target.close()) {
+  /** Discards the content of this stream, and returns its memory to the pool. */
+  void release() throws IOException {
+    final SpillingBuffer target = this.target;
+    this.target = null;
+    this.totalSize = 0;
+    this.targetSize = 0;
+    this.elementCount = 0;
+    releaseBlock();
+    if (target == null) {
+      return;
+    }
+    for (MemorySegment segment : target.close()) {
       memoryPool.release(segment);
     }
   }
+
+  private void appendToBlock(
+      DataOutputView target, BlockCompressor compressor, byte[] bytes, int length)
+      throws IOException {
+    byte[] block = this.block;
+    if (block == null) {
+      // like the spilling buffer, the block may overdraft the pool momentarily.
+      memoryPool.ensureAtLeastOneSegmentPresent();
+      blockSegment = Objects.requireNonNull(memoryPool.nextSegment());
+      this.block = block = blockSegment.getArray();
+    }
+    int offset = 0;
+    while (offset < length) {
+      final int len = Math.min(length - offset, BLOCK_SIZE - blockSize);
+      System.arraycopy(bytes, offset, block, blockSize, len);
+      blockSize += len;
+      offset += len;
+      if (blockSize == BLOCK_SIZE) {
+        writeCompressedBlock(target, compressor);
+      }
+    }
+  }
+
+  private void writeCompressedBlock(DataOutputView target, BlockCompressor compressor)
+      throws IOException {
+    final int compressedSize = compressor.compress(block, 0, blockSize, compressedBlock, 0);
+    target.writeInt(compressedSize);
+    target.write(compressedBlock, 0, compressedSize);
+    targetSize += Integer.BYTES + compressedSize;
+    blockSize = 0;
+  }
+
+  private void releaseBlock() {
+    final MemorySegment blockSegment = this.blockSegment;
+    this.blockSegment = null;
+    this.block = null;
+    this.blockSize = 0;
+    if (blockSegment != null) {
+      memoryPool.release(blockSegment);
+    }
+  }
+
+  private SpillingBuffer newSpillingBuffer() {
+    // SpillingBuffer requires at least 1 memory segment to be present at construction, otherwise it
+    // fails.
+    memoryPool.ensureAtLeastOneSegmentPresent();
+    return new SpillingBuffer(ioManager, memoryPool, memoryPool.getSegmentSize());
+  }
+
+  /** Reads the uncompressed bytes of a sequence of compressed blocks. */
+  private static final class BlockDecompressingInputStream extends InputStream {
+    private final DataInputView source;
+    private final BlockDecompressor decompressor;
+    private final byte[] block = new byte[BLOCK_SIZE];
+
+    private byte[] compressedBlock = new byte[0];
+    private int position;
+    private int limit;
+
+    BlockDecompressingInputStream(DataInputView source, BlockDecompressor decompressor) {
+      this.source = Objects.requireNonNull(source);
+      this.decompressor = Objects.requireNonNull(decompressor);
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!ensureAvailable()) {
+        return -1;
+      }
+      return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!ensureAvailable()) {
+        return -1;
+      }
+      final int len = Math.min(length, limit - position);
+      System.arraycopy(block, position, bytes, offset, len);
+      position += len;
+      return len;
+    }
+
+    /** Verifies that all the elements were consumed, and reads the terminating block length. */
+    void readTerminator() throws IOException {
+      if (position != limit || source.readInt() != 0) {
+        throw new IllegalStateException("Corrupted feedback log, unexpected trailing bytes");
+      }
+    }
+
+    private boolean ensureAvailable() throws IOException {
+      if (position < limit) {
+        return true;
+      }
+      final int compressedSize = source.readInt();
+      if (compressedSize == 0) {
+        throw new EOFException("Reached the end of the compressed feedback log");
+      }
+      if (compressedBlock.length < compressedSize) {
+        compressedBlock = new byte[compressedSize];
+      }
+      source.readFully(compressedBlock, 0, compressedSize);
+      limit = decompressor.decompress(compressedBlock, 0, compressedSize, block, 0);
+      position = 0;
+      return limit > 0;
+    }
+  }
 }
@@ -19,26 +19,38 @@ package com.ververica.statefun.flink.core.logger;
 import com.ververica.statefun.flink.core.di.Inject;
 import com.ververica.statefun.flink.core.di.Label;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.runtime.io.compression.BlockCompressor;
+import org.apache.flink.runtime.io.compression.Lz4BlockCompressionFactory;
 import org.apache.flink.runtime.io.disk.iomanager.IOManager;
 
 public final class KeyGroupStreamFactory<T> implements Supplier<KeyGroupStream<T>> {
   private final IOManager ioManager;
   private final MemorySegmentPool memorySegmentPool;
   private final TypeSerializer<T> serializer;
+  private final DataOutputSerializer output = new DataOutputSerializer(256);
+  @Nullable private final BlockCompressor compressor;
+  @Nullable private final byte[] compressedBlock;
 
   @Inject
   KeyGroupStreamFactory(
       @Label("io-manager") IOManager ioManager,
       @Label("in-memory-max-buffer-size") long inMemoryBufferSize,
-      @Label("envelope-serializer") TypeSerializer<T> serializer) {
+      @Label("envelope-serializer") TypeSerializer<T> serializer,
+      @Label("compression") boolean compression) {
     this.ioManager = ioManager;
     this.serializer = serializer;
     this.memorySegmentPool = new MemorySegmentPool(inMemoryBufferSize);
+    this.compressor = compression ? new Lz4BlockCompressionFactory().getCompressor() : null;
+    this.compressedBlock =
+        compression ? new byte[compressor.getMaxCompressedSize(KeyGroupStream.BLOCK_SIZE)] : null;
   }
 
   @Override
   public KeyGroupStream<T> get() {
-    return new KeyGroupStream<>(serializer, ioManager, memorySegmentPool);
+    return new KeyGroupStream<>(
+        serializer, ioManager, memorySegmentPool, output, compressor, compressedBlock);
   }
 }
@@ -21,12 +21,14 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.function.ToIntFunction;
 import org.apache.flink.annotation.VisibleForTesting;
 import org.apache.flink.api.common.typeutils.TypeSerializer;
 import org.apache.flink.runtime.io.disk.iomanager.IOManager;
+import org.apache.flink.runtime.state.KeyGroupRange;
 import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
 import org.apache.flink.runtime.state.KeyedStateCheckpointOutputStream;
 import org.apache.flink.util.Preconditions;
@@ -38,13 +40,23 @@ public final class Loggers {
   public static UnboundedFeedbackLogger<?> unboundedSpillableLogger(
       IOManager ioManager,
       int maxParallelism,
+      KeyGroupRange keyGroupRange,
       long inMemoryMaxBufferSize,
       TypeSerializer<?> serializer,
-      Function<?, ?> keySelector) {
+      Function<?, ?> keySelector,
+      Executor commitExecutor,
+      boolean compression) {
 
     ObjectContainer container =
         unboundedSpillableLoggerContainer(
-            ioManager, maxParallelism, inMemoryMaxBufferSize, serializer, keySelector);
+            ioManager,
+            maxParallelism,
+            keyGroupRange,
+            inMemoryMaxBufferSize,
+            serializer,
+            keySelector);
+    container.add("commit-executor", Executor.class, commitExecutor);
+    container.add("compression", boolean.class, compression);
     return container.get(UnboundedFeedbackLogger.class);
   }
 
@@ -53,12 +65,14 @@ public final class Loggers {
   static ObjectContainer unboundedSpillableLoggerContainer(
       IOManager ioManager,
       int maxParallelism,
+      KeyGroupRange keyGroupRange,
       long inMemoryMaxBufferSize,
       TypeSerializer<?> serializer,
       Function<?, ?> keySelector) {
 
     ObjectContainer container = new ObjectContainer();
     container.add("max-parallelism", int.class, maxParallelism);
+    container.add("key-group-range", KeyGroupRange.class, keyGroupRange);
     container.add("in-memory-max-buffer-size", long.class, inMemoryMaxBufferSize);
     container.add("io-manager", IOManager.class, ioManager);
     container.add("key-group-supplier", Supplier.class, KeyGroupStreamFactory.class);
@@ -69,6 +83,8 @@ public final class Loggers {
         "checkpoint-stream-ops",
         CheckpointedStreamOperations.class,
         KeyedStateCheckpointOutputStreamOps.INSTANCE);
+    container.add("commit-executor", Executor.class, (Executor) Runnable::run);
+    container.add("compression", boolean.class, false);
     container.add(UnboundedFeedbackLogger.class);
     return container;
   }
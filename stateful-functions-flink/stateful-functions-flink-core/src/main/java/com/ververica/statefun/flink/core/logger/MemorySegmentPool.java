@@ -18,12 +18,19 @@ package com.ververica.statefun.flink.core.logger;
 
 import java.util.ArrayDeque;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
 import org.apache.flink.core.memory.MemorySegment;
 import org.apache.flink.core.memory.MemorySegmentFactory;
 import org.apache.flink.core.memory.MemorySegmentSource;
 
-@NotThreadSafe
+/**
+ * A bounded pool of memory segments.
+ *
+ * <p>Segments are taken by the task thread, but might be returned by the thread that asynchronously
+ * commits the feedback log, hence access to the pool is synchronized (and almost always
+ * uncontended).
+ */
+@ThreadSafe
 final class MemorySegmentPool implements MemorySegmentSource {
   static final int PAGE_SIZE = 64 * 1024;
 
@@ -38,7 +45,7 @@ final class MemorySegmentPool implements MemorySegmentSource {
 
   @Nullable
   @Override
-  public MemorySegment nextSegment() {
+  public synchronized MemorySegment nextSegment() {
     MemorySegment segment = pool.pollFirst();
     if (segment != null) {
       return segment;
@@ -54,7 +61,7 @@ final class MemorySegmentPool implements MemorySegmentSource {
     return segment;
   }
 
-  void release(MemorySegment segment) {
+  synchronized void release(MemorySegment segment) {
     if (totalAllocatedMemory > inMemoryBufferSize) {
       //
       // we previously overdraft.
@@ -70,7 +77,7 @@ final class MemorySegmentPool implements MemorySegmentSource {
     return PAGE_SIZE;
   }
 
-  void ensureAtLeastOneSegmentPresent() {
+  synchronized void ensureAtLeastOneSegmentPresent() {
     if (!pool.isEmpty()) {
       //
       // the next allocation would succeeded because the pool is not empty
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.core.memory.MemorySegment;
+import org.apache.flink.runtime.io.disk.SpillingBuffer;
+import org.apache.flink.runtime.io.disk.iomanager.IOManager;
+
+/**
+ * A first in first out buffer of serialized elements, that are kept in memory up to a configured
+ * size, and are spilled to disk beyond that.
+ *
+ * <p>A {@link SpillingBuffer} can not be written to after it was flipped for reading, therefore
+ * elements are appended to a writing run, and polled from the oldest run. Once a run is flipped for
+ * reading, a new writing run is started on the next addition.
+ *
+ * <p>The remaining elements can also be read in their serialized form without removing them, see
+ * {@link #forEachRemaining(SerializedElementConsumer)}.
+ */
+@NotThreadSafe
+public final class SpillingFeedbackBuffer<T> implements Closeable {
+  private final TypeSerializer<T> serializer;
+  private final IOManager ioManager;
+  private final MemorySegmentPool memoryPool;
+  private final ArrayDeque<Run> runs = new ArrayDeque<>();
+
+  @Nullable private Run writing;
+  @Nullable private DataOutputSerializer scratch;
+  private long size;
+
+  public SpillingFeedbackBuffer(
+      TypeSerializer<T> serializer, IOManager ioManager, long inMemoryBufferSize) {
+    this.serializer = Objects.requireNonNull(serializer);
+    this.ioManager = Objects.requireNonNull(ioManager);
+    this.memoryPool = new MemorySegmentPool(inMemoryBufferSize);
+  }
+
+  public void add(T element) {
+    Run writing = this.writing;
+    if (writing == null) {
+      this.writing = writing = new Run(ioManager, memoryPool);
+      runs.addLast(writing);
+    }
+    try {
+      serializer.serialize(element, writing.buffer);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to spill a feedback element", e);
+    }
+    writing.count++;
+    size++;
+  }
+
+  /** Removes and returns the oldest element of this buffer, or {@code null} if it is empty. */
+  @Nullable
+  public T poll() {
+    if (size == 0) {
+      return null;
+    }
+    Run reading = runs.peekFirst();
+    while (reading.remaining() == 0) {
+      runs.pollFirst().release(memoryPool);
+      reading = runs.peekFirst();
+    }
+    if (reading.input == null) {
+      flipForReading(reading);
+    }
+    try {
+      T element = serializer.deserialize(reading.input);
+      reading.consumed++;
+      size--;
+      return element;
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read a spilled feedback element", e);
+    }
+  }
+
+  /**
+   * Passes the serialized form of every remaining element to the given consumer, oldest first,
+   * without removing them from this buffer.
+   *
+   * <p>The elements are copied as bytes, and are never deserialized. Since a spilled run can only
+   * be read from its start, the elements that were already polled from a partially consumed run are
+   * read again (and skipped), twice: once to reach the remaining elements, and once to restore the
+   * reading position.
+   */
+  public void forEachRemaining(SerializedElementConsumer consumer) {
+    DataOutputSerializer scratch = this.scratch;
+    if (scratch == null) {
+      this.scratch = scratch = new DataOutputSerializer(1024);
+    }
+    try {
+      for (Run run : runs) {
+        if (run.remaining() == 0) {
+          continue;
+        }
+        if (run.input == null) {
+          flipForReading(run);
+        }
+        final DataInputView source = run.buffer.flip();
+        skip(source, run.consumed, scratch);
+        for (int i = run.consumed; i < run.count; i++) {
+          scratch.clear();
+          serializer.copy(source, scratch);
+          consumer.accept(scratch.getSharedBuffer(), scratch.length());
+        }
+        run.input = run.buffer.flip();
+        skip(run.input, run.consumed, scratch);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read spilled feedback elements", e);
+    }
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public void close() {
+    Run run;
+    while ((run = runs.pollFirst()) != null) {
+      run.release(memoryPool);
+    }
+    writing = null;
+    size = 0;
+  }
+
+  private void flipForReading(Run run) {
+    if (run == writing) {
+      writing = null;
+    }
+    try {
+      run.input = run.buffer.flip();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read spilled feedback elements", e);
+    }
+  }
+
+  private void skip(DataInputView source, int elements, DataOutputSerializer scratch)
+      throws IOException {
+    for (int i = 0; i < elements; i++) {
+      scratch.clear();
+      serializer.copy(source, scratch);
+    }
+  }
+
+  /** Consumes the serialized form of an element. */
+  @FunctionalInterface
+  public interface SerializedElementConsumer {
+    /** The bytes are only valid for the duration of this call. */
+    void accept(byte[] bytes, int length);
+  }
+
+  private static final class Run {
+    final SpillingBuffer buffer;
+    int count;
+    int consumed;
+    @Nullable DataInputView input;
+
+    Run(IOManager ioManager, MemorySegmentPool memoryPool) {
+      // SpillingBuffer requires at least one memory segment to be present at construction.
+      memoryPool.ensureAtLeastOneSegmentPresent();
+      this.buffer = new SpillingBuffer(ioManager, memoryPool, memoryPool.getSegmentSize());
+    }
+
+    int remaining() {
+      return count - consumed;
+    }
+
+    void release(MemorySegmentPool memoryPool) {
+      try {
+        for (MemorySegment segment : buffer.close()) {
+          memoryPool.release(segment);
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to release spilled feedback elements", e);
+      }
+    }
+  }
+}
@@ -21,14 +21,14 @@ import static org.apache.flink.util.Preconditions.checkState;
 import com.ververica.statefun.flink.core.di.Inject;
 import com.ververica.statefun.flink.core.di.Label;
 import com.ververica.statefun.flink.core.feedback.FeedbackConsumer;
+import com.ververica.statefun.flink.core.metrics.SlidingWindowHistogram;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 import java.util.function.ToIntFunction;
 import javax.annotation.Nonnull;
@@ -37,29 +37,59 @@ import org.apache.flink.api.common.typeutils.TypeSerializer;
 import org.apache.flink.core.memory.DataInputViewStreamWrapper;
 import org.apache.flink.core.memory.DataOutputView;
 import org.apache.flink.core.memory.DataOutputViewStreamWrapper;
+import org.apache.flink.metrics.Histogram;
+import org.apache.flink.runtime.state.KeyGroupRange;
 import org.apache.flink.util.IOUtils;
 
+/**
+ * Logs the feedback elements that were received during a checkpoint, grouped by key group.
+ *
+ * <p>The streams of the key groups of this subtask are kept in an array that is indexed by the key
+ * group (relative to the first key group of the range), and are reused across checkpoints, so that
+ * logging an element does not allocate in steady state.
+ *
+ * <p>On {@link #commit()} the current streams are sealed, and are written to the checkpoint output
+ * stream by the commit executor. With a direct executor this happens synchronously, otherwise the
+ * operator keeps processing (and logging into a second set of streams) while the sealed streams are
+ * written in the background. In both cases, the checkpoint completes only once the lease on its
+ * output stream is released, i.e. after the sealed streams were written.
+ */
 public final class UnboundedFeedbackLogger<T> implements Closeable {
   private final Supplier<KeyGroupStream<T>> supplier;
   private final ToIntFunction<T> keyGroupAssigner;
-  private final Map<Integer, KeyGroupStream<T>> keyGroupStreams;
+  private final KeyGroupRange keyGroupRange;
   private final CheckpointedStreamOperations checkpointedStreamOperations;
+  private final Executor commitExecutor;
+  private final SlidingWindowHistogram loggedBytesPerCheckpoint = new SlidingWindowHistogram(64);
 
+  /** Streams that were written by a previous commit, and can be reused. */
+  private final AtomicReference<KeyGroupStream<T>[]> spareKeyGroupStreams = new AtomicReference<>();
+
+  private KeyGroupStream<T>[] keyGroupStreams;
   @Nullable private OutputStream keyedStateOutputStream;
   private TypeSerializer<T> serializer;
   private Closeable snapshotLease;
 
+  /** The lease of a checkpoint whose commit has failed, held until close to fail the checkpoint. */
+  private final AtomicReference<Closeable> failedCommitLease = new AtomicReference<>();
+
+  private volatile boolean closed;
+
   @Inject
   public UnboundedFeedbackLogger(
       @Label("key-group-supplier") Supplier<KeyGroupStream<T>> supplier,
       @Label("key-group-assigner") ToIntFunction<T> keyGroupAssigner,
+      @Label("key-group-range") KeyGroupRange keyGroupRange,
       @Label("checkpoint-stream-ops") CheckpointedStreamOperations ops,
-      @Label("envelope-serializer") TypeSerializer<T> serializer) {
+      @Label("envelope-serializer") TypeSerializer<T> serializer,
+      @Label("commit-executor") Executor commitExecutor) {
     this.supplier = Objects.requireNonNull(supplier);
     this.keyGroupAssigner = Objects.requireNonNull(keyGroupAssigner);
+    this.keyGroupRange = Objects.requireNonNull(keyGroupRange);
     this.serializer = Objects.requireNonNull(serializer);
-    this.keyGroupStreams = new TreeMap<>();
     this.checkpointedStreamOperations = Objects.requireNonNull(ops);
+    this.commitExecutor = Objects.requireNonNull(commitExecutor);
+    this.keyGroupStreams = newKeyGroupStreams();
   }
 
   public void startLogging(OutputStream keyedStateCheckpointOutputStream) {
@@ -81,29 +111,86 @@ public final class UnboundedFeedbackLogger<T> implements Closeable {
     keyGroup.append(message);
   }
 
+  /**
+   * Appends an element of the given key group, that is already serialized with this logger's
+   * serializer.
+   */
+  public void appendSerialized(int keyGroupId, byte[] bytes, int length) {
+    if (keyedStateOutputStream == null) {
+      //
+      // we are not currently logging.
+      //
+      return;
+    }
+    KeyGroupStream<T> keyGroup = keyGroupStream(keyGroupId);
+    keyGroup.appendSerialized(bytes, length);
+  }
+
   public void commit() {
+    checkState(keyedStateOutputStream != null, "Trying to flush envelopes not in a logging state");
+
+    final KeyGroupStream<T>[] sealed = keyGroupStreams;
+    final OutputStream output = keyedStateOutputStream;
+    final Closeable lease = snapshotLease;
+    keyedStateOutputStream = null;
+    snapshotLease = null;
+
+    sealKeyGroupStreams(sealed);
+    commitExecutor.execute(new Commit(sealed, output, lease));
+
+    // with a direct executor, the sealed streams are already back, otherwise they are still being
+    // written and we continue with spare streams.
+    final KeyGroupStream<T>[] spare = spareKeyGroupStreams.getAndSet(null);
+    keyGroupStreams = (spare != null) ? spare : newKeyGroupStreams();
+  }
+
+  private void commit(KeyGroupStream<T>[] sealed, OutputStream output, Closeable lease) {
+    boolean committed = false;
     try {
-      flushToKeyedStateOutputStream();
+      flushToKeyedStateOutputStream(sealed, output);
+      committed = true;
     } catch (IOException e) {
       throw new RuntimeException(e);
     } finally {
-      keyGroupStreams.clear();
-      IOUtils.closeQuietly(snapshotLease);
-      snapshotLease = null;
-      keyedStateOutputStream = null;
+      releaseKeyGroupStreams(sealed);
+      spareKeyGroupStreams.set(sealed);
+      if (committed) {
+        IOUtils.closeQuietly(lease);
+      } else {
+        // releasing the lease would let the checkpoint complete with partially written streams.
+        failedCommitLease.set(lease);
+        if (closed) {
+          // this logger was closed while the commit was running.
+          IOUtils.closeQuietly(failedCommitLease.getAndSet(null));
+        }
+      }
     }
   }
 
-  private void flushToKeyedStateOutputStream() throws IOException {
-    checkState(keyedStateOutputStream != null, "Trying to flush envelopes not in a logging state");
-
+  private void flushToKeyedStateOutputStream(
+      KeyGroupStream<T>[] keyGroupStreams, OutputStream keyedStateOutputStream) throws IOException {
     final DataOutputView target = new DataOutputViewStreamWrapper(keyedStateOutputStream);
-    for (Entry<Integer, KeyGroupStream<T>> entry : keyGroupStreams.entrySet()) {
-      checkpointedStreamOperations.startNewKeyGroup(keyedStateOutputStream, entry.getKey());
+    final int firstKeyGroup = keyGroupRange.getStartKeyGroup();
+    long loggedBytes = 0;
+    for (int i = 0; i < keyGroupStreams.length; i++) {
+      final KeyGroupStream<T> stream = keyGroupStreams[i];
+      if (stream == null || stream.isEmpty()) {
+        continue;
+      }
+      checkpointedStreamOperations.startNewKeyGroup(keyedStateOutputStream, firstKeyGroup + i);
 
-      KeyGroupStream stream = entry.getValue();
+      loggedBytes += stream.size();
       stream.writeTo(target);
     }
+    loggedBytesPerCheckpoint.update(loggedBytes);
+  }
+
+  /**
+   * The number of serialized bytes that were logged (in memory, and beyond the configured memory on
+   * disk) for each of the recent checkpoints.
+   */
+  public Histogram loggedBytesPerCheckpoint() {
+    return loggedBytesPerCheckpoint;
   }
 
   public void replyLoggedEnvelops(InputStream rawKeyedStateInputs, FeedbackConsumer<T> consumer)
@@ -115,19 +202,88 @@ public final class UnboundedFeedbackLogger<T> implements Closeable {
 
   @Nonnull
   private KeyGroupStream<T> keyGroupStreamFor(T target) {
-    final int keyGroupId = keyGroupAssigner.applyAsInt(target);
-    KeyGroupStream<T> keyGroup = keyGroupStreams.get(keyGroupId);
+    return keyGroupStream(keyGroupAssigner.applyAsInt(target));
+  }
+
+  @Nonnull
+  private KeyGroupStream<T> keyGroupStream(int keyGroupId) {
+    final int index = keyGroupId - keyGroupRange.getStartKeyGroup();
+    if (index < 0 || index >= keyGroupStreams.length) {
+      throw new IllegalStateException(
+          "Key group " + keyGroupId + " does not belong to this subtask's " + keyGroupRange);
+    }
+    KeyGroupStream<T> keyGroup = keyGroupStreams[index];
     if (keyGroup == null) {
-      keyGroupStreams.put(keyGroupId, keyGroup = supplier.get());
+      keyGroupStreams[index] = keyGroup = supplier.get();
     }
     return keyGroup;
   }
 
+  @SuppressWarnings("unchecked")
+  private KeyGroupStream<T>[] newKeyGroupStreams() {
+    return new KeyGroupStream[keyGroupRange.getNumberOfKeyGroups()];
+  }
+
+  private static void sealKeyGroupStreams(KeyGroupStream<?>[] keyGroupStreams) {
+    for (KeyGroupStream<?> stream : keyGroupStreams) {
+      if (stream == null || stream.isEmpty()) {
+        continue;
+      }
+      try {
+        stream.seal();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private static void releaseKeyGroupStreams(KeyGroupStream<?>[] keyGroupStreams) {
+    for (KeyGroupStream<?> stream : keyGroupStreams) {
+      if (stream == null || stream.isEmpty()) {
+        continue;
+      }
+      try {
+        stream.release();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
   @Override
   public void close() {
+    closed = true;
     IOUtils.closeQuietly(snapshotLease);
+    IOUtils.closeQuietly(failedCommitLease.getAndSet(null));
     snapshotLease = null;
     keyedStateOutputStream = null;
-    keyGroupStreams.clear();
+    releaseKeyGroupStreams(keyGroupStreams);
+  }
+
+  /**
+   * Writes sealed key group streams to the checkpoint output stream. A commit that is closed
+   * without being run (because the commit executor dropped it) releases its streams and its lease.
+   */
+  private final class Commit implements Runnable, Closeable {
+    private final KeyGroupStream<T>[] sealed;
+    private final OutputStream output;
+    private final Closeable lease;
+
+    Commit(KeyGroupStream<T>[] sealed, OutputStream output, Closeable lease) {
+      this.sealed = sealed;
+      this.output = output;
+      this.lease = lease;
+    }
+
+    @Override
+    public void run() {
+      commit(sealed, output, lease);
+    }
+
+    @Override
+    public void close() {
+      releaseKeyGroupStreams(sealed);
+      IOUtils.closeQuietly(lease);
+    }
   }
 }
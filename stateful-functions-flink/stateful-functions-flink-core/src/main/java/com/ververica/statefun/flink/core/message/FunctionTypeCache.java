@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.message;
+
+import com.ververica.statefun.sdk.FunctionType;
+import org.apache.flink.util.MathUtils;
+
+/**
+ * A bounded, direct mapped cache of {@link FunctionType} instances, keyed by namespace and name.
+ *
+ * <p>Decoding a message from the wire would otherwise allocate a new {@link FunctionType} for every
+ * address. With this cache, the (usually small) set of types that a subtask sees is represented by
+ * a single instance per type, so that equality checks short circuit on identity and the hash code
+ * is computed once. Colliding types simply replace each other.
+ *
+ * <p>This class is not synchronized, but races are benign: {@link FunctionType} is immutable, so a
+ * racing reader would either see a fully constructed instance, or create an equal one.
+ */
+final class FunctionTypeCache {
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private final FunctionType[] types;
+  private final int mask;
+
+  FunctionTypeCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  FunctionTypeCache(int capacity) {
+    final int size = MathUtils.roundUpToPowerOfTwo(Math.max(1, capacity));
+    this.types = new FunctionType[size];
+    this.mask = size - 1;
+  }
+
+  FunctionType get(String namespace, String name) {
+    final int slot = (31 * namespace.hashCode() + name.hashCode()) & mask;
+    final FunctionType cached = types[slot];
+    if (cached != null && cached.name().equals(name) && cached.namespace().equals(namespace)) {
+      return cached;
+    }
+    final FunctionType type = new FunctionType(namespace, name);
+    types[slot] = type;
+    return type;
+  }
+}
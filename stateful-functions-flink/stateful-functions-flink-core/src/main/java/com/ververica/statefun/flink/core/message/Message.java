@@ -28,6 +28,13 @@ public interface Message {
 
   Address target();
 
+  /**
+   * Returns the (never negative) hash of the key of the {@link #target()} address, as computed by
+   * {@link com.ververica.statefun.flink.core.common.KeyBy#keyHash(Address)}. Implementations
+   * compute it at most once.
+   */
+  int targetKeyHash();
+
   Object payload(MessageFactory context, ClassLoader targetClassLoader);
 
   boolean isBarrierMessage();
@@ -28,24 +28,30 @@ import org.apache.flink.core.memory.DataOutputView;
 
 public final class MessageFactory {
 
+  public static MessageFactory forKey(MessageFactoryKey key) {
+    return new MessageFactory(forPayloadType(key));
+  }
+
   public static MessageFactory forType(MessageFactoryType type) {
-    return new MessageFactory(forPayloadType(type));
+    return forKey(MessageFactoryKey.forType(type));
   }
 
   private final ProtobufSerializer<Envelope> envelopeSerializer;
   private final MessagePayloadSerializer userMessagePayloadSerializer;
+  private final FunctionTypeCache functionTypes;
 
   private MessageFactory(MessagePayloadSerializer userMessagePayloadSerializer) {
     this.envelopeSerializer = ProtobufSerializer.forMessageGeneratedClass(Envelope.class);
     this.userMessagePayloadSerializer = Objects.requireNonNull(userMessagePayloadSerializer);
+    this.functionTypes = new FunctionTypeCache();
   }
 
   public Message from(long checkpointId) {
-    return from(envelopeWithCheckpointId(checkpointId));
+    return from(envelopeWithCheckpointId(checkpointId).toByteArray());
   }
 
   public Message from(DataInputView input) throws IOException {
-    return from(deserializeEnvelope(input));
+    return from(readSerializedEnvelope(input));
   }
 
   public Message from(Address from, Address to, Object payload) {
@@ -58,8 +64,8 @@ public final class MessageFactory {
     copyEnvelope(source, target);
   }
 
-  private Message from(Envelope envelope) {
-    return new ProtobufMessage(envelope);
+  Message from(byte[] serializedEnvelope) {
+    return new ProtobufMessage(new SerializedEnvelope(serializedEnvelope), functionTypes);
   }
 
   Payload serializeUserMessagePayload(Object payloadObject) {
@@ -78,8 +84,24 @@ public final class MessageFactory {
     envelopeSerializer.serialize(envelope, target);
   }
 
-  private Envelope deserializeEnvelope(DataInputView source) throws IOException {
-    return envelopeSerializer.deserialize(source);
+  /**
+   * Writes an already serialized envelope, in the same format as {@link
+   * #serializeEnvelope(Envelope, DataOutputView)}.
+   */
+  void serializeEnvelope(byte[] serializedEnvelope, DataOutputView target) throws IOException {
+    target.writeInt(serializedEnvelope.length);
+    target.write(serializedEnvelope);
+  }
+
+  /**
+   * Reads the bytes of an envelope written by {@link #serializeEnvelope(Envelope, DataOutputView)},
+   * without parsing them.
+   */
+  private static byte[] readSerializedEnvelope(DataInputView source) throws IOException {
+    final int serializedSize = source.readInt();
+    final byte[] bytes = new byte[serializedSize];
+    source.readFully(bytes);
+    return bytes;
   }
 
   private void copyEnvelope(DataInputView source, DataOutputView target) throws IOException {
@@ -92,14 +114,17 @@ public final class MessageFactory {
     return Envelope.newBuilder().setCheckpoint(checkpoint).build();
   }
 
-  private static MessagePayloadSerializer forPayloadType(MessageFactoryType type) {
+  private static MessagePayloadSerializer forPayloadType(MessageFactoryKey key) {
+    MessageFactoryType type = key.getType();
     switch (type) {
       case WITH_KRYO_PAYLOADS:
-        return new MessagePayloadSerializerKryo();
+        return new MessagePayloadSerializerKryo(key.getRegisteredPayloadClassNames());
       case WITH_PROTOBUF_PAYLOADS:
-        return new MessagePayloadSerializerPb();
+        return new MessagePayloadSerializerPb(key.getRegisteredPayloadClassNames());
       case WITH_RAW_PAYLOADS:
         return new MessagePayloadSerializerRaw();
+      case WITH_RAW_BYTE_BUFFER_PAYLOADS:
+        return new MessagePayloadSerializerRaw(true);
       default:
         throw new IllegalArgumentException("unknown serialization method " + type);
     }
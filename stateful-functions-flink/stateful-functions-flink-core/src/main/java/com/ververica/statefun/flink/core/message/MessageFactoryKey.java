@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.message;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Everything that is required to create a {@link MessageFactory}: the {@link MessageFactoryType}
+ * and, for {@link MessageFactoryType#WITH_KRYO_PAYLOADS} and {@link
+ * MessageFactoryType#WITH_PROTOBUF_PAYLOADS}, the payload classes that are written as a short
+ * reference instead of by their name.
+ */
+public final class MessageFactoryKey implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final MessageFactoryType type;
+  private final List<String> registeredPayloadClassNames;
+
+  public static MessageFactoryKey forType(MessageFactoryType type) {
+    return new MessageFactoryKey(type, Collections.emptyList());
+  }
+
+  public static MessageFactoryKey forKryoPayloads(List<String> registeredPayloadClassNames) {
+    return new MessageFactoryKey(
+        MessageFactoryType.WITH_KRYO_PAYLOADS, registeredPayloadClassNames);
+  }
+
+  public static MessageFactoryKey forProtobufPayloads(List<String> registeredPayloadClassNames) {
+    return new MessageFactoryKey(
+        MessageFactoryType.WITH_PROTOBUF_PAYLOADS, registeredPayloadClassNames);
+  }
+
+  private MessageFactoryKey(MessageFactoryType type, List<String> registeredPayloadClassNames) {
+    this.type = Objects.requireNonNull(type);
+    this.registeredPayloadClassNames =
+        Collections.unmodifiableList(new ArrayList<>(registeredPayloadClassNames));
+  }
+
+  public MessageFactoryType getType() {
+    return type;
+  }
+
+  /**
+   * The names of the registered payload classes. For Kryo payloads the position of a class in this
+   * list determines its registration id, therefore classes may only be appended. For Protobuf
+   * payloads the reference of a class is derived from its name, and classes may be added anywhere.
+   */
+  public List<String> getRegisteredPayloadClassNames() {
+    return registeredPayloadClassNames;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    MessageFactoryKey that = (MessageFactoryKey) o;
+    return type == that.type
+        && registeredPayloadClassNames.equals(that.registeredPayloadClassNames);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(type, registeredPayloadClassNames);
+  }
+
+  @Override
+  public String toString() {
+    return "MessageFactoryKey{"
+        + "type="
+        + type
+        + ", registeredPayloadClassNames="
+        + registeredPayloadClassNames
+        + '}';
+  }
+}
@@ -16,42 +16,74 @@
 
 package com.ververica.statefun.flink.core.message;
 
+import com.esotericsoftware.kryo.Kryo;
 import com.google.protobuf.ByteString;
+import com.ververica.statefun.flink.common.SetContextClassLoader;
 import com.ververica.statefun.flink.core.generated.Payload;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import org.apache.flink.api.common.ExecutionConfig;
 import org.apache.flink.api.java.typeutils.runtime.kryo.KryoSerializer;
 import org.apache.flink.core.memory.DataInputDeserializer;
 import org.apache.flink.core.memory.DataOutputSerializer;
 
+/**
+ * A {@link MessagePayloadSerializer} that uses Kryo.
+ *
+ * <p>A Kryo instance is kept for every class loader that payloads are serialized from, or
+ * deserialized into. Each instance has the configured payload classes (that are visible to its
+ * class loader) registered with fixed ids, so that registered classes are written as a small id
+ * instead of their fully qualified name.
+ */
 public final class MessagePayloadSerializerKryo implements MessagePayloadSerializer {
 
-  private KryoSerializer<Object> kryo = new KryoSerializer<>(Object.class, new ExecutionConfig());
-  private DataInputDeserializer source = new DataInputDeserializer();
-  private DataOutputSerializer target = new DataOutputSerializer(4096);
+  /** Registration ids of payload classes start here, away from Kryo's and Flink's defaults. */
+  private static final int FIRST_PAYLOAD_REGISTRATION_ID = 1000;
+
+  private final List<String> registeredPayloadClassNames;
+  private final Map<ClassLoader, KryoSerializer<Object>> kryoPerClassLoader = new HashMap<>();
+  private final DataInputDeserializer source = new DataInputDeserializer();
+  private final DataOutputSerializer target = new DataOutputSerializer(4096);
+  private byte[] sourceBuffer = new byte[0];
+
+  public MessagePayloadSerializerKryo() {
+    this(Collections.emptyList());
+  }
+
+  MessagePayloadSerializerKryo(List<String> registeredPayloadClassNames) {
+    this.registeredPayloadClassNames = Objects.requireNonNull(registeredPayloadClassNames);
+  }
 
   @Override
   public Payload serialize(@Nonnull Object payloadObject) {
-    target.clear();
-    try {
-      kryo.serialize(payloadObject, target);
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
-    }
-    // TODO: avoid copying, consider adding a zero-copy ByteString.
+    serializeToTarget(payloadObject);
+    // the size of the serialized payload is only known once Kryo wrote it, and the target buffer is
+    // reused for the next payload, therefore the payload bytes are copied out of it once.
     ByteString serializedBytes = ByteString.copyFrom(target.getSharedBuffer(), 0, target.length());
-    return Payload.newBuilder()
-        .setClassName(payloadObject.getClass().getName())
-        .setPayloadBytes(serializedBytes)
-        .build();
+    // the class name is not set: Kryo writes its own class information as part of the serialized
+    // bytes, and it would otherwise often be larger than the message itself.
+    return Payload.newBuilder().setPayloadBytes(serializedBytes).build();
   }
 
   @Override
   public Object deserialize(@Nonnull ClassLoader targetClassLoader, @Nonnull Payload payload) {
-    source.setBuffer(payload.getPayloadBytes().asReadOnlyByteBuffer());
+    // a read-only ByteBuffer would be copied into a newly allocated array by the
+    // DataInputDeserializer, instead we copy into a reused array.
+    final ByteString bytes = payload.getPayloadBytes();
+    final int size = bytes.size();
+    if (sourceBuffer.length < size) {
+      sourceBuffer = new byte[size];
+    }
+    bytes.copyTo(sourceBuffer, 0);
+    source.setBuffer(sourceBuffer, 0, size);
     try {
-      return kryo.deserialize(source);
+      return kryoFor(targetClassLoader).deserialize(source);
     } catch (IOException e) {
       throw new IllegalStateException(e);
     }
@@ -59,26 +91,61 @@ public final class MessagePayloadSerializerKryo implements MessagePayloadSeriali
 
   @Override
   public Object copy(@Nonnull ClassLoader targetClassLoader, @Nonnull Object what) {
+    serializeToTarget(what);
+    source.setBuffer(target.getSharedBuffer(), 0, target.length());
+    try {
+      return kryoFor(targetClassLoader).deserialize(source);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void serializeToTarget(Object what) {
     target.clear();
     try {
-      kryo.serialize(what, target);
-      source.setBuffer(target.getSharedBuffer(), 0, target.length());
+      kryoFor(what.getClass().getClassLoader()).serialize(what, target);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private KryoSerializer<Object> kryoFor(@Nullable ClassLoader classLoader) {
+    if (classLoader == null) {
+      // classes loaded by the bootstrap class loader.
+      classLoader = MessagePayloadSerializerKryo.class.getClassLoader();
+    }
+    KryoSerializer<Object> kryo = kryoPerClassLoader.get(classLoader);
+    if (kryo == null) {
+      kryo = createKryo(classLoader);
+      kryoPerClassLoader.put(classLoader, kryo);
+    }
+    return kryo;
+  }
 
-      final ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
-      Thread.currentThread().setContextClassLoader(targetClassLoader);
-      try {
-        final ClassLoader originalKryoCl = kryo.getKryo().getClassLoader();
-        kryo.getKryo().setClassLoader(targetClassLoader);
-        try {
-          return kryo.deserialize(source);
-        } finally {
-          kryo.getKryo().setClassLoader(originalKryoCl);
+  private KryoSerializer<Object> createKryo(ClassLoader classLoader) {
+    KryoSerializer<Object> serializer = new KryoSerializer<>(Object.class, new ExecutionConfig());
+    // Flink's KryoSerializer initializes Kryo lazily with the context class loader.
+    try (SetContextClassLoader ignored = new SetContextClassLoader(classLoader)) {
+      Kryo kryo = serializer.getKryo();
+      kryo.setClassLoader(classLoader);
+      for (int i = 0; i < registeredPayloadClassNames.size(); i++) {
+        Class<?> payloadClass = loadClassOrNull(classLoader, registeredPayloadClassNames.get(i));
+        if (payloadClass != null) {
+          kryo.register(payloadClass, FIRST_PAYLOAD_REGISTRATION_ID + i);
         }
-      } finally {
-        Thread.currentThread().setContextClassLoader(currentClassLoader);
       }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    }
+    return serializer;
+  }
+
+  @Nullable
+  private static Class<?> loadClassOrNull(ClassLoader classLoader, String className) {
+    try {
+      return Class.forName(className, false, classLoader);
+    } catch (ClassNotFoundException e) {
+      // not visible to this class loader, payloads of that class can not be (de)serialized
+      // through this Kryo instance anyways.
+      return null;
     }
   }
 }
@@ -23,21 +23,55 @@ import com.google.protobuf.Parser;
 import com.ververica.statefun.flink.common.protobuf.ProtobufReflectionUtil;
 import com.ververica.statefun.flink.core.generated.Payload;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.NotThreadSafe;
 
+/**
+ * Serializes Protobuf payloads. The classes that were registered up front (the Protobuf types that
+ * modules bound as ingress or egress types) are written as a short reference instead of by their
+ * name, any other class falls back to its name.
+ *
+ * <p>A reference is derived from the class name alone, and not from its position in the registered
+ * class list, so registering more classes never changes the reference of a previously registered
+ * one. It is written to the {@code class_name} field of the payload, prefixed with a character that
+ * can not be part of a class name, so payloads that were written by name remain readable.
+ */
 @NotThreadSafe
 public class MessagePayloadSerializerPb implements MessagePayloadSerializer {
 
-  private final ObjectOpenHashMap<String, ObjectOpenHashMap<ClassLoader, Parser<? extends Message>>>
-      PARSER_CACHE = new ObjectOpenHashMap<>();
+  private static final char CLASS_REFERENCE_PREFIX = '@';
+
+  private final ObjectOpenHashMap<String, String> classNamesByReference = new ObjectOpenHashMap<>();
+  private final ObjectOpenHashMap<Class<?>, String> classReferences = new ObjectOpenHashMap<>();
+  private final ObjectOpenHashMap<ClassLoader, ObjectOpenHashMap<String, Parser<? extends Message>>>
+      parsersByClassLoader = new ObjectOpenHashMap<>();
+
+  // the parsers of the most recently used class loader, this is almost always the only one.
+  private ClassLoader lastClassLoader;
+  private ObjectOpenHashMap<String, Parser<? extends Message>> lastParsers;
+
+  public MessagePayloadSerializerPb() {
+    this(Collections.emptyList());
+  }
+
+  public MessagePayloadSerializerPb(List<String> registeredClassNames) {
+    for (String className : registeredClassNames) {
+      final String reference = classReference(className);
+      final String previous = classNamesByReference.put(reference, className);
+      if (previous != null && !previous.equals(className)) {
+        throw new IllegalArgumentException(
+            "The payload classes " + previous + " and " + className + " have the same reference.");
+      }
+    }
+  }
 
   @Override
   public Object deserialize(@Nonnull ClassLoader targetClassLoader, @Nonnull Payload payload) {
     try {
-      Parser<? extends Message> parser =
-          parserForClassName(targetClassLoader, payload.getClassName());
+      Parser<? extends Message> parser = parserFor(targetClassLoader, payload.getClassName());
       return parser.parseFrom(payload.getPayloadBytes());
     } catch (InvalidProtocolBufferException | ClassNotFoundException e) {
       throw new IllegalStateException(e);
@@ -47,10 +81,11 @@ public class MessagePayloadSerializerPb implements MessagePayloadSerializer {
   @Override
   public Payload serialize(@Nonnull Object what) {
     final Message message = (Message) what;
-    final String className = what.getClass().getName();
     final ByteString body = message.toByteString();
-
-    return Payload.newBuilder().setClassName(className).setPayloadBytes(body).build();
+    return Payload.newBuilder()
+        .setClassName(classNameOrReference(what.getClass()))
+        .setPayloadBytes(body)
+        .build();
   }
 
   @Override
@@ -63,30 +98,72 @@ public class MessagePayloadSerializerPb implements MessagePayloadSerializer {
     ByteString messageBytes = message.toByteString();
     try {
       Parser<? extends Message> parser =
-          parserForClassName(targetClassLoader, what.getClass().getName());
+          parserFor(targetClassLoader, classNameOrReference(what.getClass()));
       return parser.parseFrom(messageBytes);
     } catch (InvalidProtocolBufferException | ClassNotFoundException e) {
       throw new IllegalStateException(e);
     }
   }
 
-  private Parser<? extends Message> parserForClassName(
-      ClassLoader userCodeClassLoader, String messageClassName) throws ClassNotFoundException {
-
-    ObjectOpenHashMap<ClassLoader, Parser<? extends Message>> classLoaders =
-        PARSER_CACHE.get(messageClassName);
-    if (classLoaders == null) {
-      PARSER_CACHE.put(messageClassName, classLoaders = new ObjectOpenHashMap<>());
+  private String classNameOrReference(Class<?> messageClass) {
+    String nameOrReference = classReferences.get(messageClass);
+    if (nameOrReference == null) {
+      final String className = messageClass.getName();
+      final String reference = classReference(className);
+      nameOrReference =
+          className.equals(classNamesByReference.get(reference)) ? reference : className;
+      classReferences.put(messageClass, nameOrReference);
     }
-    Parser<? extends Message> parser = classLoaders.get(userCodeClassLoader);
+    return nameOrReference;
+  }
+
+  /** Returns a parser for a class that is either given by its name, or by its reference. */
+  private Parser<? extends Message> parserFor(
+      ClassLoader userCodeClassLoader, String classNameOrReference) throws ClassNotFoundException {
+    ObjectOpenHashMap<String, Parser<? extends Message>> parsers = parsersFor(userCodeClassLoader);
+    Parser<? extends Message> parser = parsers.get(classNameOrReference);
     if (parser == null) {
-      classLoaders.put(
-          userCodeClassLoader, parser = findParser(userCodeClassLoader, messageClassName));
+      parser = findParser(userCodeClassLoader, className(classNameOrReference));
+      parsers.put(classNameOrReference, parser);
     }
     return parser;
   }
 
-  private Parser<? extends Message> findParser(
+  private ObjectOpenHashMap<String, Parser<? extends Message>> parsersFor(
+      ClassLoader userCodeClassLoader) {
+    if (userCodeClassLoader == lastClassLoader) {
+      return lastParsers;
+    }
+    ObjectOpenHashMap<String, Parser<? extends Message>> parsers =
+        parsersByClassLoader.get(userCodeClassLoader);
+    if (parsers == null) {
+      parsersByClassLoader.put(userCodeClassLoader, parsers = new ObjectOpenHashMap<>());
+    }
+    lastClassLoader = userCodeClassLoader;
+    lastParsers = parsers;
+    return parsers;
+  }
+
+  private String className(String classNameOrReference) {
+    if (classNameOrReference.isEmpty()
+        || classNameOrReference.charAt(0) != CLASS_REFERENCE_PREFIX) {
+      return classNameOrReference;
+    }
+    String className = classNamesByReference.get(classNameOrReference);
+    if (className == null) {
+      throw new IllegalStateException(
+          "Unknown payload class reference "
+              + classNameOrReference
+              + ", was its type removed from the bound ingress and egress types?");
+    }
+    return className;
+  }
+
+  private static String classReference(String className) {
+    return CLASS_REFERENCE_PREFIX + Integer.toUnsignedString(className.hashCode(), 36);
+  }
+
+  private static Parser<? extends Message> findParser(
       ClassLoader userCodeClassLoader, String messageClassName) throws ClassNotFoundException {
     Class<? extends Message> messageType =
         Class.forName(messageClassName, true, userCodeClassLoader).asSubclass(Message.class);
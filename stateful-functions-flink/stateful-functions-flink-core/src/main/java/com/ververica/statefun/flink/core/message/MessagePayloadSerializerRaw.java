@@ -17,22 +17,49 @@
 package com.ververica.statefun.flink.core.message;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import com.ververica.statefun.flink.core.generated.Payload;
+import java.nio.ByteBuffer;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.NotThreadSafe;
 
+/**
+ * A {@link MessagePayloadSerializer} for raw byte payloads, either {@code byte[]} or {@link
+ * ByteBuffer}.
+ *
+ * <p>Payloads are wrapped rather than copied when serialized, therefore they must not be modified
+ * after they were sent. Payloads are deserialized either as a {@code byte[]} copy, or as a
+ * read-only {@link ByteBuffer} view of the received bytes, which involves no copying at all.
+ */
 @NotThreadSafe
 public class MessagePayloadSerializerRaw implements MessagePayloadSerializer {
+  private final boolean readOnlyByteBufferPayloads;
+
+  public MessagePayloadSerializerRaw() {
+    this(false);
+  }
+
+  MessagePayloadSerializerRaw(boolean readOnlyByteBufferPayloads) {
+    this.readOnlyByteBufferPayloads = readOnlyByteBufferPayloads;
+  }
 
   @Override
   public Object deserialize(@Nonnull ClassLoader targetClassLoader, @Nonnull Payload payload) {
-    return payload.getPayloadBytes().toByteArray();
+    ByteString bytes = payload.getPayloadBytes();
+    if (readOnlyByteBufferPayloads) {
+      return bytes.asReadOnlyByteBuffer();
+    }
+    return bytes.toByteArray();
   }
 
   @Override
   public Payload serialize(@Nonnull Object what) {
-    byte[] bytes = (byte[]) what;
-    ByteString bs = ByteString.copyFrom(bytes);
+    final ByteString bs;
+    if (what instanceof ByteBuffer) {
+      bs = UnsafeByteOperations.unsafeWrap((ByteBuffer) what);
+    } else {
+      bs = UnsafeByteOperations.unsafeWrap((byte[]) what);
+    }
     return Payload.newBuilder().setPayloadBytes(bs).build();
   }
 
@@ -25,10 +25,10 @@ public class MessageTypeInformation extends TypeInformation<Message> {
 
   private static final long serialVersionUID = 1L;
 
-  private final MessageFactoryType messageFactoryType;
+  private final MessageFactoryKey messageFactoryKey;
 
-  public MessageTypeInformation(MessageFactoryType messageFactoryType) {
-    this.messageFactoryType = Objects.requireNonNull(messageFactoryType);
+  public MessageTypeInformation(MessageFactoryKey messageFactoryKey) {
+    this.messageFactoryKey = Objects.requireNonNull(messageFactoryKey);
   }
 
   @Override
@@ -63,12 +63,12 @@ public class MessageTypeInformation extends TypeInformation<Message> {
 
   @Override
   public TypeSerializer<Message> createSerializer(ExecutionConfig executionConfig) {
-    return new MessageTypeSerializer(messageFactoryType);
+    return new MessageTypeSerializer(messageFactoryKey);
   }
 
   @Override
   public String toString() {
-    return "MessageTypeInformation(" + messageFactoryType + ")";
+    return "MessageTypeInformation(" + messageFactoryKey + ")";
   }
 
   @Override
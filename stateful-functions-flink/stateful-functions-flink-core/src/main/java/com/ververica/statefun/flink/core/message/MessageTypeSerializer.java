@@ -17,6 +17,8 @@
 package com.ververica.statefun.flink.core.message;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import org.apache.flink.api.common.typeutils.TypeSerializer;
 import org.apache.flink.api.common.typeutils.TypeSerializerSchemaCompatibility;
@@ -29,13 +31,13 @@ public final class MessageTypeSerializer extends TypeSerializer<Message> {
   private static final long serialVersionUID = 1L;
 
   // -- configuration --
-  private final MessageFactoryType messageFactoryType;
+  private final MessageFactoryKey messageFactoryKey;
 
   // -- runtime --
   private transient MessageFactory factory;
 
-  MessageTypeSerializer(MessageFactoryType messageFactoryType) {
-    this.messageFactoryType = Objects.requireNonNull(messageFactoryType);
+  MessageTypeSerializer(MessageFactoryKey messageFactoryKey) {
+    this.messageFactoryKey = Objects.requireNonNull(messageFactoryKey);
   }
 
   @Override
@@ -45,7 +47,7 @@ public final class MessageTypeSerializer extends TypeSerializer<Message> {
 
   @Override
   public TypeSerializer<Message> duplicate() {
-    return new MessageTypeSerializer(messageFactoryType);
+    return new MessageTypeSerializer(messageFactoryKey);
   }
 
   @Override
@@ -100,45 +102,69 @@ public final class MessageTypeSerializer extends TypeSerializer<Message> {
 
   @Override
   public TypeSerializerSnapshot<Message> snapshotConfiguration() {
-    return new Snapshot(messageFactoryType);
+    return new Snapshot(messageFactoryKey);
   }
 
   private MessageFactory factory() {
     if (factory == null) {
-      factory = MessageFactory.forType(messageFactoryType);
+      factory = MessageFactory.forKey(messageFactoryKey);
     }
     return factory;
   }
 
   public static final class Snapshot implements TypeSerializerSnapshot<Message> {
-    private MessageFactoryType messageFactoryType;
+    private MessageFactoryKey messageFactoryKey;
 
     @SuppressWarnings("unused")
     public Snapshot() {}
 
-    Snapshot(MessageFactoryType messageFactoryType) {
-      this.messageFactoryType = messageFactoryType;
+    Snapshot(MessageFactoryKey messageFactoryKey) {
+      this.messageFactoryKey = messageFactoryKey;
     }
 
     @Override
     public int getCurrentVersion() {
-      return 1;
+      return 2;
     }
 
     @Override
     public void writeSnapshot(DataOutputView dataOutputView) throws IOException {
-      dataOutputView.writeUTF(messageFactoryType.name());
+      dataOutputView.writeUTF(messageFactoryKey.getType().name());
+      List<String> classNames = messageFactoryKey.getRegisteredPayloadClassNames();
+      dataOutputView.writeInt(classNames.size());
+      for (String className : classNames) {
+        dataOutputView.writeUTF(className);
+      }
     }
 
     @Override
     public void readSnapshot(int version, DataInputView dataInputView, ClassLoader classLoader)
         throws IOException {
-      messageFactoryType = MessageFactoryType.valueOf(dataInputView.readUTF());
+      MessageFactoryType type = MessageFactoryType.valueOf(dataInputView.readUTF());
+      if (version < 2) {
+        messageFactoryKey = MessageFactoryKey.forType(type);
+        return;
+      }
+      final int size = dataInputView.readInt();
+      List<String> classNames = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        classNames.add(dataInputView.readUTF());
+      }
+      switch (type) {
+        case WITH_KRYO_PAYLOADS:
+          messageFactoryKey = MessageFactoryKey.forKryoPayloads(classNames);
+          break;
+        case WITH_PROTOBUF_PAYLOADS:
+          messageFactoryKey = MessageFactoryKey.forProtobufPayloads(classNames);
+          break;
+        default:
+          messageFactoryKey = MessageFactoryKey.forType(type);
+      }
     }
 
     @Override
     public TypeSerializer<Message> restoreSerializer() {
-      return new MessageTypeSerializer(messageFactoryType);
+      return new MessageTypeSerializer(messageFactoryKey);
     }
 
     @Override
@@ -147,8 +173,23 @@ public final class MessageTypeSerializer extends TypeSerializer<Message> {
       if (!(typeSerializer instanceof MessageTypeSerializer)) {
         return TypeSerializerSchemaCompatibility.incompatible();
       }
-      MessageTypeSerializer casted = (MessageTypeSerializer) typeSerializer;
-      if (casted.messageFactoryType == messageFactoryType) {
+      MessageFactoryKey newKey = ((MessageTypeSerializer) typeSerializer).messageFactoryKey;
+      if (newKey.getType() != messageFactoryKey.getType()) {
+        return TypeSerializerSchemaCompatibility.incompatible();
+      }
+      List<String> restoredClassNames = messageFactoryKey.getRegisteredPayloadClassNames();
+      List<String> newClassNames = newKey.getRegisteredPayloadClassNames();
+      if (newKey.getType() == MessageFactoryType.WITH_PROTOBUF_PAYLOADS) {
+        // Protobuf payload classes are referenced by a hash of their name, so previously written
+        // references remain valid as long as no registered class is removed.
+        return newClassNames.containsAll(restoredClassNames)
+            ? TypeSerializerSchemaCompatibility.compatibleAsIs()
+            : TypeSerializerSchemaCompatibility.incompatible();
+      }
+      // Kryo payload classes are registered by their position, so previously written registration
+      // ids remain valid as long as new classes are only appended.
+      if (newClassNames.size() >= restoredClassNames.size()
+          && newClassNames.subList(0, restoredClassNames.size()).equals(restoredClassNames)) {
         return TypeSerializerSchemaCompatibility.compatibleAsIs();
       }
       return TypeSerializerSchemaCompatibility.incompatible();
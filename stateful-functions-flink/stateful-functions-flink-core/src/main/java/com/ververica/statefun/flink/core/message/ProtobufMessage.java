@@ -16,7 +16,7 @@
 
 package com.ververica.statefun.flink.core.message;
 
-import com.ververica.statefun.flink.core.generated.Envelope;
+import com.ververica.statefun.flink.core.common.KeyBy;
 import com.ververica.statefun.flink.core.generated.EnvelopeAddress;
 import com.ververica.statefun.sdk.Address;
 import com.ververica.statefun.sdk.FunctionType;
@@ -25,16 +25,23 @@ import java.util.Objects;
 import javax.annotation.Nullable;
 import org.apache.flink.core.memory.DataOutputView;
 
+/**
+ * A {@link Message} that was read from its serialized form. The fields of the underlying envelope
+ * are decoded lazily, and the message is written back by copying the original bytes verbatim.
+ */
 final class ProtobufMessage implements Message {
 
-  private final Envelope envelope;
+  private final SerializedEnvelope envelope;
+  private final FunctionTypeCache functionTypes;
 
   private Address source;
   private Address target;
   private Object payload;
+  private int targetKeyHash = -1;
 
-  ProtobufMessage(Envelope envelope) {
+  ProtobufMessage(SerializedEnvelope envelope, FunctionTypeCache functionTypes) {
     this.envelope = Objects.requireNonNull(envelope);
+    this.functionTypes = Objects.requireNonNull(functionTypes);
   }
 
   @Override
@@ -43,7 +50,7 @@ final class ProtobufMessage implements Message {
     if (source != null) {
       return source;
     }
-    if ((source = protobufAddressToSdkAddress(envelope.getSource())) == null) {
+    if ((source = protobufAddressToSdkAddress(envelope.source())) == null) {
       return null;
     }
     return source;
@@ -54,16 +61,24 @@ final class ProtobufMessage implements Message {
     if (target != null) {
       return target;
     }
-    if ((target = protobufAddressToSdkAddress(envelope.getTarget())) == null) {
+    if ((target = protobufAddressToSdkAddress(envelope.target())) == null) {
       throw new IllegalStateException("A mandatory target address is missing");
     }
     return target;
   }
 
+  @Override
+  public int targetKeyHash() {
+    if (targetKeyHash < 0) {
+      targetKeyHash = KeyBy.keyHash(target());
+    }
+    return targetKeyHash;
+  }
+
   @Override
   public Object payload(MessageFactory factory, ClassLoader targetClassLoader) {
     if (payload == null) {
-      payload = factory.deserializeUserMessagePayload(targetClassLoader, envelope.getPayload());
+      payload = factory.deserializeUserMessagePayload(targetClassLoader, envelope.payload());
     } else if (!sameClassLoader(targetClassLoader, payload)) {
       payload = factory.copyUserMessagePayload(targetClassLoader, payload);
     }
@@ -76,14 +91,14 @@ final class ProtobufMessage implements Message {
   }
 
   @Override
-  public Message copy(MessageFactory unused) {
-    return new ProtobufMessage(envelope);
+  public Message copy(MessageFactory factory) {
+    return factory.from(envelope.bytes());
   }
 
   @Override
   public void writeTo(MessageFactory factory, DataOutputView target) throws IOException {
     Objects.requireNonNull(target);
-    factory.serializeEnvelope(envelope, target);
+    factory.serializeEnvelope(envelope.bytes(), target);
   }
 
   private static boolean sameClassLoader(ClassLoader targetClassLoader, Object payload) {
@@ -91,14 +106,14 @@ final class ProtobufMessage implements Message {
   }
 
   @Nullable
-  private static Address protobufAddressToSdkAddress(EnvelopeAddress address) {
+  private Address protobufAddressToSdkAddress(@Nullable EnvelopeAddress address) {
     if (address == null
         || (address.getId().isEmpty()
             && address.getNamespace().isEmpty()
             && address.getType().isEmpty())) {
       return null;
     }
-    FunctionType functionType = new FunctionType(address.getNamespace(), address.getType());
+    FunctionType functionType = functionTypes.get(address.getNamespace(), address.getType());
     return new Address(functionType, address.getId());
   }
 }
@@ -16,6 +16,7 @@
 
 package com.ververica.statefun.flink.core.message;
 
+import com.ververica.statefun.flink.core.common.KeyBy;
 import com.ververica.statefun.flink.core.generated.Envelope;
 import com.ververica.statefun.flink.core.generated.Envelope.Builder;
 import com.ververica.statefun.flink.core.generated.EnvelopeAddress;
@@ -35,6 +36,8 @@ final class SdkMessage implements Message {
 
   @Nullable private Envelope cachedEnvelope;
 
+  private int cachedTargetKeyHash = -1;
+
   SdkMessage(@Nullable Address source, Address target, Object payload) {
     this.source = source;
     this.target = Objects.requireNonNull(target);
@@ -52,6 +55,14 @@ final class SdkMessage implements Message {
     return target;
   }
 
+  @Override
+  public int targetKeyHash() {
+    if (cachedTargetKeyHash < 0) {
+      cachedTargetKeyHash = KeyBy.keyHash(target);
+    }
+    return cachedTargetKeyHash;
+  }
+
   @Override
   public Object payload(MessageFactory factory, ClassLoader targetClassLoader) {
     if (!sameClassLoader(targetClassLoader, payload)) {
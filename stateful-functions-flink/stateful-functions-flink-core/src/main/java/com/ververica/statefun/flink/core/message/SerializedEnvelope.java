@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.message;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import com.ververica.statefun.flink.core.generated.Envelope;
+import com.ververica.statefun.flink.core.generated.EnvelopeAddress;
+import com.ververica.statefun.flink.core.generated.Payload;
+import java.io.IOException;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * The serialized bytes of an {@link Envelope}, with on demand access to its individual fields.
+ *
+ * <p>The first access to any field scans the top level tags of the envelope once, and records where
+ * each of its (length delimited) fields resides, without decoding them. Each field is then decoded
+ * only when (and if) it is requested. Messages that are only routed, logged or forwarded therefore
+ * never pay for decoding their payload.
+ */
+final class SerializedEnvelope {
+  private final byte[] bytes;
+
+  private boolean indexed;
+  private boolean hasCheckpoint;
+  private int sourceOffset = -1;
+  private int sourceLength;
+  private int targetOffset = -1;
+  private int targetLength;
+  private int payloadOffset = -1;
+  private int payloadLength;
+
+  SerializedEnvelope(byte[] bytes) {
+    this.bytes = Objects.requireNonNull(bytes);
+  }
+
+  /** The serialized envelope, this array must not be modified. */
+  byte[] bytes() {
+    return bytes;
+  }
+
+  @Nullable
+  EnvelopeAddress source() {
+    index();
+    if (sourceOffset < 0) {
+      return null;
+    }
+    return parseAddress(sourceOffset, sourceLength);
+  }
+
+  @Nullable
+  EnvelopeAddress target() {
+    index();
+    if (targetOffset < 0) {
+      return null;
+    }
+    return parseAddress(targetOffset, targetLength);
+  }
+
+  /**
+   * Returns the payload of this envelope. The payload bytes are not copied, but rather alias the
+   * serialized envelope, which is never modified.
+   */
+  Payload payload() {
+    index();
+    if (payloadOffset < 0) {
+      return Payload.getDefaultInstance();
+    }
+    try {
+      CodedInputStream input = CodedInputStream.newInstance(bytes, payloadOffset, payloadLength);
+      input.enableAliasing(true);
+      return Payload.parser().parseFrom(input);
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException("Unable to parse the payload of an envelope", e);
+    }
+  }
+
+  boolean hasCheckpoint() {
+    index();
+    return hasCheckpoint;
+  }
+
+  private EnvelopeAddress parseAddress(int offset, int length) {
+    try {
+      return EnvelopeAddress.parser().parseFrom(bytes, offset, length);
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException("Unable to parse an address of an envelope", e);
+    }
+  }
+
+  private void index() {
+    if (indexed) {
+      return;
+    }
+    try {
+      CodedInputStream input = CodedInputStream.newInstance(bytes);
+      int tag;
+      while ((tag = input.readTag()) != 0) {
+        if (WireFormat.getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+          input.skipField(tag);
+          continue;
+        }
+        final int length = input.readRawVarint32();
+        final int offset = input.getTotalBytesRead();
+        switch (WireFormat.getTagFieldNumber(tag)) {
+          case Envelope.SOURCE_FIELD_NUMBER:
+            sourceOffset = offset;
+            sourceLength = length;
+            break;
+          case Envelope.TARGET_FIELD_NUMBER:
+            targetOffset = offset;
+            targetLength = length;
+            break;
+          case Envelope.PAYLOAD_FIELD_NUMBER:
+            payloadOffset = offset;
+            payloadLength = length;
+            hasCheckpoint = false;
+            break;
+          case Envelope.CHECKPOINT_FIELD_NUMBER:
+            payloadOffset = -1;
+            hasCheckpoint = true;
+            break;
+          default:
+            // unknown fields are preserved verbatim, but otherwise ignored.
+        }
+        input.skipRawBytes(length);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to parse an envelope", e);
+    }
+    indexed = true;
+  }
+}
@@ -26,12 +26,17 @@ final class FlinkFunctionTypeMetrics implements FunctionTypeMetrics {
   private final Counter outgoingLocalMessage;
   private final Counter outgoingRemoteMessage;
   private final Counter outgoingEgress;
+  private final Counter inflightAsyncOperations;
+  private final SlidingWindowHistogram asyncOperationDurations;
 
   FlinkFunctionTypeMetrics(MetricGroup typeGroup) {
     this.incoming = metered(typeGroup, "in");
     this.outgoingLocalMessage = metered(typeGroup, "out-local");
     this.outgoingRemoteMessage = metered(typeGroup, "out-remote");
     this.outgoingEgress = metered(typeGroup, "out-egress");
+    this.inflightAsyncOperations = typeGroup.counter("inflight-async-ops", new SimpleCounter());
+    this.asyncOperationDurations =
+        typeGroup.histogram("async-op-duration-nanos", new SlidingWindowHistogram());
   }
 
   @Override
@@ -54,6 +59,17 @@ final class FlinkFunctionTypeMetrics implements FunctionTypeMetrics {
     this.outgoingEgress.inc();
   }
 
+  @Override
+  public void asyncOperationRegistered() {
+    this.inflightAsyncOperations.inc();
+  }
+
+  @Override
+  public void asyncOperationCompleted(long durationNanos) {
+    this.inflightAsyncOperations.dec();
+    this.asyncOperationDurations.update(durationNanos);
+  }
+
   private static SimpleCounter metered(MetricGroup metrics, String name) {
     SimpleCounter counter = metrics.counter(name, new SimpleCounter());
     metrics.meter(name + "Rate", new MeterView(counter, 60));
@@ -25,4 +25,8 @@ public interface FunctionTypeMetrics {
   void outgoingRemoteMessage();
 
   void outgoingEgressMessage();
+
+  void asyncOperationRegistered();
+
+  void asyncOperationCompleted(long durationNanos);
 }
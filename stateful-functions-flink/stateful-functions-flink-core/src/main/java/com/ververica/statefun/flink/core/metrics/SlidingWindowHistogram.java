@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.metrics;
+
+import java.util.Arrays;
+import org.apache.flink.metrics.Histogram;
+import org.apache.flink.metrics.HistogramStatistics;
+import org.apache.flink.util.MathUtils;
+
+/**
+ * A {@link Histogram} over the most recent samples, meant to be updated from a hot path.
+ *
+ * <p>An update is a couple of plain field writes into a ring buffer, all the work (copying and
+ * sorting the samples) is done when the statistics are requested. This class is meant to be updated
+ * by a single thread, while the statistics might be read concurrently (by a metrics reporter), in
+ * which case they might be slightly stale.
+ */
+public final class SlidingWindowHistogram implements Histogram {
+  private static final int DEFAULT_WINDOW_SIZE = 1024;
+
+  private final long[] samples;
+  private final int mask;
+  private long count;
+
+  public SlidingWindowHistogram() {
+    this(DEFAULT_WINDOW_SIZE);
+  }
+
+  public SlidingWindowHistogram(int windowSize) {
+    final int size = MathUtils.roundUpToPowerOfTwo(Math.max(1, windowSize));
+    this.samples = new long[size];
+    this.mask = size - 1;
+  }
+
+  @Override
+  public void update(long value) {
+    final long count = this.count;
+    samples[(int) count & mask] = value;
+    this.count = count + 1;
+  }
+
+  @Override
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public HistogramStatistics getStatistics() {
+    final int size = (int) Math.min(count, samples.length);
+    final long[] values = Arrays.copyOf(samples, size);
+    Arrays.sort(values);
+    return new SortedValuesStatistics(values);
+  }
+
+  private static final class SortedValuesStatistics extends HistogramStatistics {
+    private final long[] values;
+
+    SortedValuesStatistics(long[] values) {
+      this.values = values;
+    }
+
+    @Override
+    public double getQuantile(double quantile) {
+      if (values.length == 0) {
+        return 0;
+      }
+      final int rank = (int) Math.ceil(quantile * values.length);
+      return values[Math.min(values.length - 1, Math.max(0, rank - 1))];
+    }
+
+    @Override
+    public long[] getValues() {
+      return Arrays.copyOf(values, values.length);
+    }
+
+    @Override
+    public int size() {
+      return values.length;
+    }
+
+    @Override
+    public double getMean() {
+      if (values.length == 0) {
+        return 0;
+      }
+      double sum = 0;
+      for (long value : values) {
+        sum += value;
+      }
+      return sum / values.length;
+    }
+
+    @Override
+    public double getStdDev() {
+      if (values.length < 2) {
+        return 0;
+      }
+      final double mean = getMean();
+      double sumOfSquares = 0;
+      for (long value : values) {
+        final double diff = value - mean;
+        sumOfSquares += diff * diff;
+      }
+      return Math.sqrt(sumOfSquares / (values.length - 1));
+    }
+
+    @Override
+    public long getMax() {
+      return values.length == 0 ? 0 : values[values.length - 1];
+    }
+
+    @Override
+    public long getMin() {
+      return values.length == 0 ? 0 : values[0];
+    }
+  }
+}
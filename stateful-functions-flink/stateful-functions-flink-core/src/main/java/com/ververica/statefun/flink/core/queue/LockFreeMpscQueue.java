@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.queue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.flink.annotation.Internal;
+
+/**
+ * A lock free, multi producers single consumer fifo queue, with the same API as {@link MpscQueue}.
+ *
+ * <p>Elements are stored in a linked list of fixed size chunks. A producer claims a slot with a
+ * single atomic increment of the producer index, and then stores its element into that slot. A new
+ * chunk is appended (with a single CAS, the losers simply use the winner's chunk) by whichever
+ * producer first claims a slot beyond the last chunk, therefore producers never wait for each
+ * other.
+ *
+ * <p>The consumer drains all the consecutive slots that were already stored, and stops at the first
+ * slot that is not (yet) visible. Before giving up on such a slot, the consumer publishes its index
+ * and checks the slot again, while a producer stores its element and only then reads the consumer
+ * index. Therefore, either the consumer observes the element, or the producer observes that the
+ * queue was empty prior to its addition (i.e. {@link #add(Object)} returns {@code 1}) and schedules
+ * another drain.
+ *
+ * @param <T> element type
+ */
+@Internal
+public final class LockFreeMpscQueue<T> {
+
+  private static final Deque<?> EMPTY = new ArrayDeque<>(0);
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicLongFieldUpdater<Cursor> INDEX =
+      AtomicLongFieldUpdater.newUpdater(Cursor.class, "index");
+
+  // -- configuration
+  private final int chunkSize;
+
+  // -- runtime
+  private final PaddedCursor<T> producer;
+  private final PaddedCursor<T> consumer;
+  private final ArrayDeque<T> drained;
+
+  public LockFreeMpscQueue(int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be positive, but was " + chunkSize);
+    }
+    this.chunkSize = chunkSize;
+    final Chunk<T> first = new Chunk<>(0, chunkSize);
+    this.producer = new PaddedCursor<>(first);
+    this.consumer = new PaddedCursor<>(first);
+    this.drained = new ArrayDeque<>(chunkSize);
+  }
+
+  /**
+   * Adds an element to this (unbound) queue.
+   *
+   * <p>This method can be called concurrently by any number of threads.
+   *
+   * @param element the element to add.
+   * @return the number of elements in the queue after the addition, as observed by this producer. A
+   *     value of {@code 1} means that the queue was empty prior to this addition, and a value of
+   *     {@code 0} means that the element was already drained.
+   */
+  @SuppressWarnings("unchecked")
+  public int add(T element) {
+    Objects.requireNonNull(element);
+    final long index = INDEX.getAndIncrement(producer);
+    final Chunk<T> chunk = chunkOf(index);
+    chunk.slots.set((int) (index - chunk.base), element);
+    // the volatile store above must precede the volatile read below, see the class comment.
+    final long size = index + 1 - consumer.index;
+    return (int) Math.max(0, Math.min(Integer.MAX_VALUE, size));
+  }
+
+  /**
+   * Drains the queue.
+   *
+   * <p>This method must only be called by a single (consumer) thread at a time. The returned deque
+   * is reused by the following calls to this method, therefore its elements should be consumed
+   * before draining again. Elements that are left in the returned deque are returned again by the
+   * next drain, before any newly added elements.
+   *
+   * @return a batch of elements drained from the queue.
+   */
+  public Deque<T> drainAll() {
+    final ArrayDeque<T> drained = this.drained;
+    final int chunkSize = this.chunkSize;
+    Chunk<T> chunk = consumer.chunk;
+    long index = consumer.index;
+    while (true) {
+      final int offset = (int) (index - chunk.base);
+      if (offset == chunkSize) {
+        final Chunk<T> next = chunk.next.get();
+        if (next != null) {
+          chunk = next;
+          consumer.chunk = next;
+          continue;
+        }
+      } else {
+        final T element = chunk.slots.get(offset);
+        if (element != null) {
+          chunk.slots.lazySet(offset, null);
+          drained.addLast(element);
+          index++;
+          continue;
+        }
+      }
+      // the next element is not visible yet. Publish our progress and check again, if it is still
+      // not visible then its producer would observe an empty queue, and would schedule a drain.
+      if (consumer.index == index) {
+        break;
+      }
+      consumer.index = index;
+    }
+    return drained.isEmpty() ? empty() : drained;
+  }
+
+  private Chunk<T> chunkOf(long index) {
+    final Chunk<T> current = producer.chunk;
+    Chunk<T> chunk = current;
+    if (index < chunk.base) {
+      // other producers have already moved past the chunk of this index. The consumer can not have,
+      // since that index was not yet stored.
+      chunk = consumer.chunk;
+    }
+    final int chunkSize = this.chunkSize;
+    while (index - chunk.base >= chunkSize) {
+      Chunk<T> next = chunk.next.get();
+      if (next == null) {
+        final Chunk<T> appended = new Chunk<>(chunk.base + chunkSize, chunkSize);
+        next = chunk.next.compareAndSet(null, appended) ? appended : chunk.next.get();
+      }
+      chunk = next;
+    }
+    if (chunk.base > current.base) {
+      // a racy, best effort advance, any chunk that is not ahead of the consumer would do.
+      producer.chunk = chunk;
+    }
+    return chunk;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Deque<T> empty() {
+    return (Deque<T>) EMPTY;
+  }
+
+  // --------------------------------------------------------------------------------------------------------
+  // Chunk
+  // --------------------------------------------------------------------------------------------------------
+
+  private static final class Chunk<T> {
+    final long base;
+    final AtomicReferenceArray<T> slots;
+    final AtomicReference<Chunk<T>> next = new AtomicReference<>();
+
+    Chunk(long base, int size) {
+      this.base = base;
+      this.slots = new AtomicReferenceArray<>(size);
+    }
+  }
+
+  // --------------------------------------------------------------------------------------------------------
+  // Cursor (padded to its own cache line, to avoid false sharing between the producers and the
+  // consumer)
+  // --------------------------------------------------------------------------------------------------------
+
+  @SuppressWarnings("unused")
+  private static class LhsPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+  }
+
+  private static class Cursor<T> extends LhsPadding {
+    protected volatile long index;
+    protected volatile Chunk<T> chunk;
+  }
+
+  @SuppressWarnings("unused")
+  private static final class PaddedCursor<T> extends Cursor<T> {
+    protected long p9, p10, p11, p12, p13, p14, p15;
+
+    PaddedCursor(Chunk<T> chunk) {
+      this.chunk = chunk;
+    }
+  }
+}
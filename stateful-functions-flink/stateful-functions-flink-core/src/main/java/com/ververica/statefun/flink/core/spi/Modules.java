@@ -20,10 +20,12 @@ import com.ververica.statefun.flink.common.SetContextClassLoader;
 import com.ververica.statefun.flink.core.StatefulFunctionsJobConstants;
 import com.ververica.statefun.flink.core.StatefulFunctionsUniverse;
 import com.ververica.statefun.flink.core.jsonmodule.JsonServiceLoader;
+import com.ververica.statefun.flink.core.message.MessageFactoryKey;
 import com.ververica.statefun.flink.core.message.MessageFactoryType;
 import com.ververica.statefun.flink.io.spi.FlinkIoModule;
 import com.ververica.statefun.sdk.spi.StatefulFunctionModule;
 import java.util.*;
+import org.apache.flink.configuration.ConfigOption;
 import org.apache.flink.configuration.Configuration;
 
 public final class Modules {
@@ -53,11 +55,8 @@ public final class Modules {
   }
 
   public StatefulFunctionsUniverse createStatefulFunctionsUniverse(Configuration configuration) {
-    MessageFactoryType factoryType =
-        configuration.getEnum(
-            MessageFactoryType.class, StatefulFunctionsJobConstants.USER_MESSAGE_SERIALIZER);
-
-    StatefulFunctionsUniverse universe = new StatefulFunctionsUniverse(factoryType);
+    StatefulFunctionsUniverse universe =
+        new StatefulFunctionsUniverse(messageFactoryKey(configuration));
 
     final Map<String, String> globalConfiguration =
         Collections.unmodifiableMap(configuration.toMap());
@@ -75,4 +74,29 @@ public final class Modules {
 
     return universe;
   }
+
+  private static MessageFactoryKey messageFactoryKey(Configuration configuration) {
+    MessageFactoryType factoryType =
+        configuration.getEnum(
+            MessageFactoryType.class, StatefulFunctionsJobConstants.USER_MESSAGE_SERIALIZER);
+    switch (factoryType) {
+      case WITH_KRYO_PAYLOADS:
+        return MessageFactoryKey.forKryoPayloads(
+            registeredClassNames(
+                configuration, StatefulFunctionsJobConstants.KRYO_REGISTERED_PAYLOAD_CLASSES));
+      default:
+        return MessageFactoryKey.forType(factoryType);
+    }
+  }
+
+  private static List<String> registeredClassNames(
+      Configuration configuration, ConfigOption<String> option) {
+    List<String> registeredClassNames = new ArrayList<>();
+    for (String className : configuration.getString(option).split(",")) {
+      if (!className.trim().isEmpty()) {
+        registeredClassNames.add(className.trim());
+      }
+    }
+    return registeredClassNames;
+  }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.state;
+
+import com.ververica.statefun.flink.core.di.Inject;
+import com.ververica.statefun.flink.core.di.Label;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.FunctionType;
+import com.ververica.statefun.sdk.state.Accessor;
+import com.ververica.statefun.sdk.state.PersistedValue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A {@link State} that keeps the deserialized values of the address that is currently being applied
+ * in memory.
+ *
+ * <p>Values are read from the underlying state once per address, and modified values are written
+ * back once, either when a different address becomes current or when {@link #flush()} is called.
+ * Since the key of the underlying keyed state backend might be changed by others in the meantime
+ * (i.e. timers or incoming records), the key is always re-established before writing back.
+ */
+public final class CachingState implements State {
+  private final State delegate;
+  private final List<CachingAccessor<?>> touched = new ArrayList<>();
+
+  private Address currentAddress;
+
+  @Inject
+  public CachingState(@Label("backing-state") State delegate) {
+    this.delegate = Objects.requireNonNull(delegate);
+  }
+
+  @Override
+  public <T> Accessor<T> createFlinkStateAccessor(
+      FunctionType functionType, PersistedValue<T> persistedValue) {
+    Accessor<T> accessor = delegate.createFlinkStateAccessor(functionType, persistedValue);
+    return new CachingAccessor<>(this, accessor);
+  }
+
+  @Override
+  public void setCurrentKey(Address address) {
+    if (!address.equals(currentAddress)) {
+      writeBack();
+      invalidate();
+      currentAddress = address;
+    }
+    delegate.setCurrentKey(address);
+  }
+
+  @Override
+  public void flush() {
+    writeBack();
+  }
+
+  private void writeBack() {
+    boolean keySet = false;
+    for (CachingAccessor<?> accessor : touched) {
+      if (!accessor.dirty) {
+        continue;
+      }
+      if (!keySet) {
+        delegate.setCurrentKey(currentAddress);
+        keySet = true;
+      }
+      accessor.writeBack();
+    }
+  }
+
+  private void invalidate() {
+    for (CachingAccessor<?> accessor : touched) {
+      accessor.invalidate();
+    }
+    touched.clear();
+  }
+
+  private static final class CachingAccessor<T> implements Accessor<T> {
+    private final CachingState owner;
+    private final Accessor<T> delegate;
+
+    private boolean loaded;
+    private boolean dirty;
+    private T value;
+
+    CachingAccessor(CachingState owner, Accessor<T> delegate) {
+      this.owner = Objects.requireNonNull(owner);
+      this.delegate = Objects.requireNonNull(delegate);
+    }
+
+    @Override
+    public void set(T value) {
+      touch();
+      this.value = value;
+      this.dirty = true;
+    }
+
+    @Override
+    public T get() {
+      if (!loaded) {
+        touch();
+        value = delegate.get();
+      }
+      return value;
+    }
+
+    @Override
+    public void clear() {
+      set(null);
+    }
+
+    private void touch() {
+      if (!loaded) {
+        loaded = true;
+        owner.touched.add(this);
+      }
+    }
+
+    void writeBack() {
+      if (value == null) {
+        delegate.clear();
+      } else {
+        delegate.set(value);
+      }
+      dirty = false;
+    }
+
+    void invalidate() {
+      loaded = false;
+      dirty = false;
+      value = null;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.state;
+
+import com.ververica.statefun.sdk.state.Accessor;
+import com.ververica.statefun.sdk.state.ApiExtension;
+import com.ververica.statefun.sdk.state.PersistedValue;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The persisted values of a function instance, bound to values that are held in memory instead of
+ * the state backend, so that this instance can be invoked on a thread other than the operator
+ * thread.
+ *
+ * <p>Each value mirrors the persisted value with the same name of a (source) instance of the same
+ * function type, that is bound to the state backend. Before an invocation, the values are loaded
+ * from the source instance, and afterwards the modified values are written back to it. Both happen
+ * on the operator thread, while the state key of the invoked address is set.
+ */
+public final class DetachedValues {
+  private final PersistedValue<Object>[] sources;
+  private final DetachedAccessor[] accessors;
+
+  private DetachedValues(PersistedValue<Object>[] sources, DetachedAccessor[] accessors) {
+    this.sources = sources;
+    this.accessors = accessors;
+  }
+
+  /**
+   * Binds the persisted values of {@code instance} to in memory values, that mirror the persisted
+   * values of {@code source}.
+   */
+  public static DetachedValues bind(Object instance, BoundState source) {
+    Objects.requireNonNull(source);
+    List<PersistedValue<Object>> values = PersistedValues.findReflectively(instance);
+
+    @SuppressWarnings("unchecked")
+    PersistedValue<Object>[] sources = new PersistedValue[values.size()];
+    DetachedAccessor[] accessors = new DetachedAccessor[values.size()];
+    for (int i = 0; i < values.size(); i++) {
+      PersistedValue<Object> value = values.get(i);
+      sources[i] = sourceNamed(source, value.name());
+      accessors[i] = new DetachedAccessor();
+      ApiExtension.setPersistedValueAccessor(value, accessors[i]);
+    }
+    return new DetachedValues(sources, accessors);
+  }
+
+  /** Loads the values of the current key from the source instance. */
+  public void load() {
+    for (int i = 0; i < accessors.length; i++) {
+      accessors[i].load(sources[i].get());
+    }
+  }
+
+  /**
+   * Writes the modified values back to the source instance, under the current key, and releases the
+   * references to the loaded values.
+   */
+  public void writeBack() {
+    for (int i = 0; i < accessors.length; i++) {
+      final DetachedAccessor accessor = accessors[i];
+      if (accessor.dirty) {
+        if (accessor.value == null) {
+          sources[i].clear();
+        } else {
+          sources[i].set(accessor.value);
+        }
+      }
+      accessor.load(null);
+    }
+  }
+
+  private static PersistedValue<Object> sourceNamed(BoundState source, String name) {
+    for (PersistedValue<Object> value : source.persistedValues()) {
+      if (value.name().equals(name)) {
+        return value;
+      }
+    }
+    throw new IllegalStateException("Unknown persisted value " + name);
+  }
+
+  private static final class DetachedAccessor implements Accessor<Object> {
+    private Object value;
+    private boolean dirty;
+
+    void load(Object value) {
+      this.value = value;
+      this.dirty = false;
+    }
+
+    @Override
+    public void set(Object value) {
+      this.value = value;
+      this.dirty = true;
+    }
+
+    @Override
+    public Object get() {
+      return value;
+    }
+
+    @Override
+    public void clear() {
+      set(null);
+    }
+  }
+}
@@ -27,4 +27,10 @@ public interface State {
       FunctionType functionType, PersistedValue<T> persistedValue);
 
   void setCurrentKey(Address address);
+
+  /**
+   * Writes back any modifications that are not yet visible to the underlying state backend. This is
+   * called right before the keyed state is snapshotted.
+   */
+  default void flush() {}
 }
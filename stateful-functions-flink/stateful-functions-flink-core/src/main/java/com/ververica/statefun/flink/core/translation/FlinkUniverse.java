@@ -22,7 +22,7 @@ import com.ververica.statefun.flink.core.common.KeyBy;
 import com.ververica.statefun.flink.core.common.SerializableFunction;
 import com.ververica.statefun.flink.core.common.SerializablePredicate;
 import com.ververica.statefun.flink.core.feedback.FeedbackKey;
-import com.ververica.statefun.flink.core.feedback.FeedbackSinkOperator;
+import com.ververica.statefun.flink.core.feedback.FeedbackSinkOperatorFactory;
 import com.ververica.statefun.flink.core.feedback.FeedbackUnionOperatorFactory;
 import com.ververica.statefun.flink.core.functions.FunctionGroupDispatchFactory;
 import com.ververica.statefun.flink.core.message.Message;
@@ -94,8 +94,8 @@ public final class FlinkUniverse {
 
     LongFunction<Message> toMessage = new CheckpointToMessage(universe.messageFactoryType());
 
-    FeedbackSinkOperator<Message> sinkOperator =
-        new FeedbackSinkOperator<>(FEEDBACK_KEY, toMessage);
+    FeedbackSinkOperatorFactory<Message> sinkOperator =
+        new FeedbackSinkOperatorFactory<>(FEEDBACK_KEY, toMessage);
 
     return functionOut
         .keyBy(new MessageKeySelector())
@@ -55,7 +55,7 @@ public final class IngressRouterFlatMap<T> extends RichFlatMapFunction<T, Messag
             Thread.currentThread().getContextClassLoader(), configuration);
 
     this.downstream =
-        new DownstreamCollector<>(MessageFactory.forType(universe.messageFactoryType()));
+        new DownstreamCollector<>(MessageFactory.forKey(universe.messageFactoryKey()));
     this.routers = loadRoutersAttachedToIngress(id, universe.routers());
   }
 
@@ -18,10 +18,11 @@ package com.ververica.statefun.flink.core.types;
 
 import com.google.protobuf.Message;
 import com.ververica.statefun.flink.common.protobuf.ProtobufTypeInformation;
-import com.ververica.statefun.flink.core.message.MessageFactoryType;
+import com.ververica.statefun.flink.core.message.MessageFactoryKey;
 import com.ververica.statefun.flink.core.message.MessageTypeInformation;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
@@ -36,11 +37,11 @@ public final class StaticallyRegisteredTypes {
 
   private final Map<Class<?>, TypeInformation<?>> registeredTypes = new HashMap<>();
 
-  public StaticallyRegisteredTypes(MessageFactoryType messageFactoryType) {
-    this.messageFactoryType = messageFactoryType;
+  public StaticallyRegisteredTypes(Supplier<MessageFactoryKey> messageFactoryKey) {
+    this.messageFactoryKey = messageFactoryKey;
   }
 
-  private final MessageFactoryType messageFactoryType;
+  private final Supplier<MessageFactoryKey> messageFactoryKey;
 
   public <T> TypeInformation<T> registerType(Class<T> type) {
     return (TypeInformation<T>) registeredTypes.computeIfAbsent(type, this::typeInformation);
@@ -61,7 +62,7 @@ public final class StaticallyRegisteredTypes {
       return new ProtobufTypeInformation<>(message);
     }
     if (com.ververica.statefun.flink.core.message.Message.class.isAssignableFrom(valueType)) {
-      return new MessageTypeInformation(messageFactoryType);
+      return new MessageTypeInformation(messageFactoryKey.get());
     }
     // TODO: we may want to restrict the allowed typeInfo here to theses that respect shcema
     // evaluation.
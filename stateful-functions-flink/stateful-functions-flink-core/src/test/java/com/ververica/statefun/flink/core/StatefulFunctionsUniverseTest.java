@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ververica.statefun.flink.core;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+import com.google.protobuf.Message;
+import com.ververica.statefun.flink.core.generated.Checkpoint;
+import com.ververica.statefun.flink.core.generated.EnvelopeAddress;
+import com.ververica.statefun.flink.core.message.MessageFactoryType;
+import com.ververica.statefun.sdk.EgressType;
+import com.ververica.statefun.sdk.IngressType;
+import com.ververica.statefun.sdk.io.EgressIdentifier;
+import com.ververica.statefun.sdk.io.EgressSpec;
+import com.ververica.statefun.sdk.io.IngressIdentifier;
+import com.ververica.statefun.sdk.io.IngressSpec;
+import org.junit.Test;
+
+public class StatefulFunctionsUniverseTest {
+
+  @Test
+  public void boundProtobufTypesAreRegisteredPayloadClasses() {
+    StatefulFunctionsUniverse universe =
+        new StatefulFunctionsUniverse(MessageFactoryType.WITH_PROTOBUF_PAYLOADS);
+
+    universe.bindEgress(egress(EnvelopeAddress.class));
+    universe.bindIngress(ingress(Checkpoint.class));
+    universe.bindIngressRouter(
+        new IngressIdentifier<>(Message.class, "test", "any"), (message, downstream) -> {});
+
+    assertThat(
+        universe.messageFactoryKey().getRegisteredPayloadClassNames(),
+        contains(Checkpoint.class.getName(), EnvelopeAddress.class.getName()));
+  }
+
+  @Test
+  public void otherPayloadTypesDoNotRegisterProtobufTypes() {
+    StatefulFunctionsUniverse universe =
+        new StatefulFunctionsUniverse(MessageFactoryType.WITH_KRYO_PAYLOADS);
+
+    universe.bindIngress(ingress(Checkpoint.class));
+
+    assertThat(universe.messageFactoryKey().getRegisteredPayloadClassNames(), empty());
+  }
+
+  private static <T> IngressSpec<T> ingress(Class<T> type) {
+    IngressIdentifier<T> id = new IngressIdentifier<>(type, "test", type.getSimpleName());
+    return new IngressSpec<T>() {
+      @Override
+      public IngressIdentifier<T> id() {
+        return id;
+      }
+
+      @Override
+      public IngressType type() {
+        return new IngressType("test", "ingress");
+      }
+    };
+  }
+
+  private static <T> EgressSpec<T> egress(Class<T> type) {
+    EgressIdentifier<T> id = new EgressIdentifier<>("test", type.getSimpleName(), type);
+    return new EgressSpec<T>() {
+      @Override
+      public EgressIdentifier<T> id() {
+        return id;
+      }
+
+      @Override
+      public EgressType type() {
+        return new EgressType("test", "egress");
+      }
+    };
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.feedback;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import com.ververica.statefun.flink.core.logger.SpillingFeedbackBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.flink.api.common.typeutils.base.IntSerializer;
+import org.apache.flink.runtime.io.disk.iomanager.IOManagerAsync;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BoundedFeedbackProducerTest {
+  private static final SubtaskFeedbackKey<Integer> KEY =
+      new FeedbackKey<Integer>("bounded", 1).withSubTaskIndex(0);
+
+  private static IOManagerAsync IO_MANAGER;
+
+  @BeforeClass
+  public static void beforeClass() {
+    IO_MANAGER = new IOManagerAsync();
+  }
+
+  @AfterClass
+  public static void afterClass() throws Exception {
+    if (IO_MANAGER != null) {
+      IO_MANAGER.close();
+      IO_MANAGER = null;
+    }
+  }
+
+  private final ArrayDeque<Runnable> consumerThread = new ArrayDeque<>();
+  private final ArrayDeque<Runnable> producerThread = new ArrayDeque<>();
+  private final List<Integer> consumed = new ArrayList<>();
+
+  @Test
+  public void elementsBeyondTheCapacityOverflow() {
+    FeedbackChannel<Integer> channel = channel();
+    BoundedFeedbackProducer<Integer> producer = producer(channel, 2);
+
+    for (int i = 0; i < 10; i++) {
+      producer.put(i);
+    }
+
+    assertThat(producer.overflowSize(), is(8L));
+  }
+
+  @Test
+  public void overflowIsDrainedInOrderAsTheConsumerCatchesUp() {
+    FeedbackChannel<Integer> channel = channel();
+    BoundedFeedbackProducer<Integer> producer = producer(channel, 3);
+
+    for (int i = 0; i < 10; i++) {
+      producer.put(i);
+    }
+    runUntilIdle();
+
+    assertThat(consumed, contains(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+    assertThat(producer.overflowSize(), is(0L));
+  }
+
+  @Test
+  public void newElementsDoNotOvertakeTheOverflow() {
+    FeedbackChannel<Integer> channel = channel();
+    BoundedFeedbackProducer<Integer> producer = producer(channel, 1);
+
+    producer.put(0);
+    producer.put(1);
+    // consume the first element only, without letting the producer react.
+    consumerThread.poll().run();
+    producer.put(2);
+    runUntilIdle();
+
+    assertThat(consumed, contains(0, 1, 2));
+  }
+
+  private FeedbackChannel<Integer> channel() {
+    FeedbackChannel<Integer> channel =
+        new FeedbackChannel<>(KEY, new LockFreeBatchFeedbackQueue<>());
+    channel.registerConsumer(consumed::add, new Object(), consumerThread::add);
+    return channel;
+  }
+
+  private BoundedFeedbackProducer<Integer> producer(
+      FeedbackChannel<Integer> channel, int capacity) {
+    SpillingFeedbackBuffer<Integer> overflow =
+        new SpillingFeedbackBuffer<>(IntSerializer.INSTANCE, IO_MANAGER, 1024 * 1024);
+    return new BoundedFeedbackProducer<>(channel, capacity, overflow, producerThread::add);
+  }
+
+  private void runUntilIdle() {
+    while (!consumerThread.isEmpty() || !producerThread.isEmpty()) {
+      Runnable task = consumerThread.poll();
+      if (task == null) {
+        task = producerThread.poll();
+      }
+      task.run();
+    }
+  }
+}
@@ -18,7 +18,9 @@ package com.ververica.statefun.flink.core.feedback;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -60,6 +62,51 @@ public class FeedbackChannelTest {
     assertThat(results, contains("hello", "world"));
   }
 
+  @Test
+  public void drainsAreMeasured() {
+    FeedbackChannel<String> channel =
+        new FeedbackChannel<>(KEY, new LockFreeBatchFeedbackQueue<>());
+    channel.put("hello");
+    channel.put("world");
+
+    assertThat(channel.size(), is(2L));
+
+    channel.registerConsumer(unused -> {}, new Object(), Runnable::run);
+
+    assertThat(channel.size(), is(0L));
+    assertThat(channel.drainBatchSizes().getCount(), is(1L));
+    assertThat(channel.drainBatchSizes().getStatistics().getMax(), is(2L));
+    assertThat(channel.drainDurations().getCount(), is(1L));
+    channel.close();
+  }
+
+  @Test
+  public void boundedDrainsYieldToTheExecutor() {
+    FeedbackChannel<String> channel =
+        new FeedbackChannel<>(KEY, new LockFreeBatchFeedbackQueue<>());
+    channel.put("a");
+    channel.put("b");
+    channel.put("c");
+
+    ArrayDeque<Runnable> mailbox = new ArrayDeque<>();
+    ArrayList<String> results = new ArrayList<>();
+    channel.registerConsumer(results::add, new Object(), mailbox::add, 2);
+
+    mailbox.poll().run();
+    assertThat(results, contains("a", "b"));
+    assertThat(mailbox.size(), is(1));
+
+    channel.put("d");
+    Runnable mail;
+    while ((mail = mailbox.poll()) != null) {
+      mail.run();
+    }
+
+    assertThat(results, contains("a", "b", "c", "d"));
+    assertThat(channel.size(), is(0L));
+    channel.close();
+  }
+
   @Ignore("benchmarks are not run as part of a regular test suite.")
   @Test
   public void launchBenchmark() throws Exception {
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.feedback;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import com.ververica.statefun.flink.core.logger.SpillingFeedbackBuffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.flink.api.common.typeutils.base.IntSerializer;
+import org.apache.flink.runtime.io.disk.iomanager.IOManagerAsync;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class IncrementalFeedbackReplayTest {
+  private static IOManagerAsync IO_MANAGER;
+
+  @BeforeClass
+  public static void beforeClass() {
+    IO_MANAGER = new IOManagerAsync();
+  }
+
+  @AfterClass
+  public static void afterClass() throws Exception {
+    if (IO_MANAGER != null) {
+      IO_MANAGER.close();
+      IO_MANAGER = null;
+    }
+  }
+
+  private final ArrayDeque<Runnable> mailbox = new ArrayDeque<>();
+  private final List<Integer> replayed = new ArrayList<>();
+
+  @Test
+  public void nothingIsReplayedBeforeStart() {
+    IncrementalFeedbackReplay<Integer> replay = replay(2);
+
+    replay.processFeedback(1);
+
+    assertThat(mailbox.isEmpty(), is(true));
+    assertThat(replay.remainingCount(), is(1L));
+  }
+
+  @Test
+  public void eachBatchIsASeparateMail() {
+    IncrementalFeedbackReplay<Integer> replay = replay(2);
+    for (int i = 0; i < 5; i++) {
+      replay.processFeedback(i);
+    }
+    replay.start();
+
+    mailbox.poll().run();
+    assertThat(replayed, contains(0, 1));
+    assertThat(replay.remainingCount(), is(3L));
+
+    // new input can be processed here, before the next batch is replayed.
+    runUntilIdle();
+
+    assertThat(replayed, contains(0, 1, 2, 3, 4));
+    assertThat(replay.replayedCount(), is(5L));
+    assertThat(replay.remainingCount(), is(0L));
+  }
+
+  @Test
+  public void closingStopsTheReplay() {
+    IncrementalFeedbackReplay<Integer> replay = replay(1);
+    replay.processFeedback(1);
+    replay.processFeedback(2);
+    replay.start();
+
+    replay.close();
+    runUntilIdle();
+
+    assertThat(replayed, is(empty()));
+  }
+
+  @Test
+  public void remainingElementsAreLoggedToTheirKeyGroups() {
+    IncrementalFeedbackReplay<Integer> replay = replay(2);
+    replay.startKeyGroup(1);
+    replay.processFeedback(10);
+    replay.processFeedback(11);
+    replay.startKeyGroup(2);
+    replay.startKeyGroup(3);
+    replay.processFeedback(30);
+    replay.processFeedback(31);
+    replay.processFeedback(32);
+    replay.start();
+
+    mailbox.poll().run();
+    List<String> firstCheckpoint = new ArrayList<>();
+    replay.logRemaining(logTo(firstCheckpoint));
+
+    mailbox.poll().run();
+    List<String> secondCheckpoint = new ArrayList<>();
+    replay.logRemaining(logTo(secondCheckpoint));
+
+    runUntilIdle();
+    List<String> thirdCheckpoint = new ArrayList<>();
+    replay.logRemaining(logTo(thirdCheckpoint));
+
+    assertThat(firstCheckpoint, contains("3:30", "3:31", "3:32"));
+    assertThat(secondCheckpoint, contains("3:32"));
+    assertThat(thirdCheckpoint, is(empty()));
+    // logging the remaining elements does not affect the replay.
+    assertThat(replayed, contains(10, 11, 30, 31, 32));
+  }
+
+  private IncrementalFeedbackReplay<Integer> replay(int batchSize) {
+    IncrementalFeedbackReplay<Integer> replay =
+        new IncrementalFeedbackReplay<>(
+            new SpillingFeedbackBuffer<>(IntSerializer.INSTANCE, IO_MANAGER, 1024 * 1024),
+            batchSize,
+            mailbox::add,
+            replayed::add);
+    replay.startKeyGroup(0);
+    return replay;
+  }
+
+  private static IncrementalFeedbackReplay.SerializedElementLogger logTo(List<String> log) {
+    return (keyGroupId, bytes, length) ->
+        log.add(keyGroupId + ":" + ByteBuffer.wrap(bytes, 0, length).getInt());
+  }
+
+  private void runUntilIdle() {
+    Runnable mail;
+    while ((mail = mailbox.poll()) != null) {
+      mail.run();
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import static com.ververica.statefun.flink.core.TestUtils.DUMMY_PAYLOAD;
+import static com.ververica.statefun.flink.core.TestUtils.ENVELOPE_FACTORY;
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_1_ADDR;
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_2_ADDR;
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_TYPE;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.ververica.statefun.flink.core.di.Lazy;
+import com.ververica.statefun.flink.core.functions.LocalStatefulFunctionGroupTest.FakeContext;
+import com.ververica.statefun.flink.core.functions.LocalStatefulFunctionGroupTest.FakeFunction;
+import com.ververica.statefun.flink.core.functions.LocalStatefulFunctionGroupTest.FakeFunctionRepository;
+import com.ververica.statefun.flink.core.functions.ReductionsPreemptionTest.NoopPendingAsyncOperations;
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.flink.core.metrics.FunctionTypeMetrics;
+import com.ververica.statefun.flink.core.state.State;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.FunctionType;
+import com.ververica.statefun.sdk.state.Accessor;
+import com.ververica.statefun.sdk.state.PersistedValue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncOperationLimitsTest {
+  private static final Address FUNCTION_3_ADDR = new Address(FUNCTION_TYPE, "a-3");
+
+  // test collaborators
+  private final FakeFunction function = new FakeFunction();
+  private final CountingMetrics metrics = new CountingMetrics();
+  private final KeyTrackingState state = new KeyTrackingState();
+  private final FakeDelayedMessagesBuffer delayedMessagesBuffer =
+      new FakeDelayedMessagesBuffer(state);
+  private final AsyncOperationLimits limits =
+      new AsyncOperationLimits(
+          Collections.singletonMap(FUNCTION_TYPE, 1),
+          new Lazy<>(new FakeFunctionRepository(function)));
+
+  // object under test
+  private final LocalFunctionGroup functionGroup =
+      new LocalFunctionGroup(
+          new FakeFunctionRepository(function),
+          new FakeContext(),
+          1,
+          ParallelExecution.disabled(),
+          limits);
+
+  @Before
+  public void setUp() {
+    function.metrics = metrics;
+  }
+
+  @Test
+  public void activationsAreDeferredOnceTheLimitIsReached() {
+    function.onReceive = message -> limits.registered(message.target());
+    enqueue(FUNCTION_1_ADDR);
+    enqueue(FUNCTION_2_ADDR);
+
+    assertThat(functionGroup.processNextEnvelope(), is(true));
+    assertThat(functionGroup.processNextEnvelope(), is(true));
+
+    assertThat(function.receivedMessages.size(), is(1));
+    assertThat(functionGroup.hasPendingEnvelopes(), is(false));
+    assertThat(limits.hasDeferred(), is(true));
+  }
+
+  @Test
+  public void completionsReadmitDeferredActivations() {
+    function.onReceive = message -> limits.registered(message.target());
+    enqueue(FUNCTION_1_ADDR);
+    enqueue(FUNCTION_2_ADDR);
+    functionGroup.processNextEnvelope();
+    functionGroup.processNextEnvelope();
+
+    limits.completed(FUNCTION_1_ADDR, 10);
+
+    assertThat(functionGroup.hasPendingEnvelopes(), is(true));
+    assertThat(functionGroup.processNextEnvelope(), is(true));
+    assertThat(function.receivedMessages.size(), is(2));
+    assertThat(function.receivedMessages.get(1).target(), is(FUNCTION_2_ADDR));
+  }
+
+  @Test
+  public void readmittedActivationsWithoutOperationsReadmitTheNextOnes() {
+    function.onReceive =
+        message -> {
+          if (message.target().equals(FUNCTION_1_ADDR)) {
+            limits.registered(message.target());
+          }
+        };
+    enqueue(FUNCTION_1_ADDR);
+    enqueue(FUNCTION_2_ADDR);
+    enqueue(FUNCTION_3_ADDR);
+    for (int i = 0; i < 3; i++) {
+      functionGroup.processNextEnvelope();
+    }
+
+    limits.completed(FUNCTION_1_ADDR, 10);
+    while (functionGroup.processNextEnvelope()) {
+      // continue draining.
+    }
+
+    assertThat(function.receivedMessages.size(), is(3));
+    assertThat(limits.hasDeferred(), is(false));
+  }
+
+  @Test
+  public void theLimitHoldsAcrossABarrier() {
+    function.onReceive = message -> limits.registered(message.target());
+    enqueue(FUNCTION_1_ADDR);
+    enqueue(FUNCTION_2_ADDR);
+    enqueue(FUNCTION_3_ADDR);
+
+    reductions().processAllEnvelopes();
+
+    assertThat(function.receivedMessages.size(), is(1));
+    assertThat(metrics.inFlight, is(1));
+    assertThat(limits.hasDeferred(), is(true));
+  }
+
+  @Test
+  public void deferredEnvelopesArePersistedWithTheSnapshot() {
+    function.onReceive = message -> limits.registered(message.target());
+    enqueue(FUNCTION_1_ADDR);
+    enqueue(FUNCTION_2_ADDR);
+    enqueue(FUNCTION_3_ADDR);
+    Reductions reductions = reductions();
+
+    reductions.processAllEnvelopes();
+    reductions.flushState();
+
+    assertThat(
+        delayedMessagesBuffer.deferredTargets(), is(asList(FUNCTION_2_ADDR, FUNCTION_3_ADDR)));
+
+    limits.completed(FUNCTION_1_ADDR, 10);
+    reductions.processAllEnvelopes();
+    reductions.flushState();
+
+    assertThat(function.receivedMessages.size(), is(2));
+    assertThat(delayedMessagesBuffer.deferredTargets(), is(asList(FUNCTION_3_ADDR)));
+  }
+
+  @Test
+  public void inFlightOperationsAreReportedToTheMetrics() {
+    limits.registered(FUNCTION_1_ADDR);
+    limits.registered(FUNCTION_2_ADDR);
+    limits.completed(FUNCTION_1_ADDR, 10);
+
+    assertThat(metrics.inFlight, is(1));
+    assertThat(metrics.lastDurationNanos, is(10L));
+  }
+
+  private void enqueue(Address to) {
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(to, to, DUMMY_PAYLOAD));
+  }
+
+  private Reductions reductions() {
+    return new Reductions(
+        functionGroup,
+        new Continuations(
+            new FakeContext(),
+            Runnable::run,
+            Runnable::run,
+            new Lazy<>(functionGroup),
+            new Lazy<>(Reductions.class)),
+        limits,
+        Runnable::run,
+        Runnable::run,
+        -1,
+        state,
+        new NoopPendingAsyncOperations(),
+        delayedMessagesBuffer);
+  }
+
+  /** A state that only keeps track of the current key. */
+  private static final class KeyTrackingState implements State {
+    Address currentKey;
+
+    @Override
+    public <T> Accessor<T> createFlinkStateAccessor(
+        FunctionType functionType, PersistedValue<T> persistedValue) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setCurrentKey(Address address) {
+      currentKey = address;
+    }
+  }
+
+  /** A delayed messages buffer, keyed by the current key of a {@link KeyTrackingState}. */
+  private static final class FakeDelayedMessagesBuffer implements DelayedMessagesBuffer {
+    private final KeyTrackingState state;
+    private final Map<Address, Map<Long, List<Message>>> buffers = new LinkedHashMap<>();
+
+    FakeDelayedMessagesBuffer(KeyTrackingState state) {
+      this.state = state;
+    }
+
+    /** Returns the targets of the deferred envelopes, in the order they were persisted. */
+    List<Address> deferredTargets() {
+      List<Address> targets = new ArrayList<>();
+      for (Map<Long, List<Message>> buffer : buffers.values()) {
+        for (Message message :
+            buffer.getOrDefault(Reductions.DEFERRED_ENVELOPES_NAMESPACE, Collections.emptyList())) {
+          targets.add(message.target());
+        }
+      }
+      return targets;
+    }
+
+    @Override
+    public void add(Message message, long untilTimestamp) {
+      buffers
+          .computeIfAbsent(state.currentKey, unused -> new HashMap<>())
+          .computeIfAbsent(untilTimestamp, unused -> new ArrayList<>())
+          .add(message);
+    }
+
+    @Override
+    public Iterable<Message> getForTimestamp(long timestamp) {
+      return buffers.getOrDefault(state.currentKey, Collections.emptyMap()).get(timestamp);
+    }
+
+    @Override
+    public void clearForTimestamp(long timestamp) {
+      buffers.getOrDefault(state.currentKey, new HashMap<>()).remove(timestamp);
+    }
+  }
+
+  private static final class CountingMetrics implements FunctionTypeMetrics {
+    int inFlight;
+    long lastDurationNanos;
+
+    @Override
+    public void incomingMessage() {}
+
+    @Override
+    public void outgoingLocalMessage() {}
+
+    @Override
+    public void outgoingRemoteMessage() {}
+
+    @Override
+    public void outgoingEgressMessage() {}
+
+    @Override
+    public void asyncOperationRegistered() {
+      inFlight++;
+    }
+
+    @Override
+    public void asyncOperationCompleted(long durationNanos) {
+      inFlight--;
+      lastDurationNanos = durationNanos;
+    }
+  }
+}
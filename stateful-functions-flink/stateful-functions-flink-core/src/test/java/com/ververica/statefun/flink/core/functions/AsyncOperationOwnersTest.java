@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_1_ADDR;
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_2_ADDR;
+import static com.ververica.statefun.flink.core.TestUtils.integerAddress;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertThat;
+
+import com.ververica.statefun.flink.core.common.KeyBy;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.FunctionType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.flink.runtime.state.KeyGroupRange;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+import org.junit.Test;
+
+public class AsyncOperationOwnersTest {
+
+  private static final int MAX_PARALLELISM = 128;
+
+  @Test
+  public void ownersAreCountedPerKey() {
+    AsyncOperationOwners owners = new AsyncOperationOwners();
+
+    owners.add(FUNCTION_1_ADDR);
+    owners.add(FUNCTION_1_ADDR);
+    owners.add(FUNCTION_2_ADDR);
+    owners.remove(FUNCTION_1_ADDR);
+
+    assertThat(owners.size(), is(2));
+
+    owners.remove(FUNCTION_1_ADDR);
+
+    assertThat(owners.size(), is(1));
+  }
+
+  @Test
+  public void restoreWithoutSnapshots() throws Exception {
+    List<String> restored =
+        AsyncOperationOwners.restore(
+            Collections.emptyList(), KeyGroupRange.of(0, MAX_PARALLELISM - 1));
+
+    assertThat(restored, is(nullValue()));
+  }
+
+  @Test
+  public void restoreOfAllTheKeyGroups() throws Exception {
+    AsyncOperationOwners owners = new AsyncOperationOwners();
+    owners.add(FUNCTION_1_ADDR);
+    owners.add(FUNCTION_2_ADDR);
+
+    List<String> restored =
+        AsyncOperationOwners.restore(
+            Collections.singletonList(owners.snapshot(MAX_PARALLELISM)),
+            KeyGroupRange.of(0, MAX_PARALLELISM - 1));
+
+    assertThat(
+        restored, containsInAnyOrder(KeyBy.apply(FUNCTION_1_ADDR), KeyBy.apply(FUNCTION_2_ADDR)));
+  }
+
+  @Test
+  public void ownersThatShareAKeyAreSnapshottedOnce() throws Exception {
+    AsyncOperationOwners owners = new AsyncOperationOwners();
+    owners.add(new Address(new FunctionType("foo", "bar"), "shared"));
+    owners.add(new Address(new FunctionType("foo", "baz"), "shared"));
+
+    List<String> restored =
+        AsyncOperationOwners.restore(
+            Collections.singletonList(owners.snapshot(MAX_PARALLELISM)),
+            KeyGroupRange.of(0, MAX_PARALLELISM - 1));
+
+    assertThat(owners.size(), is(2));
+    assertThat(restored, contains("shared"));
+  }
+
+  @Test
+  public void rescaledRestoreSelectsTheOwnedKeyGroups() throws Exception {
+    AsyncOperationOwners first = new AsyncOperationOwners();
+    AsyncOperationOwners second = new AsyncOperationOwners();
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      Address owner = integerAddress(i);
+      (i % 2 == 0 ? first : second).add(owner);
+      keys.add(KeyBy.apply(owner));
+    }
+    List<byte[]> snapshots =
+        Arrays.asList(first.snapshot(MAX_PARALLELISM), second.snapshot(MAX_PARALLELISM));
+
+    List<String> restored = new ArrayList<>();
+    for (int subtask = 0; subtask < 3; subtask++) {
+      KeyGroupRange range =
+          KeyGroupRangeAssignment.computeKeyGroupRangeForOperatorIndex(MAX_PARALLELISM, 3, subtask);
+      List<String> subtaskKeys = AsyncOperationOwners.restore(snapshots, range);
+      for (String key : subtaskKeys) {
+        assertThat(
+            range.contains(KeyGroupRangeAssignment.assignToKeyGroup(key, MAX_PARALLELISM)),
+            is(true));
+      }
+      restored.addAll(subtaskKeys);
+    }
+
+    assertThat(restored, containsInAnyOrder(keys.toArray()));
+  }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import static com.ververica.statefun.flink.core.TestUtils.ENVELOPE_FACTORY;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+import com.ververica.statefun.flink.core.di.Lazy;
+import com.ververica.statefun.flink.core.di.ObjectContainer;
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.flink.core.metrics.FunctionTypeMetrics;
+import com.ververica.statefun.flink.core.metrics.MetricsFactory;
+import com.ververica.statefun.flink.core.state.State;
+import com.ververica.statefun.flink.core.state.StateBinder;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.AsyncContext;
+import com.ververica.statefun.sdk.Context;
+import com.ververica.statefun.sdk.FunctionType;
+import com.ververica.statefun.sdk.annotations.Persisted;
+import com.ververica.statefun.sdk.io.EgressIdentifier;
+import com.ververica.statefun.sdk.state.Accessor;
+import com.ververica.statefun.sdk.state.PersistedValue;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncStatefulFunctionTest {
+  private static final FunctionType FUNCTION_TYPE = new FunctionType("test", "lookup");
+  private static final Address SOURCE = new Address(new FunctionType("test", "source"), "s");
+  private static final Address ADDRESS_1 = new Address(FUNCTION_TYPE, "a-1");
+  private static final Address ADDRESS_2 = new Address(FUNCTION_TYPE, "a-2");
+
+  private final FakeState state = new FakeState();
+  private final RecordingContext context = new RecordingContext(state);
+  private final ExecutorService lookupService = Executors.newSingleThreadExecutor();
+  private final Map<Object, CompletableFuture<String>> pendingLookups = new ConcurrentHashMap<>();
+  private final Map<Address, AsyncContext> suspendedContexts = new HashMap<>();
+
+  private Function<Object, CompletableFuture<String>> lookup =
+      key -> pendingLookups.computeIfAbsent(key, unused -> new CompletableFuture<>());
+
+  private LocalFunctionGroup functionGroup;
+  private Continuations continuations;
+
+  @Before
+  public void setUp() {
+    ObjectContainer container = new ObjectContainer();
+    container.add("state", State.class, state);
+    container.add(StateBinder.class);
+    container.add("applying-context", ApplyingContext.class, context);
+    container.add("function-loader", FunctionLoader.class, (FunctionLoader) type -> new Lookup());
+    container.add(
+        "metrics-factory", MetricsFactory.class, (MetricsFactory) type -> new NoMetrics());
+    container.add(ENVELOPE_FACTORY);
+    // continuations are run by awaitCompletion(), on the test thread.
+    container.add("mailbox-executor", Executor.class, (Executor) ignored -> {});
+    container.add("checkpoint-lock-executor", Executor.class, (Executor) Runnable::run);
+    container.add("function-group", new Lazy<>(LocalFunctionGroup.class));
+    container.add("reductions", new Lazy<>(Reductions.class));
+    container.add(Continuations.class);
+    container.add(
+        "function-repository", FunctionRepository.class, StatefulFunctionRepository.class);
+    container.add("max-batch-per-activation", int.class, 10);
+    container.add("parallel-execution", ParallelExecution.class, ParallelExecution.disabled());
+    container.add("async-operation-limits", Map.class, Collections.emptyMap());
+    container.add(
+        "function-repository-lazy", new Lazy<>(FunctionRepository.class, "function-repository"));
+    container.add(AsyncOperationLimits.class);
+    container.add(LocalFunctionGroup.class);
+
+    functionGroup = container.get(LocalFunctionGroup.class);
+    continuations = container.get(Continuations.class);
+  }
+
+  @After
+  public void tearDown() {
+    lookupService.shutdownNow();
+  }
+
+  @Test
+  public void continuationsRunWithTheKeyOfTheirAddress() {
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, "k-1"));
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_2, "k-2"));
+    processPending();
+
+    // the last applied address is a-2, while the lookup of a-1 completes first.
+    pendingLookups.get("k-1").complete("v-1");
+    assertThat(continuations.awaitCompletion(), is(true));
+
+    assertThat(state.valueOf(ADDRESS_1, "last"), is("k-1=v-1"));
+    assertThat(state.valueOf(ADDRESS_2, "last"), nullValue());
+    assertThat(context.sentBy(ADDRESS_1), contains("v-1"));
+    assertThat(context.sentBy(ADDRESS_2), is(empty()));
+  }
+
+  @Test
+  public void messagesOfASuspendedAddressWaitForTheInvocationToComplete() {
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, "k-1"));
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, "k-2"));
+    processPending();
+
+    assertThat(pendingLookups.keySet(), contains("k-1"));
+
+    pendingLookups.get("k-1").complete("v-1");
+    continuations.awaitCompletion();
+    processPending();
+
+    assertThat(pendingLookups.containsKey("k-2"), is(true));
+  }
+
+  @Test
+  public void allInvocationsCompleteBeforeTheBarrier() {
+    lookup = key -> CompletableFuture.supplyAsync(() -> "v-" + key, lookupService);
+
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, "k-1"));
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, "k-2"));
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_2, "k-3"));
+    processAll();
+
+    assertThat(context.sentBy(ADDRESS_1), contains("v-k-1", "v-k-2"));
+    assertThat(context.sentBy(ADDRESS_2), contains("v-k-3"));
+    assertThat(state.valueOf(ADDRESS_1, "last"), is("k-2=v-k-2"));
+    assertThat(state.valueOf(ADDRESS_2, "last"), is("k-3=v-k-3"));
+    assertThat(state.accessedOffTheOperatorThread, is(false));
+    assertThat(functionGroup.hasPendingEnvelopes(), is(false));
+  }
+
+  @Test(expected = StatefulFunctionInvocationException.class)
+  public void aFailedStageFailsTheInvocation() {
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, "k-1"));
+    processPending();
+
+    pendingLookups.get("k-1").completeExceptionally(new IllegalStateException("lookup failed"));
+    continuations.awaitCompletion();
+  }
+
+  @Test
+  public void aSuspendedContextSendsOnBehalfOfItsOwnAddress() {
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, "k-1"));
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_2, "k-2"));
+    processPending();
+
+    suspendedContexts.get(ADDRESS_1).send(SOURCE, "hello");
+
+    assertThat(context.sentBy(ADDRESS_1), contains("hello"));
+    assertThat(context.sentBy(ADDRESS_2), is(empty()));
+  }
+
+  @Test
+  public void usingTheContextOffTheOperatorThreadFails() throws Exception {
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, "k-1"));
+    processPending();
+
+    AsyncContext suspended = suspendedContexts.get(ADDRESS_1);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                suspended.send(SOURCE, "hello");
+              } catch (Throwable t) {
+                failure.set(t);
+              }
+            });
+    thread.start();
+    thread.join();
+
+    assertThat(failure.get(), instanceOf(IllegalStateException.class));
+    assertThat(context.sentBy(ADDRESS_1), is(empty()));
+  }
+
+  // ---------------------------------------------------------------------------
+  // test helpers
+  // ---------------------------------------------------------------------------
+
+  private void processAll() {
+    do {
+      processPending();
+    } while (continuations.awaitCompletion());
+  }
+
+  @SuppressWarnings("StatementWithEmptyBody")
+  private void processPending() {
+    while (functionGroup.processNextEnvelope()) {
+      // continue draining.
+    }
+  }
+
+  /** Looks up its input, remembers the result and replies with it. */
+  private final class Lookup implements com.ververica.statefun.sdk.AsyncStatefulFunction {
+    @Persisted private final PersistedValue<String> last = PersistedValue.of("last", String.class);
+
+    @Override
+    public CompletionStage<Void> invoke(AsyncContext context, Object input) {
+      suspendedContexts.put(context.self(), context);
+      return lookup
+          .apply(input)
+          .thenAcceptAsync(
+              value -> {
+                last.set(input + "=" + value);
+                context.send(context.caller(), value);
+              },
+              context.executor());
+    }
+  }
+
+  /**
+   * Applies messages like the {@link ReusableContext}, and records the messages that are sent by
+   * each address.
+   */
+  private static final class RecordingContext implements ApplyingContext {
+    private final State state;
+    private final Map<Address, List<Object>> sent = new HashMap<>();
+    private Message in;
+
+    RecordingContext(State state) {
+      this.state = state;
+    }
+
+    List<Object> sentBy(Address address) {
+      return sent.getOrDefault(address, Collections.emptyList());
+    }
+
+    @Override
+    public Address self() {
+      return in.target();
+    }
+
+    @Override
+    public Address caller() {
+      return in.source();
+    }
+
+    @Override
+    public void send(Address to, Object message) {
+      throw new UnsupportedOperationException("async functions send through their AsyncContext");
+    }
+
+    @Override
+    public <T> void send(EgressIdentifier<T> egress, T what) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sendAfter(Duration duration, Address to, Object message) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <M, T> void registerAsyncOperation(M metadata, CompletableFuture<T> future) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void apply(LiveFunction function, Message inMessage) {
+      state.setCurrentKey(inMessage.target());
+      applyWithCurrentKey(function, inMessage);
+    }
+
+    @Override
+    public void applyWithCurrentKey(LiveFunction function, Message inMessage) {
+      in = inMessage;
+      function.receive(this, inMessage);
+      in = null;
+    }
+
+    @Override
+    public void applyRecorded(LiveFunction function, Message inMessage, Consumer<Context> effects) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void applyContinuation(LiveFunction function, Message inMessage, Runnable continuation) {
+      state.setCurrentKey(inMessage.target());
+      in = inMessage;
+      continuation.run();
+      in = null;
+    }
+
+    @Override
+    public Context boundTo(LiveFunction function, Message inMessage) {
+      return new Context() {
+        @Override
+        public Address self() {
+          return inMessage.target();
+        }
+
+        @Override
+        public Address caller() {
+          return inMessage.source();
+        }
+
+        @Override
+        public void send(Address to, Object message) {
+          sent.computeIfAbsent(self(), unused -> new ArrayList<>()).add(message);
+        }
+
+        @Override
+        public <T> void send(EgressIdentifier<T> egress, T what) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendAfter(Duration delay, Address to, Object message) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <M, T> void registerAsyncOperation(M metadata, CompletableFuture<T> future) {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
+  /** A state backend for a single function type, that may only be used by the test thread. */
+  private static final class FakeState implements State {
+    private final Thread operatorThread = Thread.currentThread();
+    private final Map<Address, Map<String, Object>> values = new HashMap<>();
+    private Address currentKey;
+    boolean accessedOffTheOperatorThread;
+
+    Object valueOf(Address address, String name) {
+      return values.getOrDefault(address, Collections.emptyMap()).get(name);
+    }
+
+    @Override
+    public <T> Accessor<T> createFlinkStateAccessor(
+        FunctionType functionType, PersistedValue<T> persistedValue) {
+      final String name = persistedValue.name();
+      return new Accessor<T>() {
+        @Override
+        public void set(T value) {
+          checkThread();
+          values.computeIfAbsent(currentKey, unused -> new HashMap<>()).put(name, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get() {
+          checkThread();
+          return (T) valueOf(currentKey, name);
+        }
+
+        @Override
+        public void clear() {
+          checkThread();
+          values.getOrDefault(currentKey, new HashMap<>()).remove(name);
+        }
+      };
+    }
+
+    @Override
+    public void setCurrentKey(Address address) {
+      checkThread();
+      currentKey = address;
+    }
+
+    private void checkThread() {
+      if (Thread.currentThread() != operatorThread) {
+        accessedOffTheOperatorThread = true;
+      }
+    }
+  }
+
+  private static final class NoMetrics implements FunctionTypeMetrics {
+    @Override
+    public void incomingMessage() {}
+
+    @Override
+    public void outgoingLocalMessage() {}
+
+    @Override
+    public void outgoingRemoteMessage() {}
+
+    @Override
+    public void outgoingEgressMessage() {}
+
+    @Override
+    public void asyncOperationRegistered() {}
+
+    @Override
+    public void asyncOperationCompleted(long durationNanos) {}
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import static com.ververica.statefun.flink.core.TestUtils.DUMMY_PAYLOAD;
+import static com.ververica.statefun.flink.core.TestUtils.ENVELOPE_FACTORY;
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_1_ADDR;
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_2_ADDR;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.flink.core.state.State;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.FunctionType;
+import com.ververica.statefun.sdk.state.Accessor;
+import com.ververica.statefun.sdk.state.PersistedValue;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.apache.flink.api.common.state.MapState;
+import org.junit.Test;
+
+public class HeapPendingAsyncOperationsTest {
+
+  private final KeyedMapState keyedState = new KeyedMapState();
+  private final AsyncOperationOwners owners = new AsyncOperationOwners();
+  private final HeapPendingAsyncOperations pendingOperations =
+      new HeapPendingAsyncOperations(keyedState, owners, keyedState);
+
+  @Test
+  public void idsAreMonotonicallyIncreasing() {
+    long first = pendingOperations.add(metadataOf(FUNCTION_1_ADDR));
+    long second = pendingOperations.add(metadataOf(FUNCTION_1_ADDR));
+
+    assertThat(second, is(first + 1));
+  }
+
+  @Test
+  public void operationsCompletedBeforeASnapshotNeverReachTheState() {
+    long id = pendingOperations.add(metadataOf(FUNCTION_1_ADDR));
+    pendingOperations.remove(FUNCTION_1_ADDR, id);
+    pendingOperations.flush();
+
+    assertThat(keyedState.writes, is(0));
+    assertThat(keyedState.size(), is(0));
+    assertThat(owners.size(), is(0));
+  }
+
+  @Test
+  public void pendingOperationsAreWrittenUnderTheirOwnersKey() {
+    long first = pendingOperations.add(metadataOf(FUNCTION_1_ADDR));
+    long second = pendingOperations.add(metadataOf(FUNCTION_2_ADDR));
+    pendingOperations.flush();
+
+    keyedState.setCurrentKey(FUNCTION_1_ADDR);
+    assertThat(keyedState.contains(first), is(true));
+    keyedState.setCurrentKey(FUNCTION_2_ADDR);
+    assertThat(keyedState.contains(second), is(true));
+    assertThat(pendingOperations.unpersistedCount(), is(0));
+    assertThat(owners.size(), is(2));
+  }
+
+  @Test
+  public void persistedOperationsAreRemovedFromTheState() {
+    long id = pendingOperations.add(metadataOf(FUNCTION_1_ADDR));
+    pendingOperations.flush();
+
+    keyedState.setCurrentKey(FUNCTION_1_ADDR);
+    pendingOperations.remove(FUNCTION_1_ADDR, id);
+
+    assertThat(keyedState.size(), is(0));
+  }
+
+  private static Message metadataOf(Address owner) {
+    return ENVELOPE_FACTORY.from(owner, owner, DUMMY_PAYLOAD);
+  }
+
+  /** A {@link MapState} that is scoped to the key that was last set through {@link State}. */
+  private static final class KeyedMapState implements MapState<Long, Message>, State {
+    private final Map<Address, Map<Long, Message>> state = new HashMap<>();
+    private Address currentKey;
+    private int writes;
+
+    int size() {
+      return state.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private Map<Long, Message> current() {
+      return state.computeIfAbsent(currentKey, unused -> new HashMap<>());
+    }
+
+    @Override
+    public <T> Accessor<T> createFlinkStateAccessor(
+        FunctionType functionType, PersistedValue<T> persistedValue) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setCurrentKey(Address address) {
+      this.currentKey = address;
+    }
+
+    @Override
+    public Message get(Long key) {
+      return current().get(key);
+    }
+
+    @Override
+    public void put(Long key, Message value) {
+      writes++;
+      current().put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<Long, Message> map) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void remove(Long key) {
+      writes++;
+      current().remove(key);
+    }
+
+    @Override
+    public boolean contains(Long key) {
+      return current().containsKey(key);
+    }
+
+    @Override
+    public Iterable<Entry<Long, Message>> entries() {
+      return current().entrySet();
+    }
+
+    @Override
+    public Iterable<Long> keys() {
+      return current().keySet();
+    }
+
+    @Override
+    public Iterable<Message> values() {
+      return current().values();
+    }
+
+    @Override
+    public Iterator<Entry<Long, Message>> iterator() {
+      return current().entrySet().iterator();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return current().isEmpty();
+    }
+
+    @Override
+    public void clear() {
+      current().clear();
+    }
+  }
+}
@@ -18,6 +18,7 @@ package com.ververica.statefun.flink.core.functions;
 
 import static com.ververica.statefun.flink.core.TestUtils.ENVELOPE_FACTORY;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
 import static org.junit.Assert.assertThat;
 
 import com.ververica.statefun.flink.core.generated.EnvelopeAddress;
@@ -28,11 +29,14 @@ import com.ververica.statefun.sdk.Address;
 import com.ververica.statefun.sdk.Context;
 import com.ververica.statefun.sdk.FunctionType;
 import com.ververica.statefun.sdk.io.EgressIdentifier;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import org.junit.Test;
 
 public class LocalStatefulFunctionGroupTest {
@@ -49,7 +53,7 @@ public class LocalStatefulFunctionGroupTest {
 
   // object under test
   private final LocalFunctionGroup functionGroupUnderTest =
-      new LocalFunctionGroup(fakeRepository, context);
+      new LocalFunctionGroup(fakeRepository, context, 1);
 
   @Test
   public void sanity() {
@@ -80,21 +84,119 @@ public class LocalStatefulFunctionGroupTest {
     assertThat(m.target(), is(message.target()));
   }
 
+  @Test
+  public void messagesToTheSameAddressAreAppliedInBatches() {
+    LocalFunctionGroup batchingGroup = new LocalFunctionGroup(fakeRepository, context, 2);
+
+    for (int i = 0; i < 3; i++) {
+      batchingGroup.enqueue(ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, FUNCTION_2_ADDR, DUMMY_PAYLOAD));
+    }
+    batchingGroup.processNextEnvelope();
+
+    assertThat(function.receivedMessages.size(), is(2));
+    assertThat(context.keyChanges, is(1));
+  }
+
+  @Test
+  public void theContextClassLoaderIsSetOncePerBatch() {
+    LocalFunctionGroup batchingGroup = new LocalFunctionGroup(fakeRepository, context, 3);
+    ClassLoader functionClassLoader = new URLClassLoader(new URL[0]);
+    function.classLoader = functionClassLoader;
+    List<ClassLoader> classLoaders = new ArrayList<>();
+    function.onReceive =
+        message -> classLoaders.add(Thread.currentThread().getContextClassLoader());
+
+    ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+    for (int i = 0; i < 3; i++) {
+      batchingGroup.enqueue(ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, FUNCTION_2_ADDR, DUMMY_PAYLOAD));
+    }
+    batchingGroup.processNextEnvelope();
+
+    assertThat(
+        classLoaders, contains(functionClassLoader, functionClassLoader, functionClassLoader));
+    assertThat(Thread.currentThread().getContextClassLoader(), is(originalClassLoader));
+  }
+
+  @Test
+  public void batchesAreLimitedToASingleAddress() {
+    LocalFunctionGroup batchingGroup = new LocalFunctionGroup(fakeRepository, context, 10);
+
+    batchingGroup.enqueue(ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, FUNCTION_1_ADDR, DUMMY_PAYLOAD));
+    batchingGroup.enqueue(ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, FUNCTION_2_ADDR, DUMMY_PAYLOAD));
+    batchingGroup.processNextEnvelope();
+
+    assertThat(function.receivedMessages.size(), is(1));
+    assertThat(batchingGroup.processNextEnvelope(), is(true));
+    assertThat(function.receivedMessages.size(), is(2));
+  }
+
+  @Test
+  public void dispatchedActivationsAreNotPendingUntilResumed() {
+    FakeParallelExecution parallelExecution = new FakeParallelExecution();
+    LocalFunctionGroup parallelGroup =
+        new LocalFunctionGroup(fakeRepository, context, 1, parallelExecution);
+
+    parallelGroup.enqueue(ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, FUNCTION_2_ADDR, DUMMY_PAYLOAD));
+    assertThat(parallelGroup.processNextEnvelope(), is(true));
+
+    // a message that arrives while the activation is dispatched, must wait for it.
+    parallelGroup.enqueue(ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, FUNCTION_2_ADDR, DUMMY_PAYLOAD));
+    assertThat(parallelGroup.hasPendingEnvelopes(), is(false));
+
+    FunctionActivation activation = parallelExecution.dispatched.get(0);
+    activation.pollEnvelope();
+    parallelGroup.resume(activation);
+
+    assertThat(parallelGroup.hasPendingEnvelopes(), is(true));
+    assertThat(parallelGroup.processNextEnvelope(), is(true));
+    assertThat(parallelExecution.dispatched.size(), is(2));
+  }
+
+  @Test
+  public void suspendedActivationsKeepTheirEnvelopesUntilResumed() {
+    LocalFunctionGroup batchingGroup = new LocalFunctionGroup(fakeRepository, context, 10);
+    function.onReceive = message -> batchingGroup.suspend(message.target());
+
+    batchingGroup.enqueue(ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, FUNCTION_2_ADDR, DUMMY_PAYLOAD));
+    batchingGroup.enqueue(ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, FUNCTION_2_ADDR, DUMMY_PAYLOAD));
+    batchingGroup.processNextEnvelope();
+
+    assertThat(function.receivedMessages.size(), is(1));
+    assertThat(batchingGroup.hasPendingEnvelopes(), is(false));
+
+    batchingGroup.resumeSuspended(FUNCTION_2_ADDR);
+
+    assertThat(batchingGroup.processNextEnvelope(), is(true));
+    assertThat(function.receivedMessages.size(), is(2));
+  }
+
   // ---------------------------------------------------------------------------
   // test helpers
   // ---------------------------------------------------------------------------
 
   static final class FakeFunction implements LiveFunction {
     List<Message> receivedMessages = new ArrayList<>();
+    Consumer<Message> onReceive = message -> {};
+    ClassLoader classLoader = FakeFunction.class.getClassLoader();
+    FunctionTypeMetrics metrics;
 
     @Override
     public void receive(Context context, Message message) {
       receivedMessages.add(message);
+      onReceive.accept(message);
+    }
+
+    @Override
+    public ClassLoader classLoader() {
+      return classLoader;
     }
 
     @Override
     public FunctionTypeMetrics metrics() {
-      throw new UnsupportedOperationException();
+      if (metrics == null) {
+        throw new UnsupportedOperationException();
+      }
+      return metrics;
     }
 
     @Override
@@ -118,6 +220,7 @@ public class LocalStatefulFunctionGroupTest {
 
   static final class FakeContext implements ApplyingContext {
     Message in;
+    int keyChanges;
 
     @Override
     public Address self() {
@@ -143,8 +246,56 @@ public class LocalStatefulFunctionGroupTest {
 
     @Override
     public void apply(LiveFunction function, Message inMessage) {
+      keyChanges++;
+      applyWithCurrentKey(function, inMessage);
+    }
+
+    @Override
+    public void applyWithCurrentKey(LiveFunction function, Message inMessage) {
       in = inMessage;
       function.receive(this, inMessage);
     }
+
+    @Override
+    public void applyRecorded(LiveFunction function, Message inMessage, Consumer<Context> effects) {
+      in = inMessage;
+      effects.accept(this);
+    }
+
+    @Override
+    public void applyContinuation(LiveFunction function, Message inMessage, Runnable continuation) {
+      in = inMessage;
+      continuation.run();
+    }
+
+    @Override
+    public Context boundTo(LiveFunction function, Message inMessage) {
+      // sending has no effect on this context.
+      return this;
+    }
+  }
+
+  static final class FakeParallelExecution implements ParallelExecution {
+    List<FunctionActivation> dispatched = new ArrayList<>();
+    boolean awaited;
+
+    @Override
+    public boolean accepts(FunctionType type) {
+      return true;
+    }
+
+    @Override
+    public void dispatch(FunctionActivation activation) {
+      dispatched.add(activation);
+    }
+
+    @Override
+    public boolean awaitCompletion() {
+      awaited = true;
+      return false;
+    }
+
+    @Override
+    public void close() {}
   }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import static com.ververica.statefun.flink.core.TestUtils.DUMMY_PAYLOAD;
+import static com.ververica.statefun.flink.core.TestUtils.ENVELOPE_FACTORY;
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_1_ADDR;
+import static com.ververica.statefun.flink.core.TestUtils.integerAddress;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.ververica.statefun.flink.core.common.KeyBy;
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.sdk.Address;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+import org.junit.Test;
+
+public class PartitionTest {
+  private static final int MAX_PARALLELISM = 128;
+  private static final int PARALLELISM = 3;
+
+  @Test
+  public void partitionAgreesWithFlinkKeyGroupAssignment() {
+    for (int operatorIndex = 0; operatorIndex < PARALLELISM; operatorIndex++) {
+      Partition partition = new Partition(MAX_PARALLELISM, PARALLELISM, operatorIndex);
+
+      for (int i = 0; i < 1_000; i++) {
+        Address target = integerAddress(i);
+        Message message = ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, target, DUMMY_PAYLOAD);
+
+        int expectedOperatorIndex =
+            KeyGroupRangeAssignment.assignKeyToParallelOperator(
+                KeyBy.apply(target), MAX_PARALLELISM, PARALLELISM);
+
+        assertThat(partition.contains(message), is(expectedOperatorIndex == operatorIndex));
+      }
+    }
+  }
+
+  @Test
+  public void partitionAgreesWithFlinkForKeysWithANegativeHashCode() {
+    Partition partition = new Partition(MAX_PARALLELISM, 1, 0);
+
+    for (int i = 0; i < 1_000; i++) {
+      Address target = new Address(FUNCTION_1_ADDR.type(), "key-" + i);
+      if (target.id().hashCode() >= 0) {
+        continue;
+      }
+      Message message = ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, target, DUMMY_PAYLOAD);
+
+      assertThat(message.targetKeyHash() >= 0, is(true));
+      assertThat(
+          KeyBy.keyGroup(message.targetKeyHash(), MAX_PARALLELISM),
+          is(KeyGroupRangeAssignment.assignToKeyGroup(KeyBy.apply(target), MAX_PARALLELISM)));
+      assertThat(partition.contains(message), is(true));
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import static com.ververica.statefun.flink.core.TestUtils.DUMMY_PAYLOAD;
+import static com.ververica.statefun.flink.core.TestUtils.ENVELOPE_FACTORY;
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_1_ADDR;
+import static com.ververica.statefun.flink.core.TestUtils.integerAddress;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.ververica.statefun.flink.core.di.Lazy;
+import com.ververica.statefun.flink.core.functions.Continuations.SuspendedInvocation;
+import com.ververica.statefun.flink.core.functions.LocalStatefulFunctionGroupTest.FakeContext;
+import com.ververica.statefun.flink.core.functions.LocalStatefulFunctionGroupTest.FakeFunction;
+import com.ververica.statefun.flink.core.functions.LocalStatefulFunctionGroupTest.FakeFunctionRepository;
+import com.ververica.statefun.flink.core.functions.LocalStatefulFunctionGroupTest.FakeParallelExecution;
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.flink.core.state.State;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.FunctionType;
+import com.ververica.statefun.sdk.state.Accessor;
+import com.ververica.statefun.sdk.state.PersistedValue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class ReductionsPreemptionTest {
+
+  // test collaborators
+  private final FakeFunction function = new FakeFunction();
+  private final LocalFunctionGroup functionGroup =
+      new LocalFunctionGroup(new FakeFunctionRepository(function), new FakeContext(), 1);
+  private final ArrayDeque<Runnable> mailbox = new ArrayDeque<>();
+  private Continuations continuations;
+
+  @Test
+  public void unboundedDrainAppliesEverything() {
+    Reductions reductions = reductions(-1);
+
+    enqueueMessages(reductions, 10);
+    reductions.processEnvelopes();
+
+    assertThat(function.receivedMessages.size(), is(10));
+    assertThat(mailbox.isEmpty(), is(true));
+  }
+
+  @Test
+  public void unboundedDrainDoesNotWaitForDispatchedEnvelopes() {
+    FakeParallelExecution execution = new FakeParallelExecution();
+    LocalFunctionGroup dispatchingGroup =
+        new LocalFunctionGroup(
+            new FakeFunctionRepository(function), new FakeContext(), 1, execution);
+    Reductions reductions = reductions(dispatchingGroup, -1);
+
+    enqueueMessages(reductions, 10);
+    reductions.processEnvelopes();
+
+    assertThat(execution.dispatched.size(), is(10));
+    assertThat(execution.awaited, is(false));
+  }
+
+  @Test
+  public void unboundedDrainDoesNotWaitForSuspendedInvocations() {
+    Reductions reductions = reductions(-1);
+    List<SuspendedInvocation> suspended = new ArrayList<>();
+    function.onReceive = message -> suspended.add(continuations.suspend(null, message));
+
+    enqueueMessages(reductions, 10);
+    reductions.processEnvelopes();
+
+    assertThat(suspended.size(), is(10));
+    assertThat(mailbox.isEmpty(), is(true));
+
+    suspended.forEach(invocation -> invocation.complete(null));
+
+    assertThat(mailbox.size(), is(1));
+  }
+
+  @Test
+  public void drainIsPreemptedOnceTheBudgetIsExhausted() {
+    Reductions reductions = reductions(4);
+
+    enqueueMessages(reductions, 10);
+    reductions.processEnvelopes();
+
+    assertThat(function.receivedMessages.size(), is(4));
+    assertThat(mailbox.size(), is(1));
+  }
+
+  @Test
+  public void preemptedDrainResumesFromTheMailbox() {
+    Reductions reductions = reductions(4);
+
+    enqueueMessages(reductions, 10);
+    reductions.processEnvelopes();
+
+    Runnable mail;
+    while ((mail = mailbox.poll()) != null) {
+      mail.run();
+    }
+
+    assertThat(function.receivedMessages.size(), is(10));
+  }
+
+  @Test
+  public void onlyASingleResumptionIsScheduled() {
+    Reductions reductions = reductions(1);
+
+    enqueueMessages(reductions, 10);
+    reductions.processEnvelopes();
+    reductions.processEnvelopes();
+
+    assertThat(mailbox.size(), is(1));
+  }
+
+  @Test
+  public void drainingEverythingIgnoresTheBudget() {
+    Reductions reductions = reductions(1);
+
+    enqueueMessages(reductions, 10);
+    reductions.processAllEnvelopes();
+
+    assertThat(function.receivedMessages.size(), is(10));
+  }
+
+  private Reductions reductions(int maxEnvelopesPerDrain) {
+    return reductions(functionGroup, maxEnvelopesPerDrain);
+  }
+
+  private Reductions reductions(LocalFunctionGroup functionGroup, int maxEnvelopesPerDrain) {
+    continuations =
+        new Continuations(
+            new FakeContext(),
+            mailbox::add,
+            Runnable::run,
+            new Lazy<>(functionGroup),
+            new Lazy<>(Reductions.class));
+    return new Reductions(
+        functionGroup,
+        continuations,
+        new AsyncOperationLimits(
+            Collections.emptyMap(), new Lazy<>(new FakeFunctionRepository(function))),
+        mailbox::add,
+        Runnable::run,
+        maxEnvelopesPerDrain,
+        new NoopState(),
+        new NoopPendingAsyncOperations(),
+        new NoopDelayedMessagesBuffer());
+  }
+
+  private static void enqueueMessages(Reductions reductions, int count) {
+    for (int i = 0; i < count; i++) {
+      reductions.enqueue(ENVELOPE_FACTORY.from(FUNCTION_1_ADDR, integerAddress(i), DUMMY_PAYLOAD));
+    }
+  }
+
+  static final class NoopPendingAsyncOperations implements PendingAsyncOperations {
+
+    @Override
+    public long add(Message metadata) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void remove(Address owner, long id) {}
+  }
+
+  private static final class NoopDelayedMessagesBuffer implements DelayedMessagesBuffer {
+
+    @Override
+    public void add(Message message, long untilTimestamp) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterable<Message> getForTimestamp(long timestamp) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clearForTimestamp(long timestamp) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static final class NoopState implements State {
+
+    @Override
+    public <T> Accessor<T> createFlinkStateAccessor(
+        FunctionType functionType, PersistedValue<T> persistedValue) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setCurrentKey(Address address) {}
+  }
+}
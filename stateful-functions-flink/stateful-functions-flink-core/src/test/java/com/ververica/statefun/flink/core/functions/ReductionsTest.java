@@ -103,6 +103,7 @@ public class ReductionsTest {
             MoreExecutors.directExecutor(),
             new FakeMetricGroup(),
             new FakeMapState(),
+            new AsyncOperationOwners(),
             MoreExecutors.directExecutor());
 
     assertThat(reductions, notNullValue());
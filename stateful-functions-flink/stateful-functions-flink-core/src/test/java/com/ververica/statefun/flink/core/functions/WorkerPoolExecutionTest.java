@@ -0,0 +1,410 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.functions;
+
+import static com.ververica.statefun.flink.core.TestUtils.ENVELOPE_FACTORY;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.ververica.statefun.flink.core.di.Lazy;
+import com.ververica.statefun.flink.core.di.ObjectContainer;
+import com.ververica.statefun.flink.core.message.Message;
+import com.ververica.statefun.flink.core.metrics.FunctionTypeMetrics;
+import com.ververica.statefun.flink.core.state.BoundState;
+import com.ververica.statefun.flink.core.state.State;
+import com.ververica.statefun.flink.core.state.StateBinder;
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.Context;
+import com.ververica.statefun.sdk.FunctionType;
+import com.ververica.statefun.sdk.StatefulFunction;
+import com.ververica.statefun.sdk.annotations.Persisted;
+import com.ververica.statefun.sdk.io.EgressIdentifier;
+import com.ververica.statefun.sdk.state.Accessor;
+import com.ververica.statefun.sdk.state.PersistedValue;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import org.apache.flink.util.ExceptionUtils;
+import org.junit.After;
+import org.junit.Test;
+
+public class WorkerPoolExecutionTest {
+  private static final FunctionType FUNCTION_TYPE = new FunctionType("test", "counter");
+  private static final Address SOURCE = new Address(new FunctionType("test", "source"), "s");
+  private static final Address ADDRESS_1 = new Address(FUNCTION_TYPE, "a-1");
+  private static final Address ADDRESS_2 = new Address(FUNCTION_TYPE, "a-2");
+
+  private final FakeState state = new FakeState();
+  private final RecordingContext context = new RecordingContext();
+  private final CountDownLatch unblocked = new CountDownLatch(1);
+
+  private FunctionLoader functionLoader = type -> new Counter(unblocked);
+
+  private LocalFunctionGroup functionGroup;
+
+  @After
+  public void close() {
+    if (functionGroup != null) {
+      functionGroup.close();
+    }
+  }
+
+  @Test
+  public void messagesOfAnAddressAreAppliedInOrder() {
+    functionGroup = parallelFunctionGroup(Collections.singleton(FUNCTION_TYPE), 4);
+
+    for (int i = 0; i < 100; i++) {
+      functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, i));
+      functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_2, i));
+    }
+    processAll();
+
+    assertThat(context.sentBy(ADDRESS_1), is(range(100)));
+    assertThat(context.sentBy(ADDRESS_2), is(range(100)));
+  }
+
+  @Test
+  public void stateIsWrittenBackUnderTheInvokedAddress() {
+    functionGroup = parallelFunctionGroup(Collections.singleton(FUNCTION_TYPE), 4);
+
+    for (int i = 0; i < 10; i++) {
+      functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, i));
+    }
+    for (int i = 0; i < 5; i++) {
+      functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_2, i));
+    }
+    processAll();
+
+    assertThat(state.valueOf(ADDRESS_1, "count"), is(10));
+    assertThat(state.valueOf(ADDRESS_2, "count"), is(5));
+    assertThat(state.accessedOffTheOperatorThread, is(false));
+  }
+
+  @Test(expected = StatefulFunctionInvocationException.class)
+  public void aFailedInvocationFailsTheMerge() {
+    functionGroup = parallelFunctionGroup(Collections.singleton(FUNCTION_TYPE), 4);
+
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, Counter.FAIL));
+    processAll();
+  }
+
+  @Test
+  public void aBlockedAddressDoesNotHoldBackAnotherAddress() {
+    functionGroup =
+        functionGroup(
+            Collections.emptySet(), 1, Collections.singleton(FUNCTION_TYPE), /* threads */ 2);
+
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, Counter.BLOCK));
+    functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_1, 1));
+    for (int i = 0; i < 5; i++) {
+      functionGroup.enqueue(ENVELOPE_FACTORY.from(SOURCE, ADDRESS_2, i));
+    }
+    while (context.sentBy(ADDRESS_2).size() < 5) {
+      processPending();
+      functionGroup.awaitDispatchedEnvelopes();
+    }
+
+    assertThat(context.sentBy(ADDRESS_2), is(range(5)));
+    assertThat(context.sentBy(ADDRESS_1), is(empty()));
+
+    unblocked.countDown();
+    processAll();
+
+    assertThat(context.sentBy(ADDRESS_1), contains(Counter.BLOCK, 1));
+  }
+
+  @Test
+  public void asyncFunctionTypesAreRejected() {
+    functionLoader =
+        type ->
+            (com.ververica.statefun.sdk.AsyncStatefulFunction)
+                (context, input) -> CompletableFuture.completedFuture(null);
+
+    try {
+      parallelFunctionGroup(Collections.singleton(FUNCTION_TYPE), 4);
+      fail("An AsyncStatefulFunction type was accepted as parallel");
+    } catch (RuntimeException e) {
+      assertTrue(ExceptionUtils.findThrowable(e, IllegalArgumentException.class).isPresent());
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+  // test helpers
+  // ---------------------------------------------------------------------------
+
+  private void processAll() {
+    do {
+      processPending();
+    } while (functionGroup.awaitDispatchedEnvelopes());
+  }
+
+  @SuppressWarnings("StatementWithEmptyBody")
+  private void processPending() {
+    while (functionGroup.processNextEnvelope()) {
+      // continue draining.
+    }
+  }
+
+  private LocalFunctionGroup parallelFunctionGroup(Set<FunctionType> parallelTypes, int workers) {
+    return functionGroup(parallelTypes, workers, Collections.emptySet(), 1);
+  }
+
+  private LocalFunctionGroup functionGroup(
+      Set<FunctionType> parallelTypes,
+      int workers,
+      Set<FunctionType> blockingTypes,
+      int blockingThreads) {
+    ObjectContainer container = new ObjectContainer();
+    container.add("state", State.class, state);
+    container.add(StateBinder.class);
+    BoundState sourceState =
+        container.get(StateBinder.class).bind(FUNCTION_TYPE, new Counter(unblocked));
+
+    container.add(
+        "function-repository", FunctionRepository.class, new SourceFunctionRepository(sourceState));
+    container.add("applying-context", ApplyingContext.class, context);
+    container.add("max-batch-per-activation", int.class, 2);
+    container.add("function-loader", FunctionLoader.class, functionLoader);
+    container.add(ENVELOPE_FACTORY);
+    container.add("parallel-function-types", Set.class, parallelTypes);
+    container.add("parallel-workers", int.class, workers);
+    container.add("blocking-function-types", Set.class, blockingTypes);
+    container.add("blocking-threads", int.class, blockingThreads);
+    // completed invocations are merged by awaitDispatchedEnvelopes(), on the test thread.
+    container.add("mailbox-executor", Executor.class, (Executor) ignored -> {});
+    container.add("checkpoint-lock-executor", Executor.class, (Executor) Runnable::run);
+    container.add("parallel-execution", ParallelExecution.class, WorkerPoolExecution.class);
+    container.add("function-group", new Lazy<>(LocalFunctionGroup.class));
+    container.add("reductions", new Lazy<>(Reductions.class));
+    container.add("async-operation-limits", Map.class, Collections.emptyMap());
+    container.add(
+        "function-repository-lazy", new Lazy<>(FunctionRepository.class, "function-repository"));
+    container.add(AsyncOperationLimits.class);
+    container.add(LocalFunctionGroup.class);
+    return container.get(LocalFunctionGroup.class);
+  }
+
+  private static List<Object> range(int n) {
+    List<Object> range = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      range.add(i);
+    }
+    return range;
+  }
+
+  /** Counts the messages of an address, and echoes each message back to its caller. */
+  static final class Counter implements StatefulFunction {
+    static final int FAIL = -1;
+    static final int BLOCK = -2;
+
+    @Persisted
+    private final PersistedValue<Integer> count = PersistedValue.of("count", Integer.class);
+
+    private final CountDownLatch unblocked;
+
+    Counter(CountDownLatch unblocked) {
+      this.unblocked = unblocked;
+    }
+
+    @Override
+    public void invoke(Context context, Object input) {
+      if (input.equals(FAIL)) {
+        throw new IllegalStateException("failing on purpose");
+      }
+      if (input.equals(BLOCK)) {
+        try {
+          unblocked.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      Integer current = count.get();
+      count.set(current == null ? 1 : current + 1);
+      context.send(context.caller(), input);
+    }
+  }
+
+  private static final class SourceFunction implements LiveFunction {
+    private final BoundState state;
+
+    SourceFunction(BoundState state) {
+      this.state = state;
+    }
+
+    @Override
+    public void receive(Context context, Message message) {
+      throw new UnsupportedOperationException("messages are applied by the worker pool");
+    }
+
+    @Override
+    public ClassLoader classLoader() {
+      return SourceFunction.class.getClassLoader();
+    }
+
+    @Override
+    public FunctionTypeMetrics metrics() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Optional<BoundState> state() {
+      return Optional.of(state);
+    }
+  }
+
+  private static final class SourceFunctionRepository implements FunctionRepository {
+    private final SourceFunction function;
+
+    SourceFunctionRepository(BoundState state) {
+      this.function = new SourceFunction(state);
+    }
+
+    @Override
+    public LiveFunction get(FunctionType type) {
+      return function;
+    }
+  }
+
+  /** A state backend for a single function type, that may only be used by the test thread. */
+  private static final class FakeState implements State {
+    private final Thread operatorThread = Thread.currentThread();
+    private final Map<Address, Map<String, Object>> values = new HashMap<>();
+    private Address currentKey;
+    boolean accessedOffTheOperatorThread;
+
+    Object valueOf(Address address, String name) {
+      return values.getOrDefault(address, Collections.emptyMap()).get(name);
+    }
+
+    @Override
+    public <T> Accessor<T> createFlinkStateAccessor(
+        FunctionType functionType, PersistedValue<T> persistedValue) {
+      final String name = persistedValue.name();
+      return new Accessor<T>() {
+        @Override
+        public void set(T value) {
+          checkThread();
+          values.computeIfAbsent(currentKey, unused -> new HashMap<>()).put(name, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get() {
+          checkThread();
+          return (T) valueOf(currentKey, name);
+        }
+
+        @Override
+        public void clear() {
+          checkThread();
+          values.getOrDefault(currentKey, new HashMap<>()).remove(name);
+        }
+      };
+    }
+
+    @Override
+    public void setCurrentKey(Address address) {
+      checkThread();
+      currentKey = address;
+    }
+
+    private void checkThread() {
+      if (Thread.currentThread() != operatorThread) {
+        accessedOffTheOperatorThread = true;
+      }
+    }
+  }
+
+  /** Records the messages that are sent while the recorded effects are replayed. */
+  private static final class RecordingContext implements ApplyingContext {
+    private final Map<Address, List<Object>> sent = new HashMap<>();
+    private Message in;
+
+    List<Object> sentBy(Address address) {
+      return sent.getOrDefault(address, Collections.emptyList());
+    }
+
+    @Override
+    public Address self() {
+      return in.target();
+    }
+
+    @Override
+    public Address caller() {
+      return in.source();
+    }
+
+    @Override
+    public void send(Address to, Object message) {
+      sent.computeIfAbsent(self(), unused -> new ArrayList<>()).add(message);
+    }
+
+    @Override
+    public <T> void send(EgressIdentifier<T> egress, T what) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sendAfter(Duration duration, Address to, Object message) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <M, T> void registerAsyncOperation(M metadata, CompletableFuture<T> future) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void apply(LiveFunction function, Message inMessage) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void applyWithCurrentKey(LiveFunction function, Message inMessage) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void applyRecorded(LiveFunction function, Message inMessage, Consumer<Context> effects) {
+      in = inMessage;
+      effects.accept(this);
+    }
+
+    @Override
+    public void applyContinuation(LiveFunction function, Message inMessage, Runnable continuation) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Context boundTo(LiveFunction function, Message inMessage) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.logger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.flink.api.common.typeutils.base.IntSerializer;
+import org.apache.flink.runtime.io.disk.iomanager.IOManagerAsync;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SpillingFeedbackBufferTest {
+  private static IOManagerAsync IO_MANAGER;
+
+  @BeforeClass
+  public static void beforeClass() {
+    IO_MANAGER = new IOManagerAsync();
+  }
+
+  @AfterClass
+  public static void afterClass() throws Exception {
+    if (IO_MANAGER != null) {
+      IO_MANAGER.close();
+      IO_MANAGER = null;
+    }
+  }
+
+  @Test
+  public void emptyBuffer() {
+    SpillingFeedbackBuffer<Integer> buffer = instanceUnderTest(1024 * 1024);
+
+    assertThat(buffer.isEmpty(), is(true));
+    assertThat(buffer.poll(), nullValue());
+  }
+
+  @Test
+  public void elementsArePolledInOrder() {
+    SpillingFeedbackBuffer<Integer> buffer = instanceUnderTest(1024 * 1024);
+
+    for (int i = 0; i < 100; i++) {
+      buffer.add(i);
+    }
+
+    assertThat(buffer.size(), is(100L));
+    for (int i = 0; i < 100; i++) {
+      assertThat(buffer.poll(), is(i));
+    }
+    assertThat(buffer.poll(), nullValue());
+    buffer.close();
+  }
+
+  @Test
+  public void addingAndPollingCanBeInterleaved() {
+    SpillingFeedbackBuffer<Integer> buffer = instanceUnderTest(1024 * 1024);
+
+    buffer.add(1);
+    buffer.add(2);
+    assertThat(buffer.poll(), is(1));
+    buffer.add(3);
+    assertThat(buffer.poll(), is(2));
+    assertThat(buffer.poll(), is(3));
+    buffer.add(4);
+    assertThat(buffer.poll(), is(4));
+    assertThat(buffer.isEmpty(), is(true));
+    buffer.close();
+  }
+
+  @Test
+  public void elementsBeyondTheMemoryBudgetAreSpilled() {
+    SpillingFeedbackBuffer<Integer> buffer = instanceUnderTest(0);
+
+    final int numElements = 100_000;
+    for (int i = 0; i < numElements; i++) {
+      buffer.add(i);
+    }
+    for (int i = 0; i < numElements; i++) {
+      assertThat(buffer.poll(), is(i));
+    }
+    assertThat(buffer.isEmpty(), is(true));
+    buffer.close();
+  }
+
+  @Test
+  public void remainingElementsAreVisitedWithoutBeingRemoved() {
+    SpillingFeedbackBuffer<Integer> buffer = instanceUnderTest(1024 * 1024);
+    buffer.add(1);
+    buffer.add(2);
+    buffer.add(3);
+    assertThat(buffer.poll(), is(1));
+    buffer.add(4);
+
+    assertThat(remainingOf(buffer), contains(2, 3, 4));
+    assertThat(remainingOf(buffer), contains(2, 3, 4));
+    assertThat(buffer.poll(), is(2));
+    buffer.add(5);
+    assertThat(remainingOf(buffer), contains(3, 4, 5));
+
+    assertThat(buffer.poll(), is(3));
+    assertThat(buffer.poll(), is(4));
+    assertThat(buffer.poll(), is(5));
+    assertThat(buffer.poll(), nullValue());
+    buffer.close();
+  }
+
+  @Test
+  public void remainingSpilledElementsAreVisitedWithoutBeingRemoved() {
+    SpillingFeedbackBuffer<Integer> buffer = instanceUnderTest(0);
+
+    final int numElements = 100_000;
+    for (int i = 0; i < numElements; i++) {
+      buffer.add(i);
+    }
+    for (int i = 0; i < numElements / 2; i++) {
+      assertThat(buffer.poll(), is(i));
+    }
+    List<Integer> remaining = remainingOf(buffer);
+
+    assertThat(remaining.size(), is(numElements / 2));
+    for (int i = numElements / 2; i < numElements; i++) {
+      assertThat(remaining.get(i - numElements / 2), is(i));
+      assertThat(buffer.poll(), is(i));
+    }
+    assertThat(buffer.isEmpty(), is(true));
+    buffer.close();
+  }
+
+  private static List<Integer> remainingOf(SpillingFeedbackBuffer<Integer> buffer) {
+    List<Integer> remaining = new ArrayList<>();
+    buffer.forEachRemaining(
+        (bytes, length) -> remaining.add(ByteBuffer.wrap(bytes, 0, length).getInt()));
+    return remaining;
+  }
+
+  private static SpillingFeedbackBuffer<Integer> instanceUnderTest(long memory) {
+    return new SpillingFeedbackBuffer<>(IntSerializer.INSTANCE, IO_MANAGER, memory);
+  }
+}
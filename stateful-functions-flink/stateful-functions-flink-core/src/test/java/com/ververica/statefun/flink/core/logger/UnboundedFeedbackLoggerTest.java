@@ -17,14 +17,28 @@
 package com.ververica.statefun.flink.core.logger;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 import com.ververica.statefun.flink.core.di.ObjectContainer;
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import org.apache.flink.api.common.typeutils.base.IntSerializer;
+import org.apache.flink.core.memory.DataInputViewStreamWrapper;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.core.memory.DataOutputViewStreamWrapper;
+import org.apache.flink.core.memory.MemorySegment;
+import org.apache.flink.runtime.io.compression.BlockCompressor;
+import org.apache.flink.runtime.io.compression.Lz4BlockCompressionFactory;
 import org.apache.flink.runtime.io.disk.iomanager.IOManagerAsync;
+import org.apache.flink.runtime.state.KeyGroupRange;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
@@ -76,6 +90,222 @@ public class UnboundedFeedbackLoggerTest {
     roundTrip(1_000_000, 0);
   }
 
+  @Test
+  public void consecutiveCheckpointsOnlyContainTheirOwnElements() throws Exception {
+    UnboundedFeedbackLogger<Integer> logger = instanceUnderTest(1, 1024);
+
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    logger.startLogging(first);
+    logger.append(1);
+    logger.append(2);
+    logger.commit();
+
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    logger.startLogging(second);
+    logger.append(3);
+    logger.commit();
+
+    ArrayList<Integer> messages = new ArrayList<>();
+    instanceUnderTest(1, 0)
+        .replyLoggedEnvelops(new ByteArrayInputStream(second.toByteArray()), messages::add);
+
+    assertThat(messages, contains(3));
+  }
+
+  @Test
+  public void roundTripWithCompression() throws Exception {
+    // enough elements to span several compressed blocks.
+    final int numElements = 10 * KeyGroupStream.BLOCK_SIZE;
+    UnboundedFeedbackLogger<Integer> logger = compressedInstanceUnderTest();
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    logger.startLogging(output);
+    for (int i = 0; i < numElements; i++) {
+      logger.append(i % 16);
+    }
+    logger.commit();
+
+    ArrayList<Integer> messages = new ArrayList<>();
+    instanceUnderTest(1, 0)
+        .replyLoggedEnvelops(new ByteArrayInputStream(output.toByteArray()), messages::add);
+
+    assertThat(output.size() < numElements * Integer.BYTES, is(true));
+    assertThat(messages.size(), is(numElements));
+    for (int i = 0; i < numElements; i++) {
+      assertThat(messages.get(i), is(i % 16));
+    }
+  }
+
+  @Test
+  public void serializedElementsAreLoggedAsIs() throws Exception {
+    UnboundedFeedbackLogger<Integer> logger = instanceUnderTest(1, 1024);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    logger.startLogging(output);
+    logger.appendSerialized(0, new byte[] {0, 0, 0, 7}, 4);
+    logger.append(8);
+    logger.commit();
+
+    ArrayList<Integer> messages = new ArrayList<>();
+    instanceUnderTest(1, 0)
+        .replyLoggedEnvelops(new ByteArrayInputStream(output.toByteArray()), messages::add);
+
+    assertThat(messages, contains(7, 8));
+  }
+
+  @Test
+  public void unversionedFormatIsStillReadable() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(2); // number of elements
+    output.writeInt(7);
+    output.writeInt(8);
+
+    ArrayList<Integer> messages = new ArrayList<>();
+    instanceUnderTest(1, 0)
+        .replyLoggedEnvelops(new ByteArrayInputStream(bytes.toByteArray()), messages::add);
+
+    assertThat(messages, contains(7, 8));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void elementsOfOtherKeyGroupsAreRejected() {
+    UnboundedFeedbackLogger<Integer> logger = instanceUnderTest(4, KeyGroupRange.of(0, 1), 1024);
+
+    logger.startLogging(new ByteArrayOutputStream());
+    for (int i = 0; i < 100; i++) {
+      logger.append(i);
+    }
+  }
+
+  @Test
+  public void asynchronousCommitReleasesTheLeaseOnlyOnceWritten() throws Exception {
+    ArrayDeque<Runnable> pendingCommits = new ArrayDeque<>();
+    AtomicInteger openLeases = new AtomicInteger();
+    UnboundedFeedbackLogger<Integer> logger =
+        instanceUnderTest(pendingCommits::add, new LeaseCountingOps(openLeases));
+
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    logger.startLogging(first);
+    logger.append(1);
+    logger.commit();
+
+    // processing continues, while the first checkpoint is not yet written.
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    logger.startLogging(second);
+    logger.append(2);
+
+    assertThat(first.size(), is(0));
+    assertThat(openLeases.get(), is(2));
+
+    pendingCommits.poll().run();
+
+    assertThat(openLeases.get(), is(1));
+    ArrayList<Integer> messages = new ArrayList<>();
+    instanceUnderTest(1, 0)
+        .replyLoggedEnvelops(new ByteArrayInputStream(first.toByteArray()), messages::add);
+    assertThat(messages, contains(1));
+  }
+
+  @Test
+  public void compressionBlockIsTakenFromThePoolUntilSealed() throws Exception {
+    MemorySegmentPool pool = new MemorySegmentPool(2 * MemorySegmentPool.PAGE_SIZE);
+    BlockCompressor compressor = new Lz4BlockCompressionFactory().getCompressor();
+    KeyGroupStream<Integer> stream =
+        new KeyGroupStream<>(
+            IntSerializer.INSTANCE,
+            IO_MANAGER,
+            pool,
+            new DataOutputSerializer(32),
+            compressor,
+            new byte[compressor.getMaxCompressedSize(KeyGroupStream.BLOCK_SIZE)]);
+
+    stream.append(1);
+    // one page is used by the spilling buffer, and the other by the block.
+    assertThat(pool.nextSegment(), is(nullValue()));
+
+    stream.seal();
+    MemorySegment block = pool.nextSegment();
+    assertThat(block, is(notNullValue()));
+    pool.release(block);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    stream.writeTo(new DataOutputViewStreamWrapper(output));
+    ArrayList<Integer> messages = new ArrayList<>();
+    KeyGroupStream.readFrom(
+        new DataInputViewStreamWrapper(new ByteArrayInputStream(output.toByteArray())),
+        IntSerializer.INSTANCE,
+        messages::add);
+    assertThat(messages, contains(1));
+  }
+
+  @Test
+  public void closingTheCommitExecutorWaitsForQueuedCommits() throws Exception {
+    BackgroundCommitExecutor executor = new BackgroundCommitExecutor("test", t -> {});
+    AtomicInteger openLeases = new AtomicInteger();
+    UnboundedFeedbackLogger<Integer> logger =
+        instanceUnderTest(executor, new LeaseCountingOps(openLeases));
+
+    CountDownLatch running = new CountDownLatch(1);
+    executor.execute(
+        () -> {
+          running.countDown();
+          sleep(50);
+        });
+    running.await();
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    logger.startLogging(output);
+    logger.append(1);
+    logger.commit();
+
+    executor.close();
+    logger.close();
+
+    assertThat(openLeases.get(), is(0));
+    ArrayList<Integer> messages = new ArrayList<>();
+    instanceUnderTest(1, 0)
+        .replyLoggedEnvelops(new ByteArrayInputStream(output.toByteArray()), messages::add);
+    assertThat(messages, contains(1));
+  }
+
+  @Test
+  public void closingTheCommitExecutorNowReleasesTheLeasesOfDroppedCommits() throws Exception {
+    BackgroundCommitExecutor executor = new BackgroundCommitExecutor("test", t -> {});
+    AtomicInteger openLeases = new AtomicInteger();
+    UnboundedFeedbackLogger<Integer> logger =
+        instanceUnderTest(executor, new LeaseCountingOps(openLeases));
+
+    CountDownLatch running = new CountDownLatch(1);
+    executor.execute(
+        () -> {
+          running.countDown();
+          try {
+            new CountDownLatch(1).await();
+          } catch (InterruptedException ignored) {
+            // closeNow() interrupts the running command.
+          }
+        });
+    running.await();
+
+    logger.startLogging(new ByteArrayOutputStream());
+    logger.append(1);
+    logger.commit();
+
+    executor.closeNow();
+    logger.close();
+
+    assertThat(openLeases.get(), is(0));
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   private void roundTrip(int numElements, int maxMemoryInBytes) throws Exception {
     InputStream input = serializeKeyGroup(1, maxMemoryInBytes, numElements);
 
@@ -106,17 +336,81 @@ public class UnboundedFeedbackLoggerTest {
     return new ByteArrayInputStream(output.toByteArray());
   }
 
-  @SuppressWarnings("unchecked")
   private UnboundedFeedbackLogger<Integer> instanceUnderTest(int maxParallelism, long totalMemory) {
+    return instanceUnderTest(maxParallelism, KeyGroupRange.of(0, maxParallelism - 1), totalMemory);
+  }
+
+  @SuppressWarnings("unchecked")
+  private UnboundedFeedbackLogger<Integer> instanceUnderTest(
+      int maxParallelism, KeyGroupRange keyGroupRange, long totalMemory) {
 
     ObjectContainer container =
         Loggers.unboundedSpillableLoggerContainer(
-            IO_MANAGER, maxParallelism, totalMemory, IntSerializer.INSTANCE, Function.identity());
+            IO_MANAGER,
+            maxParallelism,
+            keyGroupRange,
+            totalMemory,
+            IntSerializer.INSTANCE,
+            Function.identity());
 
     container.add("checkpoint-stream-ops", CheckpointedStreamOperations.class, NOOP.INSTANCE);
     return container.get(UnboundedFeedbackLogger.class);
   }
 
+  @SuppressWarnings("unchecked")
+  private UnboundedFeedbackLogger<Integer> compressedInstanceUnderTest() {
+    ObjectContainer container =
+        Loggers.unboundedSpillableLoggerContainer(
+            IO_MANAGER,
+            1,
+            KeyGroupRange.of(0, 0),
+            1024 * 1024,
+            IntSerializer.INSTANCE,
+            Function.identity());
+
+    container.add("checkpoint-stream-ops", CheckpointedStreamOperations.class, NOOP.INSTANCE);
+    container.add("compression", boolean.class, true);
+    return container.get(UnboundedFeedbackLogger.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  private UnboundedFeedbackLogger<Integer> instanceUnderTest(
+      Executor commitExecutor, CheckpointedStreamOperations ops) {
+
+    ObjectContainer container =
+        Loggers.unboundedSpillableLoggerContainer(
+            IO_MANAGER,
+            1,
+            KeyGroupRange.of(0, 0),
+            1024,
+            IntSerializer.INSTANCE,
+            Function.identity());
+
+    container.add("checkpoint-stream-ops", CheckpointedStreamOperations.class, ops);
+    container.add("commit-executor", Executor.class, commitExecutor);
+    return container.get(UnboundedFeedbackLogger.class);
+  }
+
+  private static final class LeaseCountingOps implements CheckpointedStreamOperations {
+    private final AtomicInteger openLeases;
+
+    LeaseCountingOps(AtomicInteger openLeases) {
+      this.openLeases = openLeases;
+    }
+
+    @Override
+    public void requireKeyedStateCheckpointed(OutputStream keyedStateCheckpointOutputStream) {}
+
+    @Override
+    public void startNewKeyGroup(OutputStream stream, int keyGroup) {}
+
+    @Override
+    public Closeable acquireLease(OutputStream keyedStateCheckpointOutputStream) {
+      openLeases.incrementAndGet();
+      return openLeases::decrementAndGet;
+    }
+  }
+
   enum NOOP implements CheckpointedStreamOperations {
     INSTANCE;
 
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.message;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import com.ververica.statefun.sdk.FunctionType;
+import org.junit.Test;
+
+public class FunctionTypeCacheTest {
+
+  @Test
+  public void sameTypeIsReturnedAsTheSameInstance() {
+    FunctionTypeCache cache = new FunctionTypeCache();
+
+    FunctionType first = cache.get("com.example", "greeter");
+    FunctionType second = cache.get(new String("com.example"), new String("greeter"));
+
+    assertThat(second, sameInstance(first));
+  }
+
+  @Test
+  public void collidingTypesAreStillCorrect() {
+    FunctionTypeCache cache = new FunctionTypeCache(1);
+
+    FunctionType a = cache.get("com.example", "a");
+    FunctionType b = cache.get("com.example", "b");
+
+    assertThat(a, is(new FunctionType("com.example", "a")));
+    assertThat(b, is(new FunctionType("com.example", "b")));
+    assertThat(cache.get("com.example", "a"), is(a));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.message;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.ververica.statefun.flink.core.generated.Payload;
+import java.util.Collections;
+import java.util.Objects;
+import org.junit.Test;
+
+public class MessagePayloadSerializerKryoTest {
+
+  private static final ClassLoader CLASS_LOADER =
+      MessagePayloadSerializerKryoTest.class.getClassLoader();
+
+  @Test
+  public void registeredPayloadRoundTrip() {
+    MessagePayloadSerializerKryo serializer =
+        new MessagePayloadSerializerKryo(Collections.singletonList(Greeting.class.getName()));
+
+    Payload payload = serializer.serialize(new Greeting("hello"));
+
+    assertThat(serializer.deserialize(CLASS_LOADER, payload), is(new Greeting("hello")));
+  }
+
+  @Test
+  public void registeredPayloadIsSmaller() {
+    MessagePayloadSerializerKryo registered =
+        new MessagePayloadSerializerKryo(Collections.singletonList(Greeting.class.getName()));
+    MessagePayloadSerializerKryo unregistered = new MessagePayloadSerializerKryo();
+
+    int registeredSize = registered.serialize(new Greeting("hello")).getPayloadBytes().size();
+    int unregisteredSize = unregistered.serialize(new Greeting("hello")).getPayloadBytes().size();
+
+    assertTrue(registeredSize < unregisteredSize);
+  }
+
+  @Test
+  public void unknownRegisteredClassesAreIgnored() {
+    MessagePayloadSerializerKryo serializer =
+        new MessagePayloadSerializerKryo(Collections.singletonList("com.example.DoesNotExist"));
+
+    Payload payload = serializer.serialize(new Greeting("hello"));
+
+    assertThat(serializer.deserialize(CLASS_LOADER, payload), is(new Greeting("hello")));
+  }
+
+  @SuppressWarnings("unused")
+  public static final class Greeting {
+    private String text;
+
+    public Greeting() {}
+
+    Greeting(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Greeting && Objects.equals(text, ((Greeting) o).text);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(text);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.message;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.ververica.statefun.flink.core.generated.Checkpoint;
+import com.ververica.statefun.flink.core.generated.EnvelopeAddress;
+import com.ververica.statefun.flink.core.generated.Payload;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class MessagePayloadSerializerPbTest {
+
+  private static final ClassLoader CLASS_LOADER =
+      MessagePayloadSerializerPbTest.class.getClassLoader();
+
+  private static final Checkpoint CHECKPOINT = Checkpoint.newBuilder().setCheckpointId(42).build();
+
+  @Test
+  public void registeredPayloadIsWrittenByReference() {
+    MessagePayloadSerializerPb serializer =
+        new MessagePayloadSerializerPb(
+            Arrays.asList(EnvelopeAddress.class.getName(), Checkpoint.class.getName()));
+
+    Payload payload = serializer.serialize(CHECKPOINT);
+
+    assertThat(payload.getClassName().charAt(0), is('@'));
+    assertThat(payload.getClassName().length() < Checkpoint.class.getName().length(), is(true));
+    assertThat(serializer.deserialize(CLASS_LOADER, payload), is(CHECKPOINT));
+  }
+
+  @Test
+  public void unregisteredPayloadFallsBackToClassName() {
+    MessagePayloadSerializerPb serializer =
+        new MessagePayloadSerializerPb(Collections.singletonList(EnvelopeAddress.class.getName()));
+
+    Payload payload = serializer.serialize(CHECKPOINT);
+
+    assertThat(payload.getClassName(), is(Checkpoint.class.getName()));
+    assertThat(serializer.deserialize(CLASS_LOADER, payload), is(CHECKPOINT));
+  }
+
+  @Test
+  public void payloadsWrittenByNameAreReadAfterRegistration() {
+    Payload payload = new MessagePayloadSerializerPb().serialize(CHECKPOINT);
+
+    MessagePayloadSerializerPb serializer =
+        new MessagePayloadSerializerPb(Collections.singletonList(Checkpoint.class.getName()));
+
+    assertThat(serializer.deserialize(CLASS_LOADER, payload), is(CHECKPOINT));
+  }
+
+  @Test
+  public void referencesDoNotChangeWhenMoreClassesAreRegistered() {
+    Payload payload =
+        new MessagePayloadSerializerPb(Collections.singletonList(Checkpoint.class.getName()))
+            .serialize(CHECKPOINT);
+
+    MessagePayloadSerializerPb serializer =
+        new MessagePayloadSerializerPb(
+            Arrays.asList(EnvelopeAddress.class.getName(), Checkpoint.class.getName()));
+
+    assertThat(serializer.serialize(CHECKPOINT), is(payload));
+    assertThat(serializer.deserialize(CLASS_LOADER, payload), is(CHECKPOINT));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void unknownReferenceIsRejected() {
+    Payload payload =
+        new MessagePayloadSerializerPb(Collections.singletonList(Checkpoint.class.getName()))
+            .serialize(CHECKPOINT);
+
+    new MessagePayloadSerializerPb().deserialize(CLASS_LOADER, payload);
+  }
+}
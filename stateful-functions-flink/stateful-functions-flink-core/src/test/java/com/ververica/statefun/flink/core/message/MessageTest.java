@@ -21,11 +21,13 @@ import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_1_ADDR;
 import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_2_ADDR;
 import static com.ververica.statefun.flink.core.message.MessageFactoryType.WITH_KRYO_PAYLOADS;
 import static com.ververica.statefun.flink.core.message.MessageFactoryType.WITH_PROTOBUF_PAYLOADS;
+import static com.ververica.statefun.flink.core.message.MessageFactoryType.WITH_RAW_BYTE_BUFFER_PAYLOADS;
 import static com.ververica.statefun.flink.core.message.MessageFactoryType.WITH_RAW_PAYLOADS;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import org.apache.flink.core.memory.DataInputDeserializer;
 import org.apache.flink.core.memory.DataOutputSerializer;
@@ -49,7 +51,8 @@ public class MessageTest {
     return Arrays.asList(
         new Object[] {WITH_KRYO_PAYLOADS, DUMMY_PAYLOAD},
         new Object[] {WITH_PROTOBUF_PAYLOADS, DUMMY_PAYLOAD},
-        new Object[] {WITH_RAW_PAYLOADS, DUMMY_PAYLOAD.toByteArray()});
+        new Object[] {WITH_RAW_PAYLOADS, DUMMY_PAYLOAD.toByteArray()},
+        new Object[] {WITH_RAW_BYTE_BUFFER_PAYLOADS, ByteBuffer.wrap(DUMMY_PAYLOAD.toByteArray())});
   }
 
   @Test
@@ -70,4 +73,33 @@ public class MessageTest {
 
     assertThat(payload, is(payload));
   }
+
+  @Test
+  public void serializedMessageIsWrittenBackVerbatim() throws IOException {
+    MessageFactory factory = MessageFactory.forType(type);
+
+    DataOutputSerializer out = new DataOutputSerializer(32);
+    factory.from(FUNCTION_1_ADDR, FUNCTION_2_ADDR, payload).writeTo(factory, out);
+    byte[] original = out.getCopyOfBuffer();
+
+    Message fromEnvelope = factory.from(new DataInputDeserializer(original));
+    assertThat(fromEnvelope.target(), is(FUNCTION_2_ADDR));
+
+    DataOutputSerializer rewritten = new DataOutputSerializer(32);
+    fromEnvelope.writeTo(factory, rewritten);
+
+    assertThat(rewritten.getCopyOfBuffer(), is(original));
+  }
+
+  @Test
+  public void barrierRoundTrip() throws IOException {
+    MessageFactory factory = MessageFactory.forType(type);
+
+    DataOutputSerializer out = new DataOutputSerializer(32);
+    factory.from(1L).writeTo(factory, out);
+
+    Message fromEnvelope = factory.from(new DataInputDeserializer(out.getCopyOfBuffer()));
+
+    assertThat(fromEnvelope.isBarrierMessage(), is(true));
+  }
 }
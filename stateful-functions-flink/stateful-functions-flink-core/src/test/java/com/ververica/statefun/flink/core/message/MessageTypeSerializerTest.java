@@ -17,8 +17,10 @@
 package com.ververica.statefun.flink.core.message;
 
 import com.ververica.statefun.flink.core.TestUtils;
+import com.ververica.statefun.flink.core.generated.EnvelopeAddress;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.stream.LongStream;
 import org.apache.flink.api.common.ExecutionConfig;
 import org.apache.flink.api.common.typeutils.SerializerTestBase;
@@ -56,8 +58,10 @@ public class MessageTypeSerializerTest extends SerializerTestBase<Message> {
 
   @Override
   protected TypeSerializer<Message> createSerializer() {
-    return new MessageTypeInformation(MessageFactoryType.WITH_KRYO_PAYLOADS)
-        .createSerializer(new ExecutionConfig());
+    MessageFactoryKey key =
+        MessageFactoryKey.forKryoPayloads(
+            Collections.singletonList(EnvelopeAddress.class.getName()));
+    return new MessageTypeInformation(key).createSerializer(new ExecutionConfig());
   }
 
   @Override
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.apache.flink.metrics.HistogramStatistics;
+import org.junit.Test;
+
+public class SlidingWindowHistogramTest {
+
+  @Test
+  public void emptyHistogram() {
+    SlidingWindowHistogram histogram = new SlidingWindowHistogram(4);
+
+    HistogramStatistics statistics = histogram.getStatistics();
+
+    assertThat(histogram.getCount(), is(0L));
+    assertThat(statistics.size(), is(0));
+    assertThat(statistics.getQuantile(0.5), is(0.0));
+  }
+
+  @Test
+  public void statisticsOfTheRecentSamples() {
+    SlidingWindowHistogram histogram = new SlidingWindowHistogram(4);
+
+    for (long value = 1; value <= 4; value++) {
+      histogram.update(value);
+    }
+    HistogramStatistics statistics = histogram.getStatistics();
+
+    assertThat(statistics.getMin(), is(1L));
+    assertThat(statistics.getMax(), is(4L));
+    assertThat(statistics.getMean(), is(2.5));
+    assertThat(statistics.getQuantile(0.5), is(2.0));
+  }
+
+  @Test
+  public void olderSamplesAreEvicted() {
+    SlidingWindowHistogram histogram = new SlidingWindowHistogram(2);
+
+    histogram.update(100);
+    histogram.update(1);
+    histogram.update(2);
+
+    assertThat(histogram.getCount(), is(3L));
+    assertThat(histogram.getStatistics().getMax(), is(2L));
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.queue;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class LockFreeMpscQueueTest {
+
+  @Test
+  public void exampleUsage() {
+    LockFreeMpscQueue<String> queue = new LockFreeMpscQueue<>(16);
+
+    assertThat(queue.add("hello"), is(1));
+    assertThat(queue.add("world"), is(2));
+
+    assertThat(drain(queue), contains("hello", "world"));
+    assertThat(queue.drainAll().isEmpty(), is(true));
+    assertThat(queue.add("again"), is(1));
+  }
+
+  @Test
+  public void elementsSpanningSeveralChunksAreDrainedInOrder() {
+    LockFreeMpscQueue<Integer> queue = new LockFreeMpscQueue<>(3);
+
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      queue.add(i);
+      expected.add(i);
+    }
+
+    assertThat(drain(queue), is(expected));
+  }
+
+  @Test
+  public void concurrentProducersNeverLoseAnElement() throws InterruptedException {
+    final int producers = 4;
+    final int elementsPerProducer = 100_000;
+    final LockFreeMpscQueue<Integer> queue = new LockFreeMpscQueue<>(64);
+    final ExecutorService consumer = Executors.newSingleThreadExecutor();
+    final int[] lastSeen = new int[producers];
+    final long[] consumed = new long[1];
+
+    // a drain is scheduled only by a producer that observed an empty queue, exactly as the feedback
+    // channel does.
+    final Runnable drainTask =
+        () -> {
+          Deque<Integer> batch = queue.drainAll();
+          Integer element;
+          while ((element = batch.pollFirst()) != null) {
+            int producer = element / elementsPerProducer;
+            int sequence = element % elementsPerProducer + 1;
+            if (sequence <= lastSeen[producer]) {
+              throw new AssertionError("Out of order element " + element);
+            }
+            lastSeen[producer] = sequence;
+            consumed[0]++;
+          }
+        };
+
+    Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      final int base = p * elementsPerProducer;
+      threads[p] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < elementsPerProducer; i++) {
+                  if (queue.add(base + i) == 1) {
+                    consumer.execute(drainTask);
+                  }
+                }
+              });
+      threads[p].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    consumer.shutdown();
+    consumer.awaitTermination(1, TimeUnit.MINUTES);
+
+    assertThat(consumed[0], is((long) producers * elementsPerProducer));
+  }
+
+  private static <T> List<T> drain(LockFreeMpscQueue<T> queue) {
+    List<T> result = new ArrayList<>();
+    Deque<T> batch = queue.drainAll();
+    T element;
+    while ((element = batch.pollFirst()) != null) {
+      result.add(element);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.flink.core.state;
+
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_1_ADDR;
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_2_ADDR;
+import static com.ververica.statefun.flink.core.TestUtils.FUNCTION_TYPE;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.ververica.statefun.sdk.Address;
+import com.ververica.statefun.sdk.FunctionType;
+import com.ververica.statefun.sdk.state.Accessor;
+import com.ververica.statefun.sdk.state.PersistedValue;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class CachingStateTest {
+
+  // test collaborators
+  private final FakeKeyedState backingState = new FakeKeyedState();
+
+  // object under test
+  private final CachingState stateUnderTest = new CachingState(backingState);
+
+  private final Accessor<Integer> accessor =
+      stateUnderTest.createFlinkStateAccessor(
+          FUNCTION_TYPE, PersistedValue.of("counter", Integer.class));
+
+  @Test
+  public void valueIsReadOncePerAddress() {
+    stateUnderTest.setCurrentKey(FUNCTION_1_ADDR);
+
+    accessor.get();
+    accessor.get();
+
+    assertThat(backingState.reads, is(1));
+  }
+
+  @Test
+  public void modificationsAreWrittenBackOnKeySwitch() {
+    stateUnderTest.setCurrentKey(FUNCTION_1_ADDR);
+    accessor.set(1);
+    accessor.set(2);
+
+    assertThat(backingState.writes, is(0));
+
+    stateUnderTest.setCurrentKey(FUNCTION_2_ADDR);
+
+    assertThat(backingState.writes, is(1));
+    assertThat(backingState.values.get(FUNCTION_1_ADDR), is(2));
+  }
+
+  @Test
+  public void flushWritesBackUnderTheCachedAddress() {
+    stateUnderTest.setCurrentKey(FUNCTION_1_ADDR);
+    accessor.set(1);
+
+    // someone else (i.e. a timer) changes the key of the backend
+    backingState.setCurrentKey(FUNCTION_2_ADDR);
+    stateUnderTest.flush();
+
+    assertThat(backingState.values.get(FUNCTION_1_ADDR), is(1));
+    assertThat(backingState.values.get(FUNCTION_2_ADDR), nullValue());
+  }
+
+  @Test
+  public void cleanValuesAreNotWrittenBack() {
+    stateUnderTest.setCurrentKey(FUNCTION_1_ADDR);
+    accessor.get();
+    stateUnderTest.setCurrentKey(FUNCTION_2_ADDR);
+
+    assertThat(backingState.writes, is(0));
+  }
+
+  @Test
+  public void clearedValueIsRemoved() {
+    backingState.values.put(FUNCTION_1_ADDR, 1);
+
+    stateUnderTest.setCurrentKey(FUNCTION_1_ADDR);
+    accessor.clear();
+    stateUnderTest.flush();
+
+    assertThat(backingState.values.containsKey(FUNCTION_1_ADDR), is(false));
+  }
+
+  @Test
+  public void cacheIsInvalidatedOnKeySwitch() {
+    backingState.values.put(FUNCTION_2_ADDR, 2);
+
+    stateUnderTest.setCurrentKey(FUNCTION_1_ADDR);
+    accessor.set(1);
+    stateUnderTest.setCurrentKey(FUNCTION_2_ADDR);
+
+    assertThat(accessor.get(), is(2));
+  }
+
+  private static final class FakeKeyedState implements State {
+    final Map<Address, Object> values = new HashMap<>();
+    Address currentKey;
+    int reads;
+    int writes;
+
+    @Override
+    public <T> Accessor<T> createFlinkStateAccessor(
+        FunctionType functionType, PersistedValue<T> persistedValue) {
+      return new Accessor<T>() {
+
+        @Override
+        public void set(T value) {
+          writes++;
+          values.put(currentKey, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get() {
+          reads++;
+          return (T) values.get(currentKey);
+        }
+
+        @Override
+        public void clear() {
+          writes++;
+          values.remove(currentKey);
+        }
+      };
+    }
+
+    @Override
+    public void setCurrentKey(Address address) {
+      currentKey = address;
+    }
+  }
+}
@@ -28,6 +28,9 @@ public final class Address {
   private final FunctionType type;
   private final String id;
 
+  /** Cached hash code, computed lazily (zero means not yet computed). */
+  private int hash;
+
   /**
    * Creates an {@link Address}.
    *
@@ -71,10 +74,12 @@ public final class Address {
 
   @Override
   public int hashCode() {
-    int hash = 0;
-    hash = 37 * hash + type.hashCode();
-    hash = 37 * hash + id.hashCode();
-    return hash;
+    int h = hash;
+    if (h == 0) {
+      h = 37 * type.hashCode() + id.hashCode();
+      hash = h;
+    }
+    return h;
   }
 
   @Override
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.sdk;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Provides context for a single {@link AsyncStatefulFunction} invocation.
+ *
+ * <p>In addition to what a {@link Context} provides, this context remains valid until the {@link
+ * java.util.concurrent.CompletionStage} that was returned by the invocation completes, as long as
+ * it is used from a task that runs on {@link #executor()}.
+ */
+public interface AsyncContext extends Context {
+
+  /**
+   * Returns an executor that runs tasks as a continuation of this invocation: on the runtime's
+   * thread, with the function's persisted values bound to the state of this invocation's address,
+   * and with this context available to send messages.
+   *
+   * <p>Any continuation that accesses persisted values or this context must run on this executor.
+   * Sending a message from any other thread fails with an {@link IllegalStateException}. For
+   * example:
+   *
+   * <pre>{@code
+   * return client.lookup(key).thenAcceptAsync(value -> {
+   *     cached.set(value);
+   *     context.reply(value);
+   * }, context.executor());
+   * }</pre>
+   *
+   * @return an executor for the continuations of this invocation.
+   */
+  Executor executor();
+}
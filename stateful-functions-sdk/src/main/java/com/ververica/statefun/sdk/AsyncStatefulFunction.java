@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Ververica GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ververica.statefun.sdk;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A {@link StatefulFunction} whose invocations complete asynchronously.
+ *
+ * <p>While the {@link CompletionStage} returned by an invocation is not yet complete, no other
+ * message is delivered to the same {@link Address}, but the other addresses (of this and of any
+ * other function type) keep being invoked. Continuations that access the function's persisted
+ * values or the context must run on {@link AsyncContext#executor()}, where the state of the invoked
+ * address is restored.
+ *
+ * <p>Unlike {@link Context#registerAsyncOperation(Object, java.util.concurrent.CompletableFuture)},
+ * the pending invocations are not persisted. Instead, they are completed before a checkpoint is
+ * taken, hence the returned stages should complete (or fail) in a timely manner.
+ */
+public interface AsyncStatefulFunction extends StatefulFunction {
+
+  /**
+   * Invokes this function with a given input.
+   *
+   * @param context context for the current invocation, and for its continuations.
+   * @param input input for the current invocation.
+   * @return a stage that completes once this invocation, including its continuations, completes.
+   */
+  CompletionStage<Void> invoke(AsyncContext context, Object input);
+
+  /**
+   * Asynchronous functions are always invoked with an {@link AsyncContext}.
+   *
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  default void invoke(Context context, Object input) {
+    throw new UnsupportedOperationException(
+        "An AsyncStatefulFunction must be invoked with an AsyncContext.");
+  }
+}
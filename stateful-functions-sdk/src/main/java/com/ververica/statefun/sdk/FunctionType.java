@@ -31,6 +31,9 @@ public final class FunctionType {
   private final String namespace;
   private final String type;
 
+  /** Cached hash code, computed lazily (zero means not yet computed). */
+  private int hash;
+
   /**
    * Creates a {@link FunctionType}.
    *
@@ -74,10 +77,12 @@ public final class FunctionType {
 
   @Override
   public int hashCode() {
-    int hash = 0;
-    hash = 37 * hash + namespace.hashCode();
-    hash = 37 * hash + type.hashCode();
-    return hash;
+    int h = hash;
+    if (h == 0) {
+      h = 37 * namespace.hashCode() + type.hashCode();
+      hash = h;
+    }
+    return h;
   }
 
   @Override